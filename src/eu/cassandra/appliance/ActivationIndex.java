@@ -0,0 +1,93 @@
+/*
+Copyright 2011-2013 The Cassandra Consortium (cassandra-fp7.eu)
+
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package eu.cassandra.appliance;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * This class is used for keeping the activations of an appliance as a sorted
+ * list of non-overlapping closed intervals of minutes. Overlapping or adjacent
+ * activations are merged when added, so the intervals contain exactly the
+ * minutes of at least one activation and checking if a minute belongs to an
+ * activation costs a single binary search.
+ */
+class ActivationIndex
+{
+
+  /**
+   * This variable contains the end of each interval, keyed by its start.
+   */
+  private final TreeMap<Integer, Integer> intervals =
+    new TreeMap<Integer, Integer>();
+
+  /**
+   * This function is used for adding an activation. Activations that end
+   * before they start contain no minutes and are ignored.
+   *
+   * @param start
+   *          The first minute of the activation.
+   * @param end
+   *          The last minute of the activation.
+   */
+  void add (int start, int end)
+  {
+    if (start > end)
+      return;
+
+    // Merging with the interval starting before the activation, if they meet.
+    Map.Entry<Integer, Integer> previous = intervals.floorEntry(start);
+
+    if (previous != null && previous.getValue() >= start - 1) {
+      if (previous.getValue() >= end)
+        return;
+      start = previous.getKey();
+      intervals.remove(start);
+    }
+
+    // Merging with the intervals starting within the activation.
+    Map.Entry<Integer, Integer> next = intervals.ceilingEntry(start);
+
+    while (next != null && next.getKey() <= end + 1) {
+      end = Math.max(end, next.getValue());
+      intervals.remove(next.getKey());
+      next = intervals.ceilingEntry(start);
+    }
+
+    intervals.put(start, end);
+  }
+
+  /**
+   * This function returns the interval containing a minute, or null if the
+   * minute does not belong to any activation.
+   */
+  int[] find (int minute)
+  {
+    Map.Entry<Integer, Integer> entry = intervals.floorEntry(minute);
+
+    if (entry == null || entry.getValue() < minute)
+      return null;
+
+    return new int[] { entry.getKey(), entry.getValue() };
+  }
+
+  boolean contains (int minute)
+  {
+    return find(minute) != null;
+  }
+}
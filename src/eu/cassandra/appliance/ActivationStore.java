@@ -0,0 +1,407 @@
+/*
+Copyright 2011-2013 The Cassandra Consortium (cassandra-fp7.eu)
+
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package eu.cassandra.appliance;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * This class is used for keeping the activations (matching pairs of points of
+ * interest) of an appliance in columns of primitive values instead of objects.
+ * Each activation keeps its event id, its start and end minute (from the start
+ * of the data set) and the active and reactive power difference of its rising
+ * and reduction point. The activations are ordered by event id and then by the
+ * order they were added, so the activations of an event are found with a
+ * binary search and the columns are read without any copying. Since the ids
+ * are not always in chronological order (e.g. the activations of a periodic
+ * load are not part of an event), the chronological order of the activations
+ * is given separately.
+ */
+public class ActivationStore
+{
+
+  /**
+   * This constant is the initial capacity of the columns.
+   */
+  private static final int INITIAL_CAPACITY = 16;
+
+  private int size = 0;
+
+  /**
+   * This variable contains the number of distinct events of the activations.
+   */
+  private int numberOfEvents = 0;
+
+  private int[] eventIds = new int[INITIAL_CAPACITY];
+
+  private int[] starts = new int[INITIAL_CAPACITY];
+
+  private int[] ends = new int[INITIAL_CAPACITY];
+
+  private double[] risingPDiffs = new double[INITIAL_CAPACITY];
+
+  private double[] risingQDiffs = new double[INITIAL_CAPACITY];
+
+  private double[] reductionPDiffs = new double[INITIAL_CAPACITY];
+
+  private double[] reductionQDiffs = new double[INITIAL_CAPACITY];
+
+  /**
+   * This function is used for adding an activation after the other activations
+   * of its event.
+   *
+   * @param eventId
+   *          The id of the event of the activation.
+   * @param start
+   *          The start minute of the activation (from the start of the data
+   *          set).
+   * @param end
+   *          The end minute of the activation (from the start of the data set).
+   * @param rising
+   *          The active and reactive power difference of the rising point.
+   * @param reduction
+   *          The active and reactive power difference of the reduction point.
+   */
+  void add (int eventId, int start, int end, double[] rising,
+            double[] reduction)
+  {
+    if (size == eventIds.length)
+      grow();
+
+    int position = last(eventId);
+
+    if (position == first(eventId))
+      numberOfEvents++;
+
+    if (position < size) {
+      int length = size - position;
+      System.arraycopy(eventIds, position, eventIds, position + 1, length);
+      System.arraycopy(starts, position, starts, position + 1, length);
+      System.arraycopy(ends, position, ends, position + 1, length);
+      System.arraycopy(risingPDiffs, position, risingPDiffs, position + 1,
+                       length);
+      System.arraycopy(risingQDiffs, position, risingQDiffs, position + 1,
+                       length);
+      System.arraycopy(reductionPDiffs, position, reductionPDiffs,
+                       position + 1, length);
+      System.arraycopy(reductionQDiffs, position, reductionQDiffs,
+                       position + 1, length);
+    }
+
+    eventIds[position] = eventId;
+    starts[position] = start;
+    ends[position] = end;
+    risingPDiffs[position] = rising[0];
+    risingQDiffs[position] = rising[1];
+    reductionPDiffs[position] = reduction[0];
+    reductionQDiffs[position] = reduction[1];
+
+    size++;
+  }
+
+  /**
+   * This function is used for removing an activation.
+   *
+   * @param index
+   *          The position of the activation.
+   */
+  void remove (int index)
+  {
+    int eventId = eventIds[index];
+    int length = size - index - 1;
+
+    System.arraycopy(eventIds, index + 1, eventIds, index, length);
+    System.arraycopy(starts, index + 1, starts, index, length);
+    System.arraycopy(ends, index + 1, ends, index, length);
+    System.arraycopy(risingPDiffs, index + 1, risingPDiffs, index, length);
+    System.arraycopy(risingQDiffs, index + 1, risingQDiffs, index, length);
+    System.arraycopy(reductionPDiffs, index + 1, reductionPDiffs, index,
+                     length);
+    System.arraycopy(reductionQDiffs, index + 1, reductionQDiffs, index,
+                     length);
+
+    size--;
+
+    if (!contains(eventId))
+      numberOfEvents--;
+  }
+
+  /**
+   * This function is used for changing the end of an activation, along with
+   * its reduction point.
+   *
+   * @param index
+   *          The position of the activation.
+   * @param end
+   *          The new end minute (from the start of the data set).
+   * @param reduction
+   *          The active and reactive power difference of the new reduction
+   *          point.
+   */
+  void setEnd (int index, int end, double[] reduction)
+  {
+    ends[index] = end;
+    reductionPDiffs[index] = reduction[0];
+    reductionQDiffs[index] = reduction[1];
+  }
+
+  /**
+   * This function is used for sorting the activations of each event by their
+   * start and then their end minute. The sorting is stable and the events
+   * keep their order.
+   */
+  void sortEvents ()
+  {
+    for (int i = 1; i < size; i++)
+      for (int j = i; j > 0 && eventIds[j - 1] == eventIds[j]
+                      && isAfter(j - 1, j); j--)
+        swap(j - 1, j);
+  }
+
+  /**
+   * This function returns the positions of the activations in chronological
+   * order, by their start and then their end minute.
+   *
+   * @return the positions of the activations.
+   */
+  public int[] startOrder ()
+  {
+    Integer[] positions = new Integer[size];
+    for (int i = 0; i < size; i++)
+      positions[i] = i;
+
+    Arrays.sort(positions, new Comparator<Integer>() {
+      @Override
+      public int compare (Integer first, Integer second)
+      {
+        if (isAfter(first, second))
+          return 1;
+        else if (isAfter(second, first))
+          return -1;
+        else
+          return 0;
+      }
+    });
+
+    int[] result = new int[size];
+    for (int i = 0; i < size; i++)
+      result[i] = positions[i];
+
+    return result;
+  }
+
+  /**
+   * This is an auxiliary function showing if an activation starts (or ends in
+   * case of the same start) after another one.
+   */
+  private boolean isAfter (int first, int second)
+  {
+    if (starts[first] != starts[second])
+      return starts[first] > starts[second];
+    else
+      return ends[first] > ends[second];
+  }
+
+  /**
+   * This is an auxiliary function swapping two activations.
+   */
+  private void swap (int first, int second)
+  {
+    int tempInt = eventIds[first];
+    eventIds[first] = eventIds[second];
+    eventIds[second] = tempInt;
+
+    tempInt = starts[first];
+    starts[first] = starts[second];
+    starts[second] = tempInt;
+
+    tempInt = ends[first];
+    ends[first] = ends[second];
+    ends[second] = tempInt;
+
+    double tempDouble = risingPDiffs[first];
+    risingPDiffs[first] = risingPDiffs[second];
+    risingPDiffs[second] = tempDouble;
+
+    tempDouble = risingQDiffs[first];
+    risingQDiffs[first] = risingQDiffs[second];
+    risingQDiffs[second] = tempDouble;
+
+    tempDouble = reductionPDiffs[first];
+    reductionPDiffs[first] = reductionPDiffs[second];
+    reductionPDiffs[second] = tempDouble;
+
+    tempDouble = reductionQDiffs[first];
+    reductionQDiffs[first] = reductionQDiffs[second];
+    reductionQDiffs[second] = tempDouble;
+  }
+
+  /**
+   * This is an auxiliary function enlarging the columns by half their size.
+   */
+  private void grow ()
+  {
+    int capacity = eventIds.length + (eventIds.length >> 1) + 1;
+
+    eventIds = Arrays.copyOf(eventIds, capacity);
+    starts = Arrays.copyOf(starts, capacity);
+    ends = Arrays.copyOf(ends, capacity);
+    risingPDiffs = Arrays.copyOf(risingPDiffs, capacity);
+    risingQDiffs = Arrays.copyOf(risingQDiffs, capacity);
+    reductionPDiffs = Arrays.copyOf(reductionPDiffs, capacity);
+    reductionQDiffs = Arrays.copyOf(reductionQDiffs, capacity);
+  }
+
+  /**
+   * This function returns the position of the first activation of an event,
+   * or the position it would be added at if the event has no activations.
+   */
+  public int first (int eventId)
+  {
+    int low = 0, high = size;
+
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (eventIds[middle] < eventId)
+        low = middle + 1;
+      else
+        high = middle;
+    }
+
+    return low;
+  }
+
+  /**
+   * This function returns the position after the last activation of an event.
+   */
+  public int last (int eventId)
+  {
+    int low = 0, high = size;
+
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (eventIds[middle] <= eventId)
+        low = middle + 1;
+      else
+        high = middle;
+    }
+
+    return low;
+  }
+
+  /**
+   * This function shows if there are activations in an event.
+   */
+  public boolean contains (int eventId)
+  {
+    return first(eventId) != last(eventId);
+  }
+
+  public int size ()
+  {
+    return size;
+  }
+
+  public int getNumberOfEvents ()
+  {
+    return numberOfEvents;
+  }
+
+  public int getEventId (int index)
+  {
+    return eventIds[index];
+  }
+
+  public int getStart (int index)
+  {
+    return starts[index];
+  }
+
+  public int getEnd (int index)
+  {
+    return ends[index];
+  }
+
+  public double getRisingPDiff (int index)
+  {
+    return risingPDiffs[index];
+  }
+
+  public double getRisingQDiff (int index)
+  {
+    return risingQDiffs[index];
+  }
+
+  public double getReductionPDiff (int index)
+  {
+    return reductionPDiffs[index];
+  }
+
+  public double getReductionQDiff (int index)
+  {
+    return reductionQDiffs[index];
+  }
+
+  /**
+   * This function returns the percentage euclidean distance of a pair of
+   * values from the rising point of an activation, in the same way as the
+   * points of interest.
+   */
+  public double risingPercentageDistance (int index, double[] meanValues)
+  {
+    return percentageDistance(risingPDiffs[index], risingQDiffs[index],
+                              meanValues);
+  }
+
+  /**
+   * This function returns the percentage euclidean distance of a pair of
+   * values from the reduction point of an activation, in the same way as the
+   * points of interest.
+   */
+  public double reductionPercentageDistance (int index, double[] meanValues)
+  {
+    return percentageDistance(reductionPDiffs[index], reductionQDiffs[index],
+                              meanValues);
+  }
+
+  private static double percentageDistance (double pDiff, double qDiff,
+                                            double[] meanValues)
+  {
+    return 100
+           * Math.sqrt(Math.pow(pDiff - meanValues[0], 2)
+                       + Math.pow(qDiff - meanValues[1], 2))
+           / Math.sqrt(Math.pow(pDiff, 2) + Math.pow(qDiff, 2));
+  }
+
+  public void clear ()
+  {
+    size = 0;
+    numberOfEvents = 0;
+  }
+
+  /**
+   * This function is used for the printing of an activation to the console.
+   */
+  public String toString (int index)
+  {
+    return "Event: " + eventIds[index] + " Start: " + starts[index] + " End: "
+           + ends[index] + " Rising: " + risingPDiffs[index] + ", "
+           + risingQDiffs[index] + " Reduction: " + reductionPDiffs[index]
+           + ", " + reductionQDiffs[index];
+  }
+}
@@ -19,17 +19,15 @@ package eu.cassandra.appliance;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.Map;
-import java.util.Set;
 import java.util.TreeMap;
-import java.util.TreeSet;
 
 import org.apache.log4j.Logger;
 
 import eu.cassandra.event.Event;
 import eu.cassandra.utils.Constants;
 import eu.cassandra.utils.PointOfInterest;
+import eu.cassandra.utils.RunningStatistics;
 import eu.cassandra.utils.Utils;
 
 /**
@@ -57,25 +55,17 @@ public class Appliance
   private String activity = "";
 
   /**
-   * This variable is a map of the event id number and a list of the detected
-   * rising points (points that the active power is increasing).
+   * This variable contains the matching pairs of points of interest detected
+   * as part of this appliance, ordered by event id.
    */
-  private final Map<Integer, ArrayList<PointOfInterest>> risingPoints =
-    new TreeMap<Integer, ArrayList<PointOfInterest>>();
+  private final ActivationStore matchingPoints = new ActivationStore();
 
   /**
-   * This variable is a map of the event id number and a list of the detected
-   * reduction points (points that the active power is increasing).
+   * This variable contains the activations of the appliance in each event (in
+   * minutes from the start of the event), as created by the matching pairs.
    */
-  private final Map<Integer, ArrayList<PointOfInterest>> reductionPoints =
-    new TreeMap<Integer, ArrayList<PointOfInterest>>();
-
-  /**
-   * This variable is a map of the event id number and a list of the detected
-   * matching pairs of points of interest.
-   */
-  private final Map<Integer, ArrayList<PointOfInterest[]>> matchingPoints =
-    new TreeMap<Integer, ArrayList<PointOfInterest[]>>();
+  private final Map<Integer, ActivationIndex> activations =
+    new TreeMap<Integer, ActivationIndex>();
 
   /**
    * This variable represents the summary of the values of the active and
@@ -100,6 +90,12 @@ public class Appliance
    */
   private double distance = 0;
 
+  /**
+   * This variable contains the running mean and variance of the active and
+   * reactive power and the duration of the activations of the appliance.
+   */
+  private final RunningStatistics statistics = new RunningStatistics(3);
+
   /**
    * This is a variable containing the active and reactive consumption model of
    * the washing machine.
@@ -124,8 +120,6 @@ public class Appliance
   {
     this.name = name;
     this.activity = activity;
-    risingPoints.clear();
-    reductionPoints.clear();
     matchingPoints.clear();
   }
 
@@ -146,14 +140,52 @@ public class Appliance
     meanValuesSum[1] = q * numberOfPoints;
     durationSum = duration * numberOfPoints / 2;
     numberOfMatchingPoints = numberOfPoints;
+
+    double[] sample = { p, q, duration };
+    for (int i = 0; i < numberOfPoints / 2; i++)
+      statistics.add(sample);
+  }
+
+  /**
+   * The constructor of an Appliance Model coming from the appliance library,
+   * with its full learned state.
+   * 
+   * @param name
+   *          The name of the Appliance Model
+   * @param activity
+   *          The name of the activity the appliance participates in.
+   * @param meanValuesSum
+   *          The sums of the active and reactive power of the matching points.
+   * @param numberOfMatchingPoints
+   *          The number of matching points.
+   * @param durationSum
+   *          The sum of the durations of the end-uses.
+   * @param distance
+   *          The distance between the end-uses.
+   * @param statistics
+   *          The running statistics of the activations.
+   */
+  Appliance (String name, String activity, double[] meanValuesSum,
+             int numberOfMatchingPoints, double durationSum, double distance,
+             RunningStatistics statistics)
+  {
+    this.name = name;
+    this.activity = activity;
+    this.meanValuesSum[0] = meanValuesSum[0];
+    this.meanValuesSum[1] = meanValuesSum[1];
+    this.numberOfMatchingPoints = numberOfMatchingPoints;
+    this.durationSum = durationSum;
+    this.distance = distance;
+    this.statistics.merge(statistics);
   }
 
   /**
    * This function is used as a getter for the matching points of the appliance.
+   * The store is returned as is, without copying.
    * 
-   * @return the map of the matching points of the appliance.
+   * @return the store of the matching points of the appliance.
    */
-  public Map<Integer, ArrayList<PointOfInterest[]>> getMatchingPoints ()
+  public ActivationStore getMatchingPoints ()
   {
     if (name.contains("Washing"))
       return null;
@@ -162,18 +194,14 @@ public class Appliance
   }
 
   /**
-   * This function is used as a getter for the matching points of the appliance
-   * for a certain event.
+   * This function is used as a getter for the number of events the appliance
+   * has matching points in.
    * 
-   * @return the list of the matching points of the appliance for a certain
-   *         event.
+   * @return the number of events of the appliance.
    */
-  public ArrayList<PointOfInterest[]> getMatchingPoints (int index)
+  public int getNumberOfEvents ()
   {
-    if (name.contains("Washing"))
-      return null;
-    else
-      return matchingPoints.get(index);
+    return matchingPoints.getNumberOfEvents();
   }
 
   /**
@@ -244,40 +272,6 @@ public class Appliance
     return name;
   }
 
-  /**
-   * This function is used as a getter for all the rising points detected for an
-   * appliance.
-   * 
-   * @return a list of the rising points of the appliance.
-   */
-  public ArrayList<PointOfInterest> getRisingPoints ()
-  {
-    ArrayList<PointOfInterest> result = new ArrayList<PointOfInterest>();
-
-    for (Integer index: matchingPoints.keySet())
-      for (PointOfInterest[] pois: matchingPoints.get(index))
-        result.add(pois[0]);
-
-    return result;
-  }
-
-  /**
-   * This function is used as a getter for all the reduction points detected for
-   * an appliance.
-   * 
-   * @return a list of the reduction points of the appliance.
-   */
-  public ArrayList<PointOfInterest> getReductionPoints ()
-  {
-    ArrayList<PointOfInterest> result = new ArrayList<PointOfInterest>();
-
-    for (Integer index: matchingPoints.keySet())
-      for (PointOfInterest[] pois: matchingPoints.get(index))
-        result.add(pois[1]);
-
-    return result;
-  }
-
   /**
    * This function is used as a getter for the activity of the appliance.
    * 
@@ -303,22 +297,123 @@ public class Appliance
    * This function adds a certain point of interest to the reduction points'
    * list.
    * 
-   * @param eventIndex
-   *          The index of the event the point of interest is originated.
+   * @param event
+   *          The event the point of interest is originated.
    * @param pois
    *          The pair of matching points of interest.
    */
-  public void addMatchingPoints (int eventIndex, PointOfInterest[] pois)
+  public void addMatchingPoints (Event event, PointOfInterest[] pois)
   {
+    int eventIndex = event.getId();
+    int offset = event.getStartMinute();
+
+    double[] rising = { pois[0].getPDiff(), pois[0].getQDiff() };
+    double[] reduction = { pois[1].getPDiff(), pois[1].getQDiff() };
+
+    matchingPoints.add(eventIndex, offset + pois[0].getMinute(),
+                       offset + pois[1].getMinute(), rising, reduction);
 
-    if (!matchingPoints.containsKey(eventIndex))
-      matchingPoints.put(eventIndex, new ArrayList<PointOfInterest[]>());
+    if (!activations.containsKey(eventIndex))
+      activations.put(eventIndex, new ActivationIndex());
+
+    activations.get(eventIndex).add(pois[0].getMinute(), pois[1].getMinute());
 
-    matchingPoints.get(eventIndex).add(pois);
     addMeanValues(pois);
 
   }
 
+  /**
+   * This function adds an activation of the appliance that does not belong to
+   * any event (e.g. a periodic load subtracted from the measurements before
+   * the event detection). Such activations are kept under event id 0.
+   * 
+   * @param start
+   *          The start minute of the activation (from the start of the data
+   *          set).
+   * @param end
+   *          The end minute of the activation (from the start of the data set).
+   * @param rising
+   *          The active and reactive power difference of the rising point.
+   * @param reduction
+   *          The active and reactive power difference of the reduction point.
+   */
+  public void addActivation (int start, int end, double[] rising,
+                             double[] reduction)
+  {
+    matchingPoints.add(0, start, end, rising, reduction);
+
+    meanValuesSum[0] += rising[0] - reduction[0];
+    meanValuesSum[1] += rising[1] - reduction[1];
+    durationSum += end - start;
+    numberOfMatchingPoints += 2;
+
+    statistics.add(sample(rising[0], rising[1], reduction[0], reduction[1],
+                          end - start));
+  }
+
+  /**
+   * This function is used for stitching the activations of the appliance that
+   * were split by a cut of an oversized event. Each activation ending at the
+   * cut is joined with an activation starting at the cut, keeping the rising
+   * point of the first and the reduction point of the second, and the mean
+   * values are re-estimated accordingly.
+   * 
+   * @param cut
+   *          The minute of the cut (from the start of the data set).
+   * @return the number of stitched activations.
+   */
+  public int stitch (int cut)
+  {
+    int result = 0;
+
+    for (int i = 0; i < matchingPoints.size(); i++) {
+
+      if (Math.abs(matchingPoints.getEnd(i) - cut) > 1)
+        continue;
+
+      for (int j = 0; j < matchingPoints.size(); j++) {
+
+        if (j == i || Math.abs(matchingPoints.getStart(j) - cut) > 1
+            || matchingPoints.getEnd(j) <= matchingPoints.getEnd(i))
+          continue;
+
+        // The reduction point of the first and the rising point of the second
+        // activation are removed from the mean values, while the duration
+        // stays the same apart from the overlap at the cut.
+        meanValuesSum[0] -=
+          matchingPoints.getRisingPDiff(j) - matchingPoints.getReductionPDiff(i);
+        meanValuesSum[1] -=
+          matchingPoints.getRisingQDiff(j) - matchingPoints.getReductionQDiff(i);
+        durationSum +=
+          matchingPoints.getStart(j) - matchingPoints.getEnd(i);
+        numberOfMatchingPoints -= 2;
+
+        statistics.remove(sample(i));
+        statistics.remove(sample(j));
+        statistics.add(sample(matchingPoints.getRisingPDiff(i),
+                              matchingPoints.getRisingQDiff(i),
+                              matchingPoints.getReductionPDiff(j),
+                              matchingPoints.getReductionQDiff(j),
+                              matchingPoints.getEnd(j)
+                                      - matchingPoints.getStart(i)));
+
+        double[] reduction =
+          { matchingPoints.getReductionPDiff(j),
+           matchingPoints.getReductionQDiff(j) };
+        matchingPoints.setEnd(i, matchingPoints.getEnd(j), reduction);
+        matchingPoints.remove(j);
+
+        if (j < i)
+          i--;
+
+        result++;
+        break;
+      }
+    }
+
+    return result;
+  }
+
   /**
    * This auxiliary function is used for the re-estimation of the mean values
    * when a new matching pair of points of interest is added to the appliance.
@@ -332,6 +427,78 @@ public class Appliance
     meanValuesSum[1] += pois[0].getQDiff() - pois[1].getQDiff();
     durationSum += pois[1].getMinute() - pois[0].getMinute();
     numberOfMatchingPoints += 2;
+
+    statistics.add(sample(pois[0].getPDiff(), pois[0].getQDiff(),
+                          pois[1].getPDiff(), pois[1].getQDiff(),
+                          pois[1].getMinute() - pois[0].getMinute()));
+  }
+
+  /**
+   * This is an auxiliary function returning the sample of the running
+   * statistics for an activation, in the same way as the mean values: the
+   * active and reactive power as the half difference of the rising and
+   * reduction point, and the duration.
+   */
+  private static double[] sample (double risingP, double risingQ,
+                                  double reductionP, double reductionQ,
+                                  int duration)
+  {
+    double[] result =
+      { (risingP - reductionP) / 2, (risingQ - reductionQ) / 2, duration };
+    return result;
+  }
+
+  private double[] sample (int index)
+  {
+    return sample(matchingPoints.getRisingPDiff(index),
+                  matchingPoints.getRisingQDiff(index),
+                  matchingPoints.getReductionPDiff(index),
+                  matchingPoints.getReductionQDiff(index),
+                  matchingPoints.getEnd(index) - matchingPoints.getStart(index));
+  }
+
+  /**
+   * This function is used for merging the learned state of another model of
+   * the same appliance (e.g. from a later run) into this one.
+   * 
+   * @param other
+   *          The other model of the appliance.
+   */
+  void merge (Appliance other)
+  {
+    long count = statistics.getCount(), otherCount =
+      other.statistics.getCount();
+
+    if (count + otherCount > 0)
+      distance =
+        (distance * count + other.distance * otherCount) / (count + otherCount);
+
+    meanValuesSum[0] += other.meanValuesSum[0];
+    meanValuesSum[1] += other.meanValuesSum[1];
+    durationSum += other.durationSum;
+    numberOfMatchingPoints += other.numberOfMatchingPoints;
+    statistics.merge(other.statistics);
+  }
+
+  /**
+   * This function is used as a getter for the running statistics of the
+   * active and reactive power and the duration of the activations.
+   * 
+   * @return the running statistics of the appliance.
+   */
+  public RunningStatistics getStatistics ()
+  {
+    return statistics;
+  }
+
+  double[] getMeanValuesSum ()
+  {
+    return meanValuesSum;
+  }
+
+  double getDurationSum ()
+  {
+    return durationSum;
   }
 
   /**
@@ -348,6 +515,7 @@ public class Appliance
     ArrayList<String[]> result = new ArrayList<String[]>();
     int offset = 0;
     int start = -1, end = -1;
+    int key = -1;
 
     boolean wmFlag = name.contains("Washing");
 
@@ -364,31 +532,29 @@ public class Appliance
 
     }
     else {
-      for (Integer key: matchingPoints.keySet()) {
-
-        offset = events.get(key - 1).getStartMinute();
-
-        for (PointOfInterest[] pois: matchingPoints.get(key)) {
-          start = offset + pois[0].getMinute();
-          end = offset + pois[1].getMinute();
-
-          if (start > end) {
-            log.debug("Problem with Start > End");
-            log.debug("Event: " + events.get(key - 1).getId());
-            log.debug("Appliance: " + name);
-            log.debug("Start: " + start);
-            log.debug("End: " + end);
-            log.debug("");
-          }
-
-          String[] tempString =
-            { name, activity, Integer.toString(start), Integer.toString(end),
-             Double.toString(pois[0].getPDiff()),
-             Double.toString(pois[0].getQDiff()),
-             Double.toString(pois[1].getPDiff()),
-             Double.toString(pois[1].getQDiff()) };
-          result.add(tempString);
+      // The activations are printed in chronological order.
+      for (int i: matchingPoints.startOrder()) {
+
+        key = matchingPoints.getEventId(i);
+        start = matchingPoints.getStart(i);
+        end = matchingPoints.getEnd(i);
+
+        if (start > end) {
+          log.debug("Problem with Start > End");
+          log.debug("Event: " + key);
+          log.debug("Appliance: " + name);
+          log.debug("Start: " + start);
+          log.debug("End: " + end);
+          log.debug("");
         }
+
+        String[] tempString =
+          { name, activity, Integer.toString(start), Integer.toString(end),
+           Double.toString(matchingPoints.getRisingPDiff(i)),
+           Double.toString(matchingPoints.getRisingQDiff(i)),
+           Double.toString(matchingPoints.getReductionPDiff(i)),
+           Double.toString(matchingPoints.getReductionQDiff(i)) };
+        result.add(tempString);
       }
     }
     // for (String[] string: result)
@@ -501,24 +667,15 @@ public class Appliance
     log.info("Name:" + name);
     log.info("Activity:" + activity);
 
-    Set<Integer> keys = new TreeSet<Integer>();
-    keys.addAll(risingPoints.keySet());
-    keys.addAll(reductionPoints.keySet());
-    keys.addAll(matchingPoints.keySet());
-
-    for (Integer key: keys) {
-      log.info("Event: " + key);
-      if (risingPoints.containsKey(key))
-        log.info("Rising Points: " + risingPoints.get(key).toString());
-      if (reductionPoints.containsKey(key))
-        log.info("Reduction Points: " + reductionPoints.get(key).toString());
-      if (matchingPoints.containsKey(key)) {
-        log.info("Matching Points: ");
-        Collections.sort(matchingPoints.get(key), Constants.comp2);
-        for (PointOfInterest[] pois: matchingPoints.get(key))
-          log.info(Arrays.toString(pois));
-      }
-    }
+    // The activations of each event are shown in order of their minutes.
+    matchingPoints.sortEvents();
+
+    if (matchingPoints.size() > 0)
+      log.info("Matching Points: ");
+
+    for (int i = 0; i < matchingPoints.size(); i++)
+      log.info(matchingPoints.toString(i));
+
     if (activity.equalsIgnoreCase("Refrigeration"))
       log.info("Mean Duration: " + getMeanDuration());
     log.info("Mean Power: " + getMeanActive());
@@ -531,36 +688,57 @@ public class Appliance
     }
   }
 
+  /**
+   * This function is used to check if the appliance is already switched on at
+   * the start or the end of a new pair in an event, meaning that the pair
+   * cannot belong to this appliance.
+   * 
+   * @param event
+   *          The event of the pair.
+   * @param start
+   *          The start minute of the pair (from the start of the data set).
+   * @param end
+   *          The end minute of the pair (from the start of the data set).
+   * @return true if the appliance is switched on, false otherwise.
+   */
   public boolean isSwitchedOn (Event event, int start, int end)
   {
-    boolean result = false;
-    int offset = -1, poiStart = -1, poiEnd = -1;
-    ArrayList<PointOfInterest[]> tempMatching =
-      matchingPoints.get(event.getId());
+    ActivationIndex index = activations.get(event.getId());
 
-    // System.out.println("Matching Points: " + tempMatching);
-    if (tempMatching != null && tempMatching.size() > 0) {
-      for (PointOfInterest[] pois: tempMatching) {
+    if (index == null)
+      return false;
 
-        offset = event.getStartMinute();
-        poiStart = pois[0].getMinute() + offset;
-        poiEnd = pois[1].getMinute() + offset;
+    int offset = event.getStartMinute();
 
-        result = result || (start >= poiStart && start <= poiEnd);
+    int[] interval = index.find(start - offset);
+    if (interval == null)
+      interval = index.find(end - offset);
 
-        result = result || (end >= poiStart && end <= poiEnd);
+    if (interval != null) {
+      log.info("Pois: " + (interval[0] + offset) + " "
+               + (interval[1] + offset));
+      log.info("Start: " + start + " End:" + end);
+      log.info("Switched On!");
+    }
 
-        if (result) {
-          log.info("Pois: " + poiStart + " " + poiEnd);
-          log.info("Start: " + start + " End:" + end);
-          log.info("Switched On!");
-          break;
-        }
+    return interval != null;
+  }
 
-      }
-    }
-    return result;
+  /**
+   * This function is used to check if the appliance is switched on at a
+   * certain minute of an event.
+   * 
+   * @param event
+   *          The event under examination.
+   * @param minute
+   *          The minute (from the start of the data set).
+   * @return true if the appliance is switched on, false otherwise.
+   */
+  public boolean isSwitchedOn (Event event, int minute)
+  {
+    ActivationIndex index = activations.get(event.getId());
 
+    return index != null && index.contains(minute - event.getStartMinute());
   }
 
   public void setName (String name)
@@ -588,20 +766,16 @@ public class Appliance
 
     ArrayList<int[]> temp = new ArrayList<int[]>();
     ArrayList<Double> distanceList = new ArrayList<Double>();
-    int offset = 0, start = -1, end = -1;
+    int start = -1, end = -1;
     double tempDistance = 0;
 
-    for (Integer key: matchingPoints.keySet()) {
-
-      offset = events.get(key - 1).getStartMinute();
-
-      for (PointOfInterest[] pois: matchingPoints.get(key)) {
-        start = offset + pois[0].getMinute();
-        end = offset + pois[1].getMinute();
-        if (start < end) {
-          int[] timeStamp = { start, end };
-          temp.add(timeStamp);
-        }
+    // The distances are estimated between consecutive activations in time.
+    for (int i: matchingPoints.startOrder()) {
+      start = matchingPoints.getStart(i);
+      end = matchingPoints.getEnd(i);
+      if (start < end) {
+        int[] timeStamp = { start, end };
+        temp.add(timeStamp);
       }
     }
 
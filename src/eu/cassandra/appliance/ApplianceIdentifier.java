@@ -55,6 +55,12 @@ public class ApplianceIdentifier
    */
   ArrayList<Appliance> applianceList = new ArrayList<Appliance>();
 
+  /**
+   * This variable is a spatial index of the appliances over their mean active
+   * and reactive power, used for finding the appliances close to a pair.
+   */
+  ApplianceIndex applianceIndex = new ApplianceIndex();
+
   /**
    * This variable is a list of the activities as refined from the analysis of
    * the pairs of points of interest in the events.
@@ -74,6 +80,12 @@ public class ApplianceIdentifier
    */
   double[] metrics = new double[3];
 
+  /**
+   * This variable is the signature index of many households, used for
+   * labelling the new appliances. It is null when no index is used.
+   */
+  FleetSignatureIndex signatureIndex = null;
+
   /**
    * The simple constructor of the appliance identifier.
    */
@@ -99,6 +111,25 @@ public class ApplianceIdentifier
     applianceList = Utils.appliancesFromFile(applianceFilename);
   }
 
+  /**
+   * This constructor creates the appliance list from the trained models of an
+   * appliance library as a base for the next steps of the procedure. The
+   * models are updated in place during the procedure. The numbers of the new
+   * appliances continue after the numbers of the models of the library, so
+   * that their names are not repeated.
+   * 
+   * @param library
+   *          The appliance library of the household.
+   */
+  public ApplianceIdentifier (ApplianceLibrary library)
+  {
+    clear();
+    applianceList = library.getStartingAppliances();
+    Constants.APPLIANCE_ID =
+      Math.max(Constants.APPLIANCE_ID, library.getLastApplianceId() + 1);
+    log.info("Appliances from Library: " + applianceList.size());
+  }
+
   /**
    * This function is used as a getter for the list of the detected appliances.
    * 
@@ -109,6 +140,18 @@ public class ApplianceIdentifier
     return applianceList;
   }
 
+  /**
+   * This function is used as a setter for the signature index that labels the
+   * new appliances.
+   * 
+   * @param signatureIndex
+   *          The signature index of many households.
+   */
+  public void setSignatureIndex (FleetSignatureIndex signatureIndex)
+  {
+    this.signatureIndex = signatureIndex;
+  }
+
   /**
    * This function is used in order to identify points of interest that may come
    * from the end-use of the refrigerator appliance.
@@ -132,77 +175,39 @@ public class ApplianceIdentifier
     Map<Integer, ArrayList<PointOfInterest>> reductionPoints =
       new TreeMap<Integer, ArrayList<PointOfInterest>>();
 
-    ArrayList<PointOfInterest> poiRef;
-    ArrayList<PointOfInterest> risingRef = ref.getRisingPoints();
-    log.debug("Ref Rising Points:" + risingRef.toString());
-    ArrayList<PointOfInterest> reductionRef = ref.getReductionPoints();
-    log.debug("Ref Reduction Points:" + reductionRef.toString());
+    ActivationStore refPoints = ref.getMatchingPoints();
+    log.debug("Ref Matching Points:" + refPoints.size());
     log.debug("Ref Means:" + Arrays.toString(ref.getMeanValues()));
 
+    SignatureIndex risingIndex =
+      new SignatureIndex(refPoints, true, Constants.REF_THRESHOLD);
+    SignatureIndex reductionIndex =
+      new SignatureIndex(refPoints, false, Constants.REF_THRESHOLD);
+
     // For each event available, each point of interest is compared with the
-    // mean values of the refrigerator cluster.
+    // rising or reduction points of the refrigerator cluster. The events are
+    // searched concurrently and the results are used in event order.
+    ArrayList<ArrayList<PointOfInterest>> risingRef =
+      new ArrayList<ArrayList<PointOfInterest>>();
+    ArrayList<ArrayList<PointOfInterest>> reductionRef =
+      new ArrayList<ArrayList<PointOfInterest>>();
+
+    findSignatures(events, risingIndex, reductionIndex, risingRef,
+                   reductionRef);
+
     for (int i = 0; i < events.size(); i++) {
 
       int key = events.get(i).getId();
       log.debug("");
       log.debug("Event " + key);
-      poiRef = new ArrayList<PointOfInterest>();
-
-      // log.debug("Rising Points");
-      // Search through the rising points
-      for (PointOfInterest poi: events.get(i).getRisingPoints()) {
-
-        double[] means = { poi.getPDiff(), poi.getQDiff() };
-        // log.debug("Investigating Point: " + poi.getPDiff() + ", "
-        // + poi.getQDiff());
-
-        for (PointOfInterest rise: risingRef) {
-          // log.debug("Rising Point: " + rise.getPDiff() + ", " +
-          // rise.getQDiff());
-          double distance = rise.percentageEuclideanDistance(means);
-          // log.debug("Euclidean Distance Rising: " + distance);
-
-          if (distance < Constants.REF_THRESHOLD) {
-            // log.debug("Euclidean Distance Rising: "
-            // + distance);
-            poiRef.add(poi);
-            break;
-          }
-        }
 
-      }
+      // log.debug("Poiref: " + risingRef.get(i).toString());
+      if (risingRef.get(i).size() > 0)
+        risingPoints.put(key, risingRef.get(i));
 
-      // log.debug("Poiref: " + poiRef.toString());
-      if (poiRef.size() > 0)
-        risingPoints.put(key, poiRef);
-
-      poiRef = new ArrayList<PointOfInterest>();
-      // log.debug("Reduction Points");
-      // Search through the reduction points
-      for (PointOfInterest poi: events.get(i).getReductionPoints()) {
-
-        double[] means = { poi.getPDiff(), poi.getQDiff() };
-        // log.debug("Investigating Point: " + poi.getPDiff() + ", "
-        // + poi.getQDiff());
-
-        for (PointOfInterest red: reductionRef) {
-          // log.debug("Rising Point: " + red.getPDiff() + ", " +
-          // red.getQDiff());
-          double distance = red.percentageEuclideanDistance(means);
-          // log.debug("Euclidean Distance Rising: " + distance);
-
-          if (distance < Constants.REF_THRESHOLD) {
-            // log.debug("Euclidean Distance Rising: "
-            // + distance);
-            poiRef.add(poi);
-            break;
-          }
-        }
-      }
-
-      // log.debug("Poiref: " + poiRef.toString());
-      if (poiRef.size() > 0)
-        reductionPoints.put(key, poiRef);
+      // log.debug("Poiref: " + reductionRef.get(i).toString());
+      if (reductionRef.get(i).size() > 0)
+        reductionPoints.put(key, reductionRef.get(i));
 
       // log.debug(risingPoints.get(key));
       // log.debug(reductionPoints.get(key));
@@ -248,6 +253,69 @@ public class ApplianceIdentifier
 
   }
 
+  /**
+   * This is an auxiliary function used for finding the points of interest of
+   * each event that are similar to the rising or reduction points of the
+   * refrigerator. The events are split in contiguous parts that are searched
+   * concurrently, while the points of each event are kept in their order.
+   * 
+   * @param events
+   *          The list of events.
+   * @param risingIndex
+   *          The index of the rising points of the refrigerator.
+   * @param reductionIndex
+   *          The index of the reduction points of the refrigerator.
+   * @param risingRef
+   *          The list where the similar rising points of each event are
+   *          added.
+   * @param reductionRef
+   *          The list where the similar reduction points of each event are
+   *          added.
+   */
+  private void findSignatures (final ArrayList<Event> events,
+                               final SignatureIndex risingIndex,
+                               final SignatureIndex reductionIndex,
+                               final ArrayList<ArrayList<PointOfInterest>> risingRef,
+                               final ArrayList<ArrayList<PointOfInterest>> reductionRef)
+  {
+    for (int i = 0; i < events.size(); i++) {
+      risingRef.add(null);
+      reductionRef.add(null);
+    }
+
+    // Each part sets only its own positions of the result lists.
+    Utils.inParts(events.size(), new Utils.Part() {
+      @Override
+      public void run (int from, int to)
+      {
+        for (int i = from; i < to; i++) {
+          risingRef.set(i, similarPoints(events.get(i).getRisingPoints(),
+                                         risingIndex));
+          reductionRef.set(i, similarPoints(events.get(i).getReductionPoints(),
+                                            reductionIndex));
+        }
+      }
+    });
+  }
+
+  /**
+   * This is an auxiliary function returning the points of interest that are
+   * similar to any of the points of a signature index.
+   */
+  private static ArrayList<PointOfInterest>
+    similarPoints (ArrayList<PointOfInterest> pois, SignatureIndex index)
+  {
+    ArrayList<PointOfInterest> result = new ArrayList<PointOfInterest>();
+
+    for (PointOfInterest poi: pois) {
+      double[] means = { poi.getPDiff(), poi.getQDiff() };
+      if (index.matches(means))
+        result.add(poi);
+    }
+
+    return result;
+  }
+
   /**
    * This is an auxiliary function used for the cleaning of the events from
    * points of interest that are assigned to appliance.
@@ -346,7 +414,7 @@ public class ApplianceIdentifier
                 // + Arrays.toString(meanValues) + " Duration:"
                 // + duration);
 
-                fridge.addMatchingPoints(events.get(key).getId(), pois);
+                fridge.addMatchingPoints(events.get(key), pois);
 
                 events.get(key).getRisingPoints().remove(rise);
                 events.get(key).getReductionPoints().remove(red);
@@ -372,226 +440,124 @@ public class ApplianceIdentifier
   /**
    * This function is used for the identification of a washing machine end use
    * in the event. There are some complex criteria taken into consideration for
-   * the detection and confirmation of a washing machine at use.
+   * the detection and confirmation of a washing machine at use. The events
+   * are scanned concurrently, while the washing machines are added to the
+   * appliance list in the order of the events.
    * 
    * @param events
    *          The list of the available events.
    */
-  public void washingMachineIdentification (ArrayList<Event> events)
+  public void washingMachineIdentification (final ArrayList<Event> events)
   {
-    // Initializing the auxiliary variables
-    boolean risingFlag = false, reductionFlag = false;
-
     log.info("===============WASHING MACHINE=================");
     log.info("");
-    // For each event
-    for (int i = 0; i < events.size(); i++) {
-
-      Event event = events.get(i);
-
-      // Check if the event's duration is over a certain time interval
-      if (event.getActivePowerConsumptions().length > Constants.WASHING_MACHINE_NUMBER_OF_MINUTES_LIMIT) {
-
-        log.debug("");
-        log.debug("Event " + event.getId() + " Start: "
-                  + event.getStartMinute() + " End: " + event.getEndMinute());
-        log.debug("===================");
-
-        // Check if there are rising and reduction points with large active
-        // power differences
-        for (PointOfInterest rise: event.getRisingPoints())
-          if (Math.abs(rise.getPDiff()) > Constants.WASHING_MACHINE_POWER_THRESHOLD) {
-            risingFlag = true;
-            // System.out.println("Rising Point: " + rise.toString());
-            break;
-          }
-
-        for (PointOfInterest reduction: event.getReductionPoints())
-          if (Math.abs(reduction.getPDiff()) > Constants.WASHING_MACHINE_POWER_THRESHOLD) {
-            reductionFlag = true;
-            // System.out.println("Reduction Point: " + reduction.toString());
-            break;
-          }
-
-        log.debug("Rising over 1K5: " + risingFlag + " Reduction over 1K5: "
-                  + reductionFlag);
-
-        // In case there are such points of interest
-        if (risingFlag && reductionFlag) {
-          // System.out.println();
-          // System.out.println();
-          log.debug("Search for Washing Machine in Event "
-                    + events.get(i).getId());
-          log.debug("");
-          // Collect the event's active and reactive power measurements
-          double[] tempReactive =
-            Arrays.copyOf(event.getReactivePowerConsumptions(),
-                          event.getReactivePowerConsumptions().length);
-          double[] tempActive =
-            Arrays.copyOf(event.getActivePowerConsumptions(),
-                          event.getActivePowerConsumptions().length);
-          // System.out.println("Reactive: " + Arrays.toString(tempReactive));
-          // Removing refrigerator load from the measurements if it has been
-          // detected in the current event.
-          if (applianceList.size() > 1) {
-            Appliance ref = applianceList.get(0);
-
-            if (ref.getMatchingPoints().containsKey(event.getId())) {
-
-              log.debug("Reactive Before: " + Arrays.toString(tempReactive));
-
-              double refReactive = ref.getMeanReactive();
-              // System.out.println("Refrigerator Reactive: " + refReactive);
-              int start = -1, end = -1;
-
-              for (PointOfInterest[] poi: ref.getMatchingPoints(event.getId())) {
-
-                start = poi[0].getMinute();
-                end = poi[1].getMinute();
-
-                for (int j = start; j < end; j++)
-                  tempReactive[j] -= refReactive;
-              }
-
-              log.debug("Reactive After Refrigerator: "
-                        + Arrays.toString(tempReactive));
 
-            }
-          }
+    // Removing refrigerator load from the measurements if it has been
+    // detected.
+    ActivationStore fridgePoints = null;
+    double fridgeReactive = 0;
+
+    if (applianceList.size() > 0
+        && applianceList.get(0).getActivity().equalsIgnoreCase("Refrigeration")
+        && applianceList.get(0).getMatchingPoints() != null
+        && applianceList.get(0).getMatchingPoints().size() > 0) {
+      fridgePoints = applianceList.get(0).getMatchingPoints();
+      fridgeReactive = applianceList.get(0).getMeanReactive();
+    }
 
-          // Find all the groups of consecutive values in the reactive power
-          ArrayList<ConsecutiveValues> cons =
-            createVectors(tempActive, tempReactive);
-
-          // Find the group of consecutive points with the largest reactive
-          // power measurement
-          double maxAll = Double.NEGATIVE_INFINITY;
-          int maxIndex = -1;
-          for (int j = 0; j < cons.size(); j++) {
-            // cons.get(j).status();
-            if (maxAll < cons.get(j).getMaxQ()) {
-              maxAll = cons.get(j).getMaxQ();
-              maxIndex = j;
-            }
+    final ActivationStore refPoints = fridgePoints;
+    final double refReactive = fridgeReactive;
+
+    final ArrayList<ConsecutiveValues> winners =
+      new ArrayList<ConsecutiveValues>();
+    for (int i = 0; i < events.size(); i++)
+      winners.add(null);
+
+    Utils.inParts(events.size(), new Utils.Part() {
+      @Override
+      public void run (int from, int to)
+      {
+        for (int i = from; i < to; i++)
+          if (isWashingCandidate(events.get(i)))
+            winners.set(i, new ReactiveRunScanner(events.get(i), refPoints,
+                                                  refReactive).findWinner());
+      }
+    });
 
-          }
+    // For each event
+    for (int i = 0; i < events.size(); i++) {
 
-          for (int j = 0; j < cons.size(); j++)
-            cons.get(j).status();
+      ConsecutiveValues winner = winners.get(i);
 
-          if (maxIndex != -1) {
+      if (winner == null)
+        continue;
 
-            log.debug("The WINNER IS");
-            cons.get(maxIndex).status();
+      log.debug("");
+      log.debug("Event " + events.get(i).getId() + " Start: "
+                + events.get(i).getStartMinute() + " End: "
+                + events.get(i).getEndMinute());
+      log.debug("The WINNER IS");
+      winner.status();
 
-            boolean check =
-              (Utils.checkLimit(cons.get(maxIndex).getDifference(),
-                                Constants.WASHING_MACHINE_DIFFERENCE_LIMIT) && cons
-                      .get(maxIndex).getNumberOfElements() > Constants.WASHING_MACHINE_NUMBER_OF_MINUTES_LIMIT);
-            log.debug("Objectives Met: " + check);
+      boolean check =
+        (Utils.checkLimit(winner.getDifference(),
+                          Constants.WASHING_MACHINE_DIFFERENCE_LIMIT) && winner
+                .getNumberOfElements() > Constants.WASHING_MACHINE_NUMBER_OF_MINUTES_LIMIT);
+      log.debug("Objectives Met: " + check);
 
-            // If all the criteria are met
-            if (check) {
+      // If all the criteria are met
+      if (check) {
 
-              log.info("Event Id: " + events.get(i).getId()
-                       + " Washing Machine Detected");
-              cons.get(maxIndex).status();
+        log.info("Event Id: " + events.get(i).getId()
+                 + " Washing Machine Detected");
 
-              int[] pair =
-                { i, cons.get(maxIndex).getStart(), cons.get(maxIndex).getEnd() };
+        int[] pair = { i, winner.getStart(), winner.getEnd() };
 
-              // Switch the event's washing machine flag.
-              events.get(i).setWashingMachineFlag();
+        // Switch the event's washing machine flag.
+        events.get(i).setWashingMachineFlag();
 
-              // If a washing machine was found create it and add it to the
-              // appliance list.
-              Appliance washing =
-                new Appliance("Washing Machine "
-                              + Constants.WASHING_MACHINE_ID++, "Cleaning");
+        // If a washing machine was found create it and add it to the
+        // appliance list.
+        Appliance washing =
+          new Appliance("Washing Machine " + Constants.WASHING_MACHINE_ID++,
+                        "Cleaning");
 
-              double[][] consumption =
-                { cons.get(maxIndex).getPValues(),
-                 cons.get(maxIndex).getQValues() };
-              washing.setConsumption(consumption);
-              washing.setTimeStamp(pair);
-              applianceList.add(washing);
+        double[][] consumption = { winner.getPValues(), winner.getQValues() };
+        washing.setConsumption(consumption);
+        washing.setTimeStamp(pair);
+        applianceList.add(washing);
 
-            }
-          }
-        }
       }
-      risingFlag = false;
-      reductionFlag = false;
-
     }
 
   }
 
   /**
-   * This is an auxiliary function utilized for the creation of consecutive
-   * values group. This helps in the detection of a washing machine.
-   * 
-   * @param tempActive
-   *          The array of active power measurements.
-   * @param tempReactive
-   *          The array of reactive power measurements.
-   * @return the list of groups of consecutive values.
+   * This is an auxiliary function checking if an event is long enough and has
+   * rising and reduction points with large active power differences, in order
+   * to be searched for a washing machine.
    */
-  private ArrayList<ConsecutiveValues> createVectors (double[] tempActive,
-                                                      double[] tempReactive)
+  private static boolean isWashingCandidate (Event event)
   {
-    // Initializing the auxiliary variables
-    ArrayList<ConsecutiveValues> cons = new ArrayList<ConsecutiveValues>();
-    int start = 0, end = 0;
-    boolean startFlag = false;
+    // Check if the event's duration is over a certain time interval
+    if (event.getActivePowerConsumptions().length <= Constants.WASHING_MACHINE_NUMBER_OF_MINUTES_LIMIT)
+      return false;
 
-    // For each index in the measurement arrays check the reactive power.
-    for (int j = 0; j < tempReactive.length; j++) {
+    boolean risingFlag = false, reductionFlag = false;
 
-      // In case it is positive and not a group has started
-      if (tempReactive[j] > 0 && !startFlag) {
-        start = j;
-        startFlag = true;
+    for (PointOfInterest rise: event.getRisingPoints())
+      if (Math.abs(rise.getPDiff()) > Constants.WASHING_MACHINE_POWER_THRESHOLD) {
+        risingFlag = true;
+        break;
       }
 
-      // In case it is negative or zero and in the middle of a group creation
-      if (tempReactive[j] <= 0 && startFlag) {
-
-        // Checking if there are no positive values close enough meaning that
-        // the consecutive values go on
-        boolean flag = true;
-
-        int endIndex =
-          Math.min(j + Constants.WASHING_MACHINE_MERGING_MINUTE_LIMIT,
-                   tempReactive.length);
-
-        for (int k = j + 1; k < endIndex; k++)
-
-          if (tempReactive[k] > 0) {
-
-            flag = false;
-            // System.out.println("Index: " + k + " Value: " + tempReactive[k]
-            // + " Flag: " + flag);
-            break;
-          }
-
-        // End the current group and add it to the list.
-        if (flag) {
-          end = j - 1;
-
-          cons.add(new ConsecutiveValues(start, end, Arrays
-                  .copyOfRange(tempActive, start, end + 1), Arrays
-                  .copyOfRange(tempReactive, start, end + 1)));
-
-          start = -1;
-          end = -1;
-          startFlag = false;
-        }
+    for (PointOfInterest reduction: event.getReductionPoints())
+      if (Math.abs(reduction.getPDiff()) > Constants.WASHING_MACHINE_POWER_THRESHOLD) {
+        reductionFlag = true;
+        break;
       }
-    }
-
-    return cons;
 
+    return risingFlag && reductionFlag;
   }
 
   /**
@@ -616,6 +582,9 @@ public class ApplianceIdentifier
     double percDistance = 0, absDistance = 0;
     boolean switchedOn, close;
 
+    // The appliances may have changed since the previous event.
+    applianceIndex.synchronize(applianceList);
+
     // For each final pair included in the event.
     for (int i = 0; i < event.getFinalPairs().size(); i++) {
       minIndex = -1;
@@ -648,8 +617,9 @@ public class ApplianceIdentifier
 
         log.debug("");
       }
-      // Try to match the pair with an already existing appliance.
-      for (int j = 0; j < applianceList.size(); j++) {
+      // Try to match the pair with an already existing appliance. Only the
+      // appliances near the pair can be close to it, so the rest are skipped.
+      for (int j: applianceIndex.candidates(meanValues)) {
 
         if (applianceList.get(j).getMeanActive() != -1) {
 
@@ -711,16 +681,26 @@ public class ApplianceIdentifier
       if (minIndex != -1) {
         if (!isolated)
           log.debug("Matches Appliance " + minIndex);
-        applianceList.get(minIndex).addMatchingPoints(event.getId(),
+        applianceList.get(minIndex).addMatchingPoints(event,
                                                       event.getFinalPairs(i));
+        applianceIndex.update(minIndex, applianceList.get(minIndex));
 
       }
       else {
-        if (Constants.APPLIANCE_TYPE.equalsIgnoreCase("Activity"))
-          createNewApplianceActivity(event.getId(), event.getFinalPairs(i),
+        String[] label =
+          (signatureIndex != null) ? signatureIndex.label(meanValues, duration)
+                                  : null;
+
+        if (label != null)
+          createNewApplianceLabelled(event, event.getFinalPairs(i), label);
+        else if (Constants.APPLIANCE_TYPE.equalsIgnoreCase("Activity"))
+          createNewApplianceActivity(event, event.getFinalPairs(i),
                                      meanValues);
         else
-          createNewAppliance(event.getId(), event.getFinalPairs(i), meanValues);
+          createNewAppliance(event, event.getFinalPairs(i), meanValues);
+
+        applianceIndex.update(applianceList.size() - 1,
+                              applianceList.get(applianceList.size() - 1));
 
         if (!isolated) {
           log.debug("No Match! New Appliance");
@@ -735,6 +715,42 @@ public class ApplianceIdentifier
     event.clear(isolated);
   }
 
+  /**
+   * This function is used for stitching the activations of the appliances that
+   * were split by the cuts of the oversized events. The activations that still
+   * end at a cut afterwards (a load over the cut whose parts were assigned to
+   * different appliances, or a load switched off at the cut) are counted as a
+   * check of the stitching.
+   * 
+   * @param cuts
+   *          The minutes (from the start of the data set) of the cuts.
+   * @return the number of stitched activations.
+   */
+  public int stitchActivations (ArrayList<Integer> cuts)
+  {
+    int stitched = 0, open = 0;
+
+    for (Appliance appliance: applianceList)
+      if (appliance.getMatchingPoints() != null)
+        for (Integer cut: cuts)
+          stitched += appliance.stitch(cut);
+
+    for (Appliance appliance: applianceList) {
+      ActivationStore activations = appliance.getMatchingPoints();
+
+      if (activations != null)
+        for (int i = 0; i < activations.size(); i++)
+          for (Integer cut: cuts)
+            if (Math.abs(activations.getEnd(i) - cut) <= 1)
+              open++;
+    }
+
+    log.info("Stitched Activations: " + stitched + " over " + cuts.size()
+             + " Cuts. Activations Still Ending at a Cut: " + open);
+
+    return stitched;
+  }
+
   /**
    * This function is used to extract the knowledge of appliances and activities
    * resulted from the disaggregation procedure into files.
@@ -812,7 +828,7 @@ public class ApplianceIdentifier
   public void appliancesFromIsolated (IsolatedEventsExtractor iso)
   {
 
-    if (Constants.REF_LOOSE_COUPLING == false) {
+    if (iso.getRefMeans() != null) {
       double[] meanValues = iso.getRefMeans();
       Appliance fridge =
         new Appliance("Refrigerator Cluster", "Refrigeration", meanValues[0],
@@ -835,11 +851,11 @@ public class ApplianceIdentifier
    * to identify the appliance type and then the appliance is created and added
    * to the appliance list.
    * 
-   * @param eventIndex
+   * @param event
    * @param finalPair
    * @param meanValues
    */
-  private void createNewAppliance (int eventIndex, PointOfInterest[] finalPair,
+  private void createNewAppliance (Event event, PointOfInterest[] finalPair,
                                    double[] meanValues)
   {
     // Initializing the auxiliary variables
@@ -848,7 +864,27 @@ public class ApplianceIdentifier
     Appliance appliance =
       new Appliance("Appliance " + Constants.APPLIANCE_ID++, "Generic");
 
-    appliance.addMatchingPoints(eventIndex, finalPair);
+    appliance.addMatchingPoints(event, finalPair);
+    applianceList.add(appliance);
+  }
+
+  /**
+   * This is the appliance creation function for a pair that matches a
+   * signature of the signature index. The appliance is named and typed after
+   * the label of the signature and added to the appliance list.
+   * 
+   * @param event
+   * @param finalPair
+   * @param label
+   */
+  private void createNewApplianceLabelled (Event event,
+                                           PointOfInterest[] finalPair,
+                                           String[] label)
+  {
+    Appliance appliance =
+      new Appliance(label[0] + " " + Constants.APPLIANCE_ID++, label[1]);
+
+    appliance.addMatchingPoints(event, finalPair);
     applianceList.add(appliance);
   }
 
@@ -857,11 +893,11 @@ public class ApplianceIdentifier
    * to identify the appliance type and then the appliance is created and added
    * to the appliance list.
    * 
-   * @param eventIndex
+   * @param event
    * @param finalPair
    * @param meanValues
    */
-  private void createNewApplianceActivity (int eventIndex,
+  private void createNewApplianceActivity (Event event,
                                            PointOfInterest[] finalPair,
                                            double[] meanValues)
   {
@@ -910,13 +946,14 @@ public class ApplianceIdentifier
     else {
       appliance = new Appliance("Generic " + Constants.GENERIC_ID++, "Generic");
     }
-    appliance.addMatchingPoints(eventIndex, finalPair);
+    appliance.addMatchingPoints(event, finalPair);
     applianceList.add(appliance);
   }
 
   public void clear ()
   {
     applianceList.clear();
+    applianceIndex.clear();
     activityList.clear();
     secondPass.clear();
   }
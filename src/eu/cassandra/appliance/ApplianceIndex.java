@@ -0,0 +1,188 @@
+/*
+Copyright 2011-2013 The Cassandra Consortium (cassandra-fp7.eu)
+
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package eu.cassandra.appliance;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import eu.cassandra.utils.Constants;
+import eu.cassandra.utils.Utils;
+
+/**
+ * This class is a spatial index of the appliances of a list over their mean
+ * active and reactive power. The plane is divided in square cells of the size
+ * of the absolute closeness threshold and each appliance is kept in the cell
+ * of its mean values, so that only the appliances of the cells near a pair of
+ * points of interest are examined when matching the pair. The appliances are
+ * referred to by their index in the list, which only grows or is cleared.
+ */
+class ApplianceIndex
+{
+
+  /**
+   * This variable contains the indices of the appliances of each cell.
+   */
+  private Map<Long, ArrayList<Integer>> cells =
+    new HashMap<Long, ArrayList<Integer>>();
+
+  /**
+   * This variable contains the mean values each appliance was indexed with
+   * (null for the appliances without valid mean values).
+   */
+  private ArrayList<double[]> positions = new ArrayList<double[]>();
+
+  private int indexed = 0;
+
+  /**
+   * This function is used for bringing the index up to date with the
+   * appliance list, in case the list or the mean values of its appliances
+   * have changed.
+   *
+   * @param applianceList
+   *          The list of appliances.
+   */
+  void synchronize (ArrayList<Appliance> applianceList)
+  {
+    if (applianceList.size() < positions.size())
+      clear();
+
+    for (int i = 0; i < applianceList.size(); i++)
+      update(i, applianceList.get(i));
+  }
+
+  /**
+   * This function is used for updating the position of an appliance of the
+   * list, after its mean values have changed or it has been added.
+   *
+   * @param index
+   *          The index of the appliance in the list.
+   * @param appliance
+   *          The appliance.
+   */
+  void update (int index, Appliance appliance)
+  {
+    while (positions.size() <= index)
+      positions.add(null);
+
+    double[] previous = positions.get(index);
+    double[] current = null;
+
+    if (appliance.getMeanActive() != -1) {
+      current = appliance.getMeanValues();
+      if (Double.isNaN(current[0]) || Double.isNaN(current[1])
+          || Double.isInfinite(current[0]) || Double.isInfinite(current[1]))
+        current = null;
+    }
+
+    if (Arrays.equals(previous, current))
+      return;
+
+    if (previous != null) {
+      cells.get(cellKey(previous[0], previous[1]))
+              .remove(Integer.valueOf(index));
+      indexed--;
+    }
+
+    if (current != null) {
+      Long key = cellKey(current[0], current[1]);
+      if (!cells.containsKey(key))
+        cells.put(key, new ArrayList<Integer>());
+      cells.get(key).add(index);
+      indexed++;
+    }
+
+    positions.set(index, current);
+  }
+
+  /**
+   * This function returns the indices of the appliances that may be close to a
+   * pair of points of interest, in ascending order. Appliances further than the
+   * largest distance accepted by the closeness checks of the appliances are
+   * not returned, while the ones without valid mean values are never close.
+   *
+   * @param meanValues
+   *          The mean active and reactive power of the pair.
+   * @return The indices of the candidate appliances.
+   */
+  int[] candidates (double[] meanValues)
+  {
+    double radius =
+      Math.max(Constants.ABSOLUTE_CLOSENESS_THRESHOLD,
+               Math.max(Constants.PERCENTAGE_CLOSENESS_THRESHOLD,
+                        Constants.CLUSTERED_PERCENTAGE_CLOSENESS_THRESHOLD)
+                       * Utils.norm(meanValues) / 100);
+
+    long minX = cell(meanValues[0] - radius);
+    long maxX = cell(meanValues[0] + radius);
+    long minY = cell(meanValues[1] - radius);
+    long maxY = cell(meanValues[1] + radius);
+
+    ArrayList<Integer> result = new ArrayList<Integer>();
+
+    // In case the area covers more cells than the appliances, all the
+    // appliances are examined instead.
+    if ((maxX - minX + 1) * (maxY - minY + 1) > indexed) {
+      for (int i = 0; i < positions.size(); i++)
+        if (positions.get(i) != null)
+          result.add(i);
+    }
+    else {
+      for (long x = minX; x <= maxX; x++)
+        for (long y = minY; y <= maxY; y++) {
+          ArrayList<Integer> cell = cells.get(key(x, y));
+          if (cell != null)
+            result.addAll(cell);
+        }
+    }
+
+    int[] array = new int[result.size()];
+    for (int i = 0; i < array.length; i++)
+      array[i] = result.get(i);
+
+    Arrays.sort(array);
+
+    return array;
+  }
+
+  void clear ()
+  {
+    cells.clear();
+    positions.clear();
+    indexed = 0;
+  }
+
+  /**
+   * This is an auxiliary function returning the cell coordinate of a value.
+   */
+  private static long cell (double value)
+  {
+    return (long) Math.floor(value / Constants.ABSOLUTE_CLOSENESS_THRESHOLD);
+  }
+
+  private static Long cellKey (double active, double reactive)
+  {
+    return key(cell(active), cell(reactive));
+  }
+
+  private static Long key (long x, long y)
+  {
+    return (x << 32) ^ (y & 0xffffffffL);
+  }
+}
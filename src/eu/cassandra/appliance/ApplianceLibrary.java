@@ -0,0 +1,338 @@
+/*
+Copyright 2011-2013 The Cassandra Consortium (cassandra-fp7.eu)
+
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package eu.cassandra.appliance;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+
+import eu.cassandra.utils.RunningStatistics;
+import eu.cassandra.utils.Utils;
+
+/**
+ * This class is used for keeping the appliance models of a household in a
+ * binary file across runs. Each model is stored with its full learned state
+ * (the sums of its mean values and durations, its number of matching points,
+ * the distance between its end-uses and the running statistics of its
+ * activations), so that a run starts from the trained models and only needs
+ * to process the new days. After a run, the models of the run are merged into
+ * the library: the models loaded from the library have already been updated
+ * in place, and each new model is merged into the closest model of the same
+ * activity or added to the library. The file is read in a single pass and
+ * replaced atomically when saved. Washing machines, whose models are single
+ * consumption curves, are not kept. The library also keeps the clustering of
+ * the isolated events, so that the isolated events of a run are added to the
+ * clusters of the previous runs.
+ */
+public class ApplianceLibrary
+{
+  static Logger log = Logger.getLogger(ApplianceLibrary.class);
+
+  /**
+   * This constant is the first value of a library file.
+   */
+  private static final int MAGIC = 0x43415050;
+
+  private static final int VERSION = 2;
+
+  /**
+   * This constant is the pattern of the number at the end of the name of a
+   * model.
+   */
+  private static final Pattern NUMBER = Pattern.compile("\\s(\\d+)$");
+
+  /**
+   * This variable contains the models of the library.
+   */
+  private final ArrayList<Appliance> models = new ArrayList<Appliance>();
+
+  /**
+   * This variable contains the models that have been loaded from the file.
+   */
+  private final Map<Appliance, Boolean> loaded =
+    new IdentityHashMap<Appliance, Boolean>();
+
+  /**
+   * This variable is the clustering of the isolated events of the previous
+   * runs (null if there is none).
+   */
+  private IsolatedClustering clustering = null;
+
+  /**
+   * This is the constructor of an empty appliance library.
+   */
+  public ApplianceLibrary ()
+  {
+  }
+
+  /**
+   * This is the constructor of an appliance library read from a file. In case
+   * the file does not exist, the library is empty.
+   *
+   * @param filename
+   *          The name of the library file.
+   * @throws IOException
+   */
+  public ApplianceLibrary (String filename) throws IOException
+  {
+    File file = new File(filename);
+
+    if (!file.exists())
+      return;
+
+    DataInputStream input =
+      new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+    try {
+      if (input.readInt() != MAGIC)
+        throw new IOException("Not an appliance library: " + filename);
+
+      // The files of the first version do not contain a clustering.
+      int version = input.readInt();
+      if (version < 1 || version > VERSION)
+        throw new IOException("Not an appliance library: " + filename);
+
+      int size = input.readInt();
+
+      for (int i = 0; i < size; i++) {
+
+        String name = input.readUTF();
+        String activity = input.readUTF();
+        double[] meanValuesSum = { input.readDouble(), input.readDouble() };
+        int numberOfMatchingPoints = input.readInt();
+        double durationSum = input.readDouble();
+        double distance = input.readDouble();
+
+        long count = input.readLong();
+        int dimensions = input.readInt();
+        double[] mean = new double[dimensions];
+        double[] m2 = new double[dimensions];
+        for (int d = 0; d < dimensions; d++) {
+          mean[d] = input.readDouble();
+          m2[d] = input.readDouble();
+        }
+
+        Appliance model =
+          new Appliance(name, activity, meanValuesSum, numberOfMatchingPoints,
+                        durationSum, distance, new RunningStatistics(count,
+                                                                     mean, m2));
+        models.add(model);
+        loaded.put(model, true);
+      }
+
+      if (version > 1 && input.readBoolean())
+        clustering = IsolatedClustering.read(input);
+    }
+    finally {
+      input.close();
+    }
+
+    log.info("Appliance Library " + filename + ": " + models.size()
+             + " Models");
+  }
+
+  /**
+   * This function returns the models that are used as the starting appliance
+   * list of a run. The refrigerator and standby models are left out, since
+   * they are detected again in each run, as in the appliance files.
+   *
+   * @return the list of the starting appliance models.
+   */
+  public ArrayList<Appliance> getStartingAppliances ()
+  {
+    ArrayList<Appliance> result = new ArrayList<Appliance>();
+
+    for (Appliance model: models)
+      if (!model.getActivity().contains("Standby")
+          && !model.getActivity().contains("Refrigeration"))
+        result.add(model);
+
+    return result;
+  }
+
+  /**
+   * This function is used for updating the library with the appliances of a
+   * run.
+   *
+   * @param appliances
+   *          The list of the appliances of the run.
+   */
+  public void update (ArrayList<Appliance> appliances)
+  {
+    int merged = 0, added = 0;
+
+    for (Appliance appliance: appliances) {
+
+      // The loaded models have been updated during the run.
+      if (loaded.containsKey(appliance) || appliance.getMatchingPoints() == null
+          || appliance.operationTimes() == 0)
+        continue;
+
+      Appliance closest = findClosest(appliance);
+
+      if (closest != null) {
+        closest.merge(appliance);
+        merged++;
+      }
+      else {
+        models.add(appliance);
+        loaded.put(appliance, true);
+        added++;
+      }
+    }
+
+    log.info("Appliance Library Update: " + merged + " Merged " + added
+             + " Added " + models.size() + " Models");
+  }
+
+  /**
+   * This is an auxiliary function finding the model of the same activity
+   * that is closest to an appliance, among the ones the appliance is close to.
+   */
+  private Appliance findClosest (Appliance appliance)
+  {
+    Appliance result = null;
+    double best = Double.POSITIVE_INFINITY;
+    double[] mean = { appliance.getMeanActive(), appliance.getMeanReactive() };
+
+    for (Appliance model: models) {
+
+      if (!model.getActivity().equalsIgnoreCase(appliance.getActivity())
+          || model.operationTimes() == 0
+          || !model.isClose(mean, (int) appliance.getMeanDuration()))
+        continue;
+
+      double[] modelMean = { model.getMeanActive(), model.getMeanReactive() };
+      double distance =
+        Math.hypot(mean[0] - modelMean[0], mean[1] - modelMean[1]);
+
+      if (distance < best) {
+        best = distance;
+        result = model;
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * This function is used for saving the library to a file. The file is
+   * replaced atomically, so that it is never left half written.
+   *
+   * @param filename
+   *          The name of the library file.
+   * @throws IOException
+   */
+  public void save (String filename) throws IOException
+  {
+    Utils.writeAtomically(filename, new Utils.Contents() {
+      @Override
+      public void write (DataOutputStream output) throws IOException
+      {
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        output.writeInt(models.size());
+
+        for (Appliance model: models) {
+
+          RunningStatistics statistics = model.getStatistics();
+
+          output.writeUTF(model.getName());
+          output.writeUTF(model.getActivity());
+          output.writeDouble(model.getMeanValuesSum()[0]);
+          output.writeDouble(model.getMeanValuesSum()[1]);
+          output.writeInt(model.operationTimes());
+          output.writeDouble(model.getDurationSum());
+          output.writeDouble(model.getDistance());
+
+          output.writeLong(statistics.getCount());
+          output.writeInt(statistics.getDimensions());
+          for (int d = 0; d < statistics.getDimensions(); d++) {
+            output.writeDouble(statistics.getMean(d));
+            output.writeDouble(statistics.getM2(d));
+          }
+        }
+
+        output.writeBoolean(clustering != null);
+        if (clustering != null)
+          clustering.write(output);
+      }
+    });
+
+    log.info("Appliance Library " + filename + " Saved: " + models.size()
+             + " Models");
+  }
+
+  /**
+   * This function is used as a getter for the models of the library.
+   *
+   * @return the list of the models.
+   */
+  public ArrayList<Appliance> getModels ()
+  {
+    return models;
+  }
+
+  /**
+   * This function returns the largest number of the names of the models
+   * (e.g. 12 for "Appliance 12"), or zero if there is none.
+   */
+  public int getLastApplianceId ()
+  {
+    int result = 0;
+
+    for (Appliance model: models) {
+      Matcher matcher = NUMBER.matcher(model.getName());
+
+      if (matcher.find()) {
+        try {
+          result = Math.max(result, Integer.parseInt(matcher.group(1)));
+        }
+        catch (NumberFormatException e) {
+          continue;
+        }
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * This function returns the clustering of the isolated events of the
+   * previous runs, or null if there is none.
+   */
+  IsolatedClustering getClustering ()
+  {
+    return clustering;
+  }
+
+  void setClustering (IsolatedClustering clustering)
+  {
+    this.clustering = clustering;
+  }
+}
@@ -0,0 +1,486 @@
+/*
+Copyright 2011-2013 The Cassandra Consortium (cassandra-fp7.eu)
+
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package eu.cassandra.appliance;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Scanner;
+
+import org.apache.log4j.Logger;
+
+import eu.cassandra.utils.Constants;
+import eu.cassandra.utils.Utils;
+
+/**
+ * This class is an index of the appliance signatures (mean active power,
+ * mean reactive power and, when known, duration) of many households, built
+ * from their appliance list files (with the mean durations taken from the
+ * activity list file next to each one), used for labelling the new appliances
+ * of a household without a prior appliance file. The signatures are kept in a
+ * binary file as an implicit k-d tree over the active and reactive power (the
+ * median of each range is its root, splitting on the active and reactive
+ * power in turn), so a nearest neighbour query examines O(log N) signatures.
+ * The file is memory mapped read only and shared by all the runs of the
+ * process, while the operating system shares its pages between processes.
+ */
+public class FleetSignatureIndex
+{
+  static Logger log = Logger.getLogger(FleetSignatureIndex.class);
+
+  /**
+   * This constant is the first value of a signature index file.
+   */
+  private static final int MAGIC = 0x43534947;
+
+  private static final int VERSION = 1;
+
+  private static final int HEADER = 16;
+
+  /**
+   * This constant is the size of each signature in the file: the active
+   * power, the reactive power, the duration (NaN when unknown) and the label.
+   */
+  private static final int RECORD = 28;
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  /**
+   * This variable contains the indices loaded by the process, so that each
+   * file is mapped only once.
+   */
+  private static final Map<String, FleetSignatureIndex> loaded =
+    new HashMap<String, FleetSignatureIndex>();
+
+  /**
+   * This variable contains the signatures, read only with absolute reads so
+   * that concurrent queries do not interfere.
+   */
+  private final ByteBuffer buffer;
+
+  private final int size;
+
+  /**
+   * These variables contain the name (without its number) and the activity
+   * of each label.
+   */
+  private final String[] names;
+
+  private final String[] activities;
+
+  /**
+   * The constructor of a signature index over a memory mapped file.
+   */
+  private FleetSignatureIndex (String filename) throws IOException
+  {
+    RandomAccessFile file = new RandomAccessFile(filename, "r");
+
+    try {
+      buffer =
+        file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+    }
+    finally {
+      file.close();
+    }
+
+    if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION)
+      throw new IOException("Not a signature index: " + filename);
+
+    size = buffer.getInt(8);
+    names = new String[buffer.getInt(12)];
+    activities = new String[names.length];
+
+    int offset = HEADER + size * RECORD;
+
+    for (int i = 0; i < names.length; i++) {
+      names[i] = readString(offset);
+      offset += 2 + buffer.getShort(offset);
+      activities[i] = readString(offset);
+      offset += 2 + buffer.getShort(offset);
+    }
+  }
+
+  /**
+   * This function is used for loading a signature index. Each file is mapped
+   * once and the same index is returned to all the runs of the process.
+   *
+   * @param filename
+   *          The name of the signature index file.
+   * @return the signature index.
+   * @throws IOException
+   */
+  public static synchronized FleetSignatureIndex load (String filename)
+    throws IOException
+  {
+    String key = new File(filename).getCanonicalPath();
+
+    if (!loaded.containsKey(key)) {
+      loaded.put(key, new FleetSignatureIndex(key));
+      log.info("Signature Index " + filename + ": " + loaded.get(key).size
+               + " Signatures " + loaded.get(key).names.length + " Labels");
+    }
+
+    return loaded.get(key);
+  }
+
+  /**
+   * This function is used for finding the label of a pair of points of
+   * interest, as the label of the nearest signature, provided that the pair
+   * is close to it in the same way as to an appliance.
+   *
+   * @param meanValues
+   *          The mean active and reactive power of the pair.
+   * @param duration
+   *          The duration of the pair.
+   * @return the name (without number) and the activity of the label, or null
+   *         if there is no close signature.
+   */
+  public String[] label (double[] meanValues, int duration)
+  {
+    if (size == 0)
+      return null;
+
+    int[] best = { -1 };
+    double[] bestDistance = { Double.POSITIVE_INFINITY };
+
+    nearest(0, size, 0, meanValues[0], meanValues[1], duration, best,
+            bestDistance);
+
+    int record = HEADER + best[0] * RECORD;
+    double[] signature = { buffer.getDouble(record), buffer.getDouble(record + 8) };
+    int label = buffer.getInt(record + 24);
+
+    // The refrigerator is found by its own procedures, so the signatures of
+    // older index files that still contain it do not create a second one.
+    if (activities[label].equalsIgnoreCase("Refrigeration"))
+      return null;
+
+    boolean close =
+      Utils.percentageEuclideanDistance(signature, meanValues) < Constants.PERCENTAGE_CLOSENESS_THRESHOLD
+              || Utils.absoluteEuclideanDistance(signature, meanValues) < Constants.ABSOLUTE_CLOSENESS_THRESHOLD;
+
+    if (!close)
+      return null;
+
+    String[] result = { names[label], activities[label] };
+    return result;
+  }
+
+  /**
+   * This is an auxiliary function searching a range of the implicit k-d tree
+   * for the nearest signature, visiting the far side of a split only when it
+   * may contain a nearer signature.
+   */
+  private void nearest (int low, int high, int depth, double p, double q,
+                        double duration, int[] best, double[] bestDistance)
+  {
+    if (low >= high)
+      return;
+
+    int middle = (low + high) >>> 1;
+    int record = HEADER + middle * RECORD;
+
+    double pDiff = p - buffer.getDouble(record);
+    double qDiff = q - buffer.getDouble(record + 8);
+    double distance = pDiff * pDiff + qDiff * qDiff;
+
+    double signatureDuration = buffer.getDouble(record + 16);
+    if (!Double.isNaN(signatureDuration)) {
+      double dDiff =
+        Constants.SIGNATURE_DURATION_WEIGHT * (duration - signatureDuration);
+      distance += dDiff * dDiff;
+    }
+
+    if (distance < bestDistance[0]) {
+      bestDistance[0] = distance;
+      best[0] = middle;
+    }
+
+    double split = (depth % 2 == 0) ? pDiff : qDiff;
+
+    if (split < 0) {
+      nearest(low, middle, depth + 1, p, q, duration, best, bestDistance);
+      if (split * split < bestDistance[0])
+        nearest(middle + 1, high, depth + 1, p, q, duration, best,
+                bestDistance);
+    }
+    else {
+      nearest(middle + 1, high, depth + 1, p, q, duration, best, bestDistance);
+      if (split * split < bestDistance[0])
+        nearest(low, middle, depth + 1, p, q, duration, best, bestDistance);
+    }
+  }
+
+  private String readString (int offset)
+  {
+    byte[] bytes = new byte[buffer.getShort(offset)];
+
+    for (int i = 0; i < bytes.length; i++)
+      bytes[i] = buffer.get(offset + 2 + i);
+
+    return new String(bytes, UTF8);
+  }
+
+  /**
+   * This function is used for building a signature index from the appliance
+   * list files of many households. The generic appliances, the standby
+   * consumption and the washing machines are left out, since they carry no
+   * label or no signature, and so are the refrigerators, since they are
+   * detected by their own procedures. The index file is replaced atomically.
+   *
+   * @param applianceFiles
+   *          The list of the appliance list files.
+   * @param filename
+   *          The name of the signature index file.
+   * @throws IOException
+   */
+  public static void build (ArrayList<String> applianceFiles, String filename)
+    throws IOException
+  {
+    final ArrayList<double[]> signatures = new ArrayList<double[]>();
+    final ArrayList<String> labels = new ArrayList<String>();
+    Map<String, Integer> labelIndices = new HashMap<String, Integer>();
+
+    for (String applianceFile: applianceFiles)
+      readSignatures(applianceFile, signatures, labels, labelIndices);
+
+    final Integer[] order = new Integer[signatures.size()];
+    for (int i = 0; i < order.length; i++)
+      order[i] = i;
+
+    arrange(order, 0, order.length, 0, signatures);
+
+    Utils.writeAtomically(filename, new Utils.Contents() {
+      @Override
+      public void write (DataOutputStream output) throws IOException
+      {
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        output.writeInt(order.length);
+        output.writeInt(labels.size() / 2);
+
+        for (Integer index: order) {
+          double[] signature = signatures.get(index);
+          output.writeDouble(signature[0]);
+          output.writeDouble(signature[1]);
+          output.writeDouble(signature[2]);
+          output.writeInt((int) signature[3]);
+        }
+
+        for (String label: labels) {
+          byte[] bytes = label.getBytes(UTF8);
+          output.writeShort(bytes.length);
+          output.write(bytes);
+        }
+      }
+    });
+
+    log.info("Signature Index " + filename + " Built: " + order.length
+             + " Signatures " + labels.size() / 2 + " Labels from "
+             + applianceFiles.size() + " Files");
+  }
+
+  /**
+   * This is an auxiliary function reading the signatures of an appliance list
+   * file. Each signature keeps its active power, reactive power, duration
+   * (NaN when unknown) and the index of its label. The duration is the mean
+   * duration of the activations of the appliance in the activity list file of
+   * the same household.
+   */
+  private static void readSignatures (String applianceFile,
+                                      ArrayList<double[]> signatures,
+                                      ArrayList<String> labels,
+                                      Map<String, Integer> labelIndices)
+    throws FileNotFoundException
+  {
+    Map<String, Double> durations = readDurations(applianceFile);
+
+    Scanner input = new Scanner(new File(applianceFile));
+
+    try {
+      while (input.hasNextLine()) {
+
+        String[] line = input.nextLine().split(",");
+
+        if (line.length < 4 || line[0].contains("Washing")
+            || line[1].contains("Standby") || line[1].contains("Generic")
+            || line[1].contains("Refrigeration"))
+          continue;
+
+        double[] signature = new double[4];
+
+        try {
+          signature[0] = Double.parseDouble(line[2]);
+          signature[1] = Double.parseDouble(line[3]);
+          signature[2] =
+            (line.length > 4) ? Double.parseDouble(line[4]) : Double.NaN;
+        }
+        catch (NumberFormatException e) {
+          continue;
+        }
+
+        if (Double.isNaN(signature[0]) || Double.isInfinite(signature[0])
+            || Double.isNaN(signature[1]) || Double.isInfinite(signature[1]))
+          continue;
+
+        if (Double.isNaN(signature[2]) && durations.containsKey(line[0]))
+          signature[2] = durations.get(line[0]);
+
+        // The number of the appliance in its household is not part of the
+        // label.
+        String name = line[0].replaceAll("\\s+\\d+$", "");
+        String key = name + "," + line[1];
+
+        if (!labelIndices.containsKey(key)) {
+          labelIndices.put(key, labels.size() / 2);
+          labels.add(name);
+          labels.add(line[1]);
+        }
+
+        signature[3] = labelIndices.get(key);
+        signatures.add(signature);
+      }
+    }
+    finally {
+      input.close();
+    }
+  }
+
+  /**
+   * This is an auxiliary function reading the mean duration of the
+   * activations of each appliance from the activity list file next to an
+   * appliance list file. In case there is no such file, there are no
+   * durations.
+   */
+  private static Map<String, Double> readDurations (String applianceFile)
+    throws FileNotFoundException
+  {
+    Map<String, Double> result = new HashMap<String, Double>();
+
+    if (!applianceFile.endsWith("ApplianceList.csv"))
+      return result;
+
+    File activityFile =
+      new File(applianceFile.substring(0, applianceFile.length()
+                                          - "ApplianceList.csv".length())
+               + "ActivityList.csv");
+
+    if (!activityFile.exists())
+      return result;
+
+    Map<String, double[]> sums = new HashMap<String, double[]>();
+    Scanner input = new Scanner(activityFile);
+
+    try {
+      while (input.hasNextLine()) {
+
+        String[] line = input.nextLine().split(",");
+
+        if (line.length < 4)
+          continue;
+
+        int duration = 0;
+
+        try {
+          duration = Integer.parseInt(line[3]) - Integer.parseInt(line[2]);
+        }
+        catch (NumberFormatException e) {
+          continue;
+        }
+
+        if (!sums.containsKey(line[0]))
+          sums.put(line[0], new double[2]);
+
+        sums.get(line[0])[0] += duration;
+        sums.get(line[0])[1]++;
+      }
+    }
+    finally {
+      input.close();
+    }
+
+    for (Map.Entry<String, double[]> entry: sums.entrySet())
+      result.put(entry.getKey(), entry.getValue()[0] / entry.getValue()[1]);
+
+    return result;
+  }
+
+  /**
+   * This is an auxiliary function arranging a range of signatures as an
+   * implicit k-d tree, with the median on the splitting dimension in the
+   * middle of the range.
+   */
+  private static void arrange (Integer[] order, int low, int high, int depth,
+                               final ArrayList<double[]> signatures)
+  {
+    if (high - low < 2)
+      return;
+
+    final int dimension = depth % 2;
+
+    Arrays.sort(order, low, high, new Comparator<Integer>() {
+      @Override
+      public int compare (Integer a, Integer b)
+      {
+        return Double.compare(signatures.get(a)[dimension],
+                              signatures.get(b)[dimension]);
+      }
+    });
+
+    int middle = (low + high) >>> 1;
+
+    arrange(order, low, middle, depth + 1, signatures);
+    arrange(order, middle + 1, high, depth + 1, signatures);
+  }
+
+  /**
+   * This function is used for building a signature index from the command
+   * line. The first argument is the signature index file and the rest are
+   * appliance list files or folders containing them.
+   */
+  public static void main (String[] args) throws IOException
+  {
+    ArrayList<String> applianceFiles = new ArrayList<String>();
+
+    for (int i = 1; i < args.length; i++) {
+      File file = new File(args[i]);
+
+      if (file.isDirectory()) {
+        File[] files = file.listFiles();
+        if (files != null)
+          for (File child: files)
+            if (child.getName().endsWith("ApplianceList.csv"))
+              applianceFiles.add(child.getPath());
+      }
+      else
+        applianceFiles.add(args[i]);
+    }
+
+    build(applianceFiles, args[0]);
+  }
+}
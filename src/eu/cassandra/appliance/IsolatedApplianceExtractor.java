@@ -21,18 +21,7 @@ import java.util.ArrayList;
 import java.util.Map;
 import java.util.TreeMap;
 
-import weka.clusterers.HierarchicalClusterer;
-import weka.clusterers.SimpleKMeans;
-import weka.core.Attribute;
-import weka.core.DenseInstance;
-import weka.core.EuclideanDistance;
-import weka.core.Instance;
-import weka.core.Instances;
-import weka.filters.Filter;
-import weka.filters.unsupervised.attribute.AddCluster;
 import eu.cassandra.event.Event;
-import eu.cassandra.utils.Constants;
-import eu.cassandra.utils.Utils;
 
 /**
  * This class is responsible for finding events that contain isolated appliances
@@ -55,7 +44,7 @@ public class IsolatedApplianceExtractor
   /**
    * This is a map of the events contained in each cluster estimated later.
    */
-  private final Map<String, ArrayList<Integer>> clusters =
+  private Map<String, ArrayList<Integer>> clusters =
     new TreeMap<String, ArrayList<Integer>>();
 
   /**
@@ -120,22 +109,16 @@ public class IsolatedApplianceExtractor
       // }
     }
 
-    // The instances for the cluster procedure are created
-    Instances inst = createInstances(isolated);
+    // The clustering is taking place
+    IsolatedClustering clustering = new IsolatedClustering(isolated, false);
+    clusters = clustering.getClusters();
 
-    // System.out.println(inst.toString());
-
-    if (inst.size() > 0) {
-
-      // The cluster is taking place
-      fillClusters(inst);
-
-      // System.out.println("Clusters:" + clusters.toString());
+    if (isolated.size() > 0) {
 
       // The refrigerator cluster is found
-      findRefrigerator();
+      refrigeratorCluster = clustering.findRefrigerator(false);
 
-      // System.out.println("Fridge Cluster:" + refrigeratorCluster);
+      clusterRefMeans();
 
     }
 
@@ -163,178 +146,6 @@ public class IsolatedApplianceExtractor
     return isolated;
   }
 
-  /**
-   * This is an auxiliary function that prepares the clustering data set. The
-   * events must be translated to instances of the data set that can be used for
-   * clustering.
-   * 
-   * @param isolated
-   *          The list of the events containing an isolated appliance.
-   * @return The instances of the data
-   * @throws Exception
-   */
-  private Instances createInstances (ArrayList<Event> isolated)
-    throws Exception
-  {
-    // Initializing auxiliary variables namely the attributes of the data set
-    Attribute id = new Attribute("id");
-    Attribute pDiffRise = new Attribute("pDiffRise");
-    Attribute qDiffRise = new Attribute("qDiffRise");
-    Attribute pDiffReduce = new Attribute("pDiffReduce");
-    Attribute qDiffReduce = new Attribute("qDiffReduce");
-
-    ArrayList<Attribute> attr = new ArrayList<Attribute>();
-    attr.add(id);
-    attr.add(pDiffRise);
-    attr.add(qDiffRise);
-    attr.add(pDiffReduce);
-    attr.add(qDiffReduce);
-
-    Instances instances = new Instances("Isolated", attr, 0);
-
-    // Each event is translated to an instance with the above attributes
-    for (Event event: isolated) {
-
-      Instance inst = new DenseInstance(5);
-      inst.setValue(id, event.getId());
-      inst.setValue(pDiffRise, event.getRisingPoints().get(0).getPDiff());
-      inst.setValue(qDiffRise, event.getRisingPoints().get(0).getQDiff());
-      inst.setValue(pDiffReduce, event.getReductionPoints().get(0).getPDiff());
-      inst.setValue(qDiffReduce, event.getReductionPoints().get(0).getQDiff());
-
-      instances.add(inst);
-
-    }
-
-    int n = Constants.MAX_CLUSTERS_NUMBER;
-    Instances newInst = null;
-
-    System.out.println("Instances: " + instances.toSummaryString());
-    System.out.println("Max Clusters: " + n);
-
-    // Create the addcluster filter of Weka and the set up the hierarchical
-    // clusterer.
-    AddCluster addcluster = new AddCluster();
-
-    if (instances.size() > Constants.KMEANS_LIMIT_NUMBER
-        || instances.size() == 0) {
-
-      HierarchicalClusterer clusterer = new HierarchicalClusterer();
-
-      String[] opt = { "-N", "" + n + "", "-P", "-D", "-L", "AVERAGE" };
-
-      clusterer.setDistanceFunction(new EuclideanDistance());
-      clusterer.setNumClusters(n);
-      clusterer.setOptions(opt);
-      clusterer.setPrintNewick(true);
-      clusterer.setDebug(true);
-
-      // clusterer.getOptions();
-
-      addcluster.setClusterer(clusterer);
-      addcluster.setInputFormat(instances);
-      addcluster.setIgnoredAttributeIndices("1");
-
-      // Cluster data set
-      newInst = Filter.useFilter(instances, addcluster);
-
-    }
-    else {
-
-      SimpleKMeans kmeans = new SimpleKMeans();
-
-      kmeans.setSeed(10);
-
-      // This is the important parameter to set
-      kmeans.setPreserveInstancesOrder(true);
-      kmeans.setNumClusters(n);
-      kmeans.buildClusterer(instances);
-
-      addcluster.setClusterer(kmeans);
-      addcluster.setInputFormat(instances);
-      addcluster.setIgnoredAttributeIndices("1");
-
-      // Cluster data set
-      newInst = Filter.useFilter(instances, addcluster);
-
-    }
-
-    return newInst;
-
-  }
-
-  /**
-   * This function is taking the instances coming out from clustering and put
-   * each event to each respective cluster.
-   * 
-   * @param inst
-   *          The clustered instances
-   */
-  private void fillClusters (Instances inst)
-  {
-    // Initializing auxiliary variables
-    ArrayList<Integer> temp;
-
-    // For each instance check the cluster value and put it to the correct
-    // cluster
-    for (int i = 0; i < inst.size(); i++) {
-
-      String cluster = inst.get(i).stringValue(inst.attribute(5));
-
-      if (!clusters.containsKey(cluster))
-        temp = new ArrayList<Integer>();
-      else
-        temp = clusters.get(cluster);
-
-      temp.add(i);
-
-      clusters.put(cluster, temp);
-
-    }
-
-  }
-
-  /**
-   * This function is responsible for finding the larger cluster in size which
-   * is going to be the refrigerator cluster.
-   */
-  private void findRefrigerator ()
-  {
-    // Initializing auxiliary variables
-    int maxSize = 0;
-    double distance1 = Double.POSITIVE_INFINITY, distance2 =
-      Double.POSITIVE_INFINITY;
-    // Magic Numbers for now
-    double[] meanRef = { 100, 60 };
-
-    for (String cluster: clusters.keySet()) {
-      if (maxSize < clusters.get(cluster).size()) {
-        maxSize = clusters.get(cluster).size();
-        refrigeratorCluster = cluster;
-        distance1 =
-          Utils.percentageEuclideanDistance(meanRef, clusterMeans(cluster));
-        // System.out.println("Mean Ref Distance: " + distance1);
-      }
-      else if (maxSize == clusters.get(cluster).size()) {
-        distance2 =
-          Utils.percentageEuclideanDistance(meanRef, clusterMeans(cluster));
-        // System.out.println("Mean Previous Ref Distance: " + distance1);
-        // System.out.println("New Ref Distance: " + distance2);
-        // System.out.println("Smaller?: " + (distance2 < distance1));
-        if (distance2 < distance1) {
-          maxSize = clusters.get(cluster).size();
-          refrigeratorCluster = cluster;
-          distance1 =
-            Utils.percentageEuclideanDistance(meanRef, clusterMeans(cluster));
-          // System.out.println("Mean Ref Distance: " + distance1);
-        }
-      }
-    }
-
-    clusterRefMeans();
-
-  }
-
   /**
    * This function is used for filling an array with the mean values of active
    * and reactive power of the refrigerator cluster events.
@@ -352,32 +163,10 @@ public class IsolatedApplianceExtractor
     }
   }
 
-  /**
-   * This function is used for filling an array with the mean values of active
-   * and reactive power of the refrigerator cluster events.
-   */
-  private double[] clusterMeans (String clusterIndex)
-  {
-    // Initializing auxiliary variables
-    ArrayList<Integer> clusterEvents = clusters.get(clusterIndex);
-    double[] meanValues = new double[2];
-
-    for (Integer index: clusterEvents) {
-      meanValues[0] += isolated.get(index).getMeanValues()[0];
-      meanValues[1] += isolated.get(index).getMeanValues()[1];
-    }
-
-    meanValues[0] /= clusterEvents.size();
-    meanValues[1] /= clusterEvents.size();
-
-    return meanValues;
-
-  }
-
   public void clear ()
   {
     isolated.clear();
-    clusters.clear();
+    clusters = new TreeMap<String, ArrayList<Integer>>();
     refrigeratorCluster = "";
     refConsumptionMeans.clear();
   }
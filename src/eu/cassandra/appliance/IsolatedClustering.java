@@ -0,0 +1,594 @@
+/*
+Copyright 2011-2013 The Cassandra Consortium (cassandra-fp7.eu)
+
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package eu.cassandra.appliance;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.log4j.Logger;
+
+import weka.clusterers.HierarchicalClusterer;
+import weka.clusterers.SimpleKMeans;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.EuclideanDistance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.filters.Filter;
+import weka.filters.unsupervised.attribute.AddCluster;
+import eu.cassandra.event.Event;
+import eu.cassandra.utils.Constants;
+import eu.cassandra.utils.StreamingClusterer;
+import eu.cassandra.utils.Utils;
+
+/**
+ * This class is the clustering procedure shared by the extractors of the
+ * isolated events. Each isolated event is translated to a row of a feature
+ * matrix (the active and reactive power differences of its rising and
+ * reduction point and, optionally, its duration), which is clustered either
+ * with the Weka clusterers or with the streaming clusterer. The assignment of
+ * each event and the statistics of each cluster (number of events, centroid
+ * and variance of the features, sums of the mean values and durations of the
+ * events) are kept, so that events added later are assigned to the nearest
+ * centroid and update the statistics without clustering again. The statistics
+ * can be saved to the appliance library, so that the isolated events of a
+ * later run of the same household are added to the clusters of the previous
+ * runs.
+ */
+class IsolatedClustering
+{
+  static Logger log = Logger.getLogger(IsolatedClustering.class);
+
+  /**
+   * This constant is the reference mean values of a refrigerator, used for
+   * choosing between clusters of the same size (magic numbers for now).
+   */
+  private static final double[] MEAN_REF = { 100, 60 };
+
+  private final int dimensions;
+
+  /**
+   * This is a map of the events contained in each cluster.
+   */
+  private final Map<String, ArrayList<Integer>> clusters =
+    new TreeMap<String, ArrayList<Integer>>();
+
+  /**
+   * This is a list of the names of the clusters, in the order they appeared.
+   */
+  private final ArrayList<String> names = new ArrayList<String>();
+
+  /**
+   * This variable contains the cluster (as an index of the names) of each
+   * event.
+   */
+  private int[] assignments = new int[0];
+
+  private int size = 0;
+
+  /**
+   * This variable contains the number of events of each cluster, including
+   * the events of the previous runs in case the clustering has been loaded.
+   */
+  private int[] counts = new int[0];
+
+  /**
+   * These variables contain the statistics of each cluster, one row per
+   * cluster.
+   */
+  private final ArrayList<double[]> featureSums = new ArrayList<double[]>();
+
+  private final ArrayList<double[]> featureSquares = new ArrayList<double[]>();
+
+  private final ArrayList<double[]> meanSums = new ArrayList<double[]>();
+
+  /**
+   * These variables contain the range of each feature in the first clustering,
+   * used for comparing the events added later with the centroids in the same
+   * way as the clustered events.
+   */
+  private double[] minimum;
+
+  private double[] range;
+
+  /**
+   * The constructor of the clustering of the isolated events.
+   *
+   * @param isolated
+   *          The list of the events containing an isolated appliance.
+   * @param duration
+   *          The flag that shows if the duration of the events is one of the
+   *          features.
+   * @throws Exception
+   */
+  IsolatedClustering (ArrayList<Event> isolated, boolean duration)
+    throws Exception
+  {
+    dimensions = duration ? 5 : 4;
+
+    double[] features = features(isolated);
+    estimateRanges(features);
+
+    if (isolated.size() == 0)
+      return;
+
+    if (Constants.NATIVE_CLUSTERING) {
+
+      log.info("Instances: " + isolated.size());
+      log.info("Max Clusters: " + Constants.MAX_CLUSTERS_NUMBER);
+
+      int[] labels =
+        new StreamingClusterer(Constants.MAX_CLUSTERS_NUMBER, 10)
+                .cluster(features, dimensions);
+
+      for (int i = 0; i < labels.length; i++)
+        add(isolated.get(i), features, i, "cluster" + (labels[i] + 1));
+    }
+    else {
+
+      Instances inst = createInstances(isolated, features);
+      Attribute cluster = inst.attribute(dimensions + 1);
+
+      for (int i = 0; i < inst.size(); i++)
+        add(isolated.get(i), features, i, inst.get(i).stringValue(cluster));
+    }
+  }
+
+  /**
+   * This is the constructor of a clustering whose statistics are read from a
+   * file, without any events.
+   */
+  private IsolatedClustering (int dimensions)
+  {
+    this.dimensions = dimensions;
+  }
+
+  /**
+   * This function is used for adding events after the clustering. Each event
+   * is assigned to the cluster with the nearest centroid (the distances are
+   * evaluated concurrently) and the statistics of the cluster are updated.
+   *
+   * @param events
+   *          The list of the new events containing an isolated appliance.
+   */
+  void addEvents (ArrayList<Event> events)
+  {
+    if (names.size() == 0 || events.size() == 0)
+      return;
+
+    final double[] features = features(events);
+    final double[] centroids = new double[names.size() * dimensions];
+
+    for (int c = 0; c < names.size(); c++)
+      System.arraycopy(normalize(centroid(c), 0), 0, centroids, c
+                                                                * dimensions,
+                       dimensions);
+
+    final int[] nearest = new int[events.size()];
+
+    Utils.inParts(events.size(), new Utils.Part() {
+      @Override
+      public void run (int from, int to)
+      {
+        for (int i = from; i < to; i++) {
+          double[] point = normalize(features, i * dimensions);
+          double best = Double.POSITIVE_INFINITY;
+
+          for (int c = 0; c < centroids.length / dimensions; c++) {
+            double distance = 0;
+            for (int d = 0; d < dimensions; d++)
+              distance +=
+                Math.pow(point[d] - centroids[c * dimensions + d], 2);
+            if (distance < best) {
+              best = distance;
+              nearest[i] = c;
+            }
+          }
+        }
+      }
+    });
+
+    for (int i = 0; i < events.size(); i++)
+      add(events.get(i), features, i, names.get(nearest[i]));
+
+    log.info("Added " + events.size() + " Isolated Events to "
+             + names.size() + " Clusters");
+  }
+
+  /**
+   * This is an auxiliary function adding an event to a cluster and updating
+   * the statistics of the cluster.
+   */
+  private void add (Event event, double[] features, int row, String name)
+  {
+    int c = names.indexOf(name);
+
+    if (c == -1) {
+      c = names.size();
+      names.add(name);
+      clusters.put(name, new ArrayList<Integer>());
+      featureSums.add(new double[dimensions]);
+      featureSquares.add(new double[dimensions]);
+      meanSums.add(new double[3]);
+      counts = Arrays.copyOf(counts, names.size());
+    }
+
+    counts[c]++;
+
+    for (int d = 0; d < dimensions; d++) {
+      double value = features[row * dimensions + d];
+      featureSums.get(c)[d] += value;
+      featureSquares.get(c)[d] += value * value;
+    }
+
+    meanSums.get(c)[0] += event.getMeanValues()[0];
+    meanSums.get(c)[1] += event.getMeanValues()[1];
+    meanSums.get(c)[2] += event.getDuration();
+
+    if (size == assignments.length)
+      assignments = Arrays.copyOf(assignments, 2 * size + 16);
+    assignments[size] = c;
+
+    clusters.get(name).add(size++);
+  }
+
+  /**
+   * This is an auxiliary function translating the events to rows of the
+   * feature matrix.
+   */
+  private double[] features (ArrayList<Event> events)
+  {
+    double[] result = new double[events.size() * dimensions];
+
+    for (int i = 0; i < events.size(); i++) {
+      Event event = events.get(i);
+      result[i * dimensions] = event.getRisingPoints().get(0).getPDiff();
+      result[i * dimensions + 1] = event.getRisingPoints().get(0).getQDiff();
+      result[i * dimensions + 2] = event.getReductionPoints().get(0).getPDiff();
+      result[i * dimensions + 3] = event.getReductionPoints().get(0).getQDiff();
+      if (dimensions == 5)
+        result[i * dimensions + 4] =
+          event.getEndMinute() - event.getStartMinute();
+    }
+
+    return result;
+  }
+
+  private void estimateRanges (double[] features)
+  {
+    minimum = new double[dimensions];
+    range = new double[dimensions];
+
+    for (int d = 0; d < dimensions; d++) {
+      double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+
+      for (int i = d; i < features.length; i += dimensions) {
+        min = Math.min(min, features[i]);
+        max = Math.max(max, features[i]);
+      }
+
+      minimum[d] = min;
+      range[d] = max - min;
+    }
+  }
+
+  private double[] normalize (double[] features, int from)
+  {
+    double[] result = new double[dimensions];
+
+    for (int d = 0; d < dimensions; d++)
+      result[d] =
+        (range[d] > 0) ? (features[from + d] - minimum[d]) / range[d] : 0;
+
+    return result;
+  }
+
+  /**
+   * This is an auxiliary function that prepares the Weka clustering data set
+   * and clusters it. The events are translated to instances with their id and
+   * their features, and the id is ignored by the clusterers.
+   *
+   * @param isolated
+   *          The list of the events containing an isolated appliance.
+   * @param features
+   *          The feature matrix of the events.
+   * @return The clustered instances, with the cluster as their last attribute.
+   * @throws Exception
+   */
+  private Instances createInstances (ArrayList<Event> isolated,
+                                     double[] features) throws Exception
+  {
+    // Initializing auxiliary variables namely the attributes of the data set
+    String[] attributes =
+      { "pDiffRise", "qDiffRise", "pDiffReduce", "qDiffReduce", "duration" };
+
+    ArrayList<Attribute> attr = new ArrayList<Attribute>();
+    attr.add(new Attribute("id"));
+    for (int d = 0; d < dimensions; d++)
+      attr.add(new Attribute(attributes[d]));
+
+    Instances instances = new Instances("Isolated", attr, 0);
+
+    // Each event is translated to an instance with the above attributes
+    for (int i = 0; i < isolated.size(); i++) {
+
+      Instance inst = new DenseInstance(dimensions + 1);
+      inst.setValue(attr.get(0), isolated.get(i).getId());
+      for (int d = 0; d < dimensions; d++)
+        inst.setValue(attr.get(d + 1), features[i * dimensions + d]);
+      instances.add(inst);
+
+    }
+
+    int n = Constants.MAX_CLUSTERS_NUMBER;
+
+    log.info("Instances: " + instances.toSummaryString());
+    log.info("Max Clusters: " + n);
+
+    // Create the addcluster filter of Weka and the set up the hierarchical
+    // clusterer.
+    AddCluster addcluster = new AddCluster();
+
+    if (instances.size() > Constants.KMEANS_LIMIT_NUMBER
+        || instances.size() == 0) {
+
+      HierarchicalClusterer clusterer = new HierarchicalClusterer();
+
+      String[] opt = { "-N", "" + n + "", "-P", "-D", "-L", "AVERAGE" };
+
+      clusterer.setDistanceFunction(new EuclideanDistance());
+      clusterer.setNumClusters(n);
+      clusterer.setOptions(opt);
+      clusterer.setPrintNewick(true);
+      clusterer.setDebug(true);
+
+      addcluster.setClusterer(clusterer);
+    }
+    else {
+
+      SimpleKMeans kmeans = new SimpleKMeans();
+
+      kmeans.setSeed(10);
+
+      // This is the important parameter to set
+      kmeans.setPreserveInstancesOrder(true);
+      kmeans.setNumClusters(n);
+      kmeans.buildClusterer(instances);
+
+      addcluster.setClusterer(kmeans);
+    }
+
+    addcluster.setInputFormat(instances);
+    addcluster.setIgnoredAttributeIndices("1");
+
+    // Cluster data set
+    return Filter.useFilter(instances, addcluster);
+  }
+
+  /**
+   * This function is responsible for finding the larger cluster in size which
+   * is going to be the refrigerator cluster. Between clusters of the same
+   * size, the one closer to the reference mean values of a refrigerator is
+   * chosen.
+   *
+   * @param upperThreshold
+   *          The flag that shows if the clusters with mean active power over
+   *          the refrigerator upper threshold are not chosen when larger.
+   * @return the name of the refrigerator cluster, or an empty string if there
+   *         is none.
+   */
+  String findRefrigerator (boolean upperThreshold)
+  {
+    // Initializing auxiliary variables
+    String result = "";
+    int maxSize = 0;
+    double distance1 = Double.POSITIVE_INFINITY, distance2 =
+      Double.POSITIVE_INFINITY;
+
+    for (String cluster: clusters.keySet()) {
+
+      double mean = clusterMeans(cluster)[0];
+      int members = counts[names.indexOf(cluster)];
+
+      log.info("Mean for Cluster " + cluster + ":" + mean + " Members:"
+               + members);
+
+      if (maxSize < members
+          && (!upperThreshold || mean < Constants.REF_UPPER_THRESHOLD)) {
+        maxSize = members;
+        result = cluster;
+        distance1 =
+          Utils.percentageEuclideanDistance(MEAN_REF, clusterMeans(cluster));
+        log.info("Mean Ref Distance: " + distance1);
+      }
+      else if (maxSize == members) {
+        distance2 =
+          Utils.percentageEuclideanDistance(MEAN_REF, clusterMeans(cluster));
+        log.info("Mean Previous Ref Distance: " + distance1);
+        log.info("New Ref Distance: " + distance2);
+        log.info("Smaller?: " + (distance2 < distance1));
+        if (distance2 < distance1) {
+          maxSize = members;
+          result = cluster;
+          distance1 = distance2;
+          log.info("Mean Ref Distance: " + distance1);
+        }
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * This function is used as a getter for the events of each cluster.
+   *
+   * @return a map of the indices of the events of each cluster.
+   */
+  Map<String, ArrayList<Integer>> getClusters ()
+  {
+    return clusters;
+  }
+
+  /**
+   * This function returns the cluster of an event.
+   */
+  String getAssignment (int index)
+  {
+    return names.get(assignments[index]);
+  }
+
+  /**
+   * This function returns the mean active and reactive power and the mean
+   * duration of the events of a cluster, or null if there is no such
+   * cluster.
+   */
+  double[] clusterMeans (String cluster)
+  {
+    int c = names.indexOf(cluster);
+
+    if (c == -1)
+      return null;
+
+    double[] result = Arrays.copyOf(meanSums.get(c), 3);
+
+    for (int i = 0; i < result.length; i++)
+      result[i] /= counts[c];
+
+    return result;
+  }
+
+  /**
+   * This function returns the centroid of the features of a cluster.
+   */
+  double[] getCentroid (String cluster)
+  {
+    return centroid(names.indexOf(cluster));
+  }
+
+  /**
+   * This function returns the variance of the features of a cluster.
+   */
+  double[] getVariance (String cluster)
+  {
+    int c = names.indexOf(cluster);
+    double[] result = centroid(c);
+
+    for (int d = 0; d < dimensions; d++)
+      result[d] =
+        Math.max(0, featureSquares.get(c)[d] / counts[c] - result[d]
+                    * result[d]);
+
+    return result;
+  }
+
+  private double[] centroid (int c)
+  {
+    double[] result = Arrays.copyOf(featureSums.get(c), dimensions);
+
+    for (int d = 0; d < dimensions; d++)
+      result[d] /= counts[c];
+
+    return result;
+  }
+
+  /**
+   * This function is used for writing the statistics of the clusters and the
+   * ranges of the features to a file. The events themselves are not written,
+   * so the clusters of a loaded clustering contain only the events added
+   * after loading.
+   *
+   * @param output
+   *          The output stream of the file.
+   * @throws IOException
+   */
+  void write (DataOutputStream output) throws IOException
+  {
+    output.writeInt(dimensions);
+
+    for (int d = 0; d < dimensions; d++) {
+      output.writeDouble(minimum[d]);
+      output.writeDouble(range[d]);
+    }
+
+    output.writeInt(names.size());
+
+    for (int c = 0; c < names.size(); c++) {
+      output.writeUTF(names.get(c));
+      output.writeInt(counts[c]);
+      for (int d = 0; d < dimensions; d++) {
+        output.writeDouble(featureSums.get(c)[d]);
+        output.writeDouble(featureSquares.get(c)[d]);
+      }
+      for (int i = 0; i < 3; i++)
+        output.writeDouble(meanSums.get(c)[i]);
+    }
+  }
+
+  /**
+   * This function is used for reading the statistics of the clusters and the
+   * ranges of the features from a file, as written by the write function.
+   *
+   * @param input
+   *          The input stream of the file.
+   * @return The clustering, without any events.
+   * @throws IOException
+   */
+  static IsolatedClustering read (DataInputStream input) throws IOException
+  {
+    IsolatedClustering result = new IsolatedClustering(input.readInt());
+    int dimensions = result.dimensions;
+
+    result.minimum = new double[dimensions];
+    result.range = new double[dimensions];
+    for (int d = 0; d < dimensions; d++) {
+      result.minimum[d] = input.readDouble();
+      result.range[d] = input.readDouble();
+    }
+
+    int size = input.readInt();
+    result.counts = new int[size];
+
+    for (int c = 0; c < size; c++) {
+      String name = input.readUTF();
+      result.names.add(name);
+      result.clusters.put(name, new ArrayList<Integer>());
+      result.counts[c] = input.readInt();
+
+      double[] sums = new double[dimensions];
+      double[] squares = new double[dimensions];
+      for (int d = 0; d < dimensions; d++) {
+        sums[d] = input.readDouble();
+        squares[d] = input.readDouble();
+      }
+      result.featureSums.add(sums);
+      result.featureSquares.add(squares);
+
+      double[] means = new double[3];
+      for (int i = 0; i < 3; i++)
+        means[i] = input.readDouble();
+      result.meanSums.add(means);
+    }
+
+    return result;
+  }
+}
@@ -24,18 +24,8 @@ import java.util.TreeMap;
 
 import org.apache.log4j.Logger;
 
-import weka.clusterers.HierarchicalClusterer;
-import weka.clusterers.SimpleKMeans;
-import weka.core.Attribute;
-import weka.core.DenseInstance;
-import weka.core.EuclideanDistance;
-import weka.core.Instance;
-import weka.core.Instances;
-import weka.filters.Filter;
-import weka.filters.unsupervised.attribute.AddCluster;
 import eu.cassandra.event.Event;
 import eu.cassandra.utils.Constants;
-import eu.cassandra.utils.Utils;
 
 /**
  * This class is responsible for finding events that contain isolated appliances
@@ -60,9 +50,15 @@ public class IsolatedEventsExtractor
   /**
    * This is a map of the events contained in each cluster estimated later.
    */
-  private final Map<String, ArrayList<Integer>> clusters =
+  private Map<String, ArrayList<Integer>> clusters =
     new TreeMap<String, ArrayList<Integer>>();
 
+  /**
+   * This is the clustering of the isolated events, kept for adding events
+   * later.
+   */
+  private IsolatedClustering clustering = null;
+
   /**
    * The name of the cluster that is corresponding to the refrigerator.
    */
@@ -84,17 +80,120 @@ public class IsolatedEventsExtractor
    * @throws Exception
    */
   public IsolatedEventsExtractor (ArrayList<Event> events) throws Exception
+  {
+    this(events, Constants.REF_LOOSE_COUPLING == false);
+  }
+
+  /**
+   * This is the constructor of the isolated appliance extractor class, where
+   * the clustering of the isolated events for finding the refrigerator can be
+   * skipped (e.g. when the refrigerator has already been detected).
+   * 
+   * @param events
+   *          The list of all the events detected by the Event Detector.
+   * @param fridgeClustering
+   *          The flag that shows if the refrigerator is searched by clustering
+   *          the isolated events.
+   * @throws Exception
+   */
+  public IsolatedEventsExtractor (ArrayList<Event> events,
+                                  boolean fridgeClustering) throws Exception
+  {
+    this(events, fridgeClustering, null);
+  }
+
+  /**
+   * This is the constructor of the isolated appliance extractor class, where
+   * the clustering of the previous runs is kept in the appliance library. In
+   * case the library contains a clustering, the isolated events are added to
+   * its clusters without clustering again. Otherwise the events are clustered
+   * and the clustering is stored in the library.
+   * 
+   * @param events
+   *          The list of all the events detected by the Event Detector.
+   * @param fridgeClustering
+   *          The flag that shows if the refrigerator is searched by clustering
+   *          the isolated events.
+   * @param library
+   *          The appliance library of the household, or null if there is none.
+   * @throws Exception
+   */
+  public IsolatedEventsExtractor (ArrayList<Event> events,
+                                  boolean fridgeClustering,
+                                  ApplianceLibrary library) throws Exception
   {
     log.info("==============ISOLATED EVENTS===============");
 
+    isolated.addAll(selectIsolated(events));
+
+    log.info("Number of Isolated Events: " + isolated.size());
+    log.info("");
+
+    if (fridgeClustering) {
+
+      log.info("============FRIDGE CLUSTERING===============");
+
+      if (library != null && library.getClustering() != null) {
+        clustering = library.getClustering();
+        clustering.addEvents(isolated);
+      }
+      else {
+        clustering = new IsolatedClustering(isolated, true);
+
+        if (library != null && clustering.getClusters().size() > 0)
+          library.setClustering(clustering);
+      }
+
+      clusters = clustering.getClusters();
+      refrigeratorCluster = clustering.findRefrigerator(true);
+
+      clusterRefMeans();
+    }
+
+    analyseIsolated(isolated);
+
+  }
+
+  /**
+   * This function is used for adding the events of an incremental run (e.g.
+   * appended days of measurements). The new isolated events are assigned to
+   * the existing clusters without clustering again, and the refrigerator
+   * cluster and its mean values are estimated again.
+   * 
+   * @param events
+   *          The list of the new events detected by the Event Detector.
+   * @throws Exception
+   */
+  public void addEvents (ArrayList<Event> events) throws Exception
+  {
+    ArrayList<Event> newIsolated = selectIsolated(events);
+
+    log.info("Number of New Isolated Events: " + newIsolated.size());
+
+    isolated.addAll(newIsolated);
+
+    if (clustering != null) {
+      clustering.addEvents(newIsolated);
+      refrigeratorCluster = clustering.findRefrigerator(true);
+      clusterRefMeans();
+    }
+
+    analyseIsolated(newIsolated);
+  }
+
+  /**
+   * This is an auxiliary function selecting the events that contain one
+   * rising and one reduction points or two reduction points with the second
+   * much larger than the first.
+   */
+  private ArrayList<Event> selectIsolated (ArrayList<Event> events)
+  {
     // Initializing auxiliary variables
+    ArrayList<Event> result = new ArrayList<Event>();
     boolean q1 = false;
     boolean q3 = false;
     boolean pDiff = false;
 
-    // Checking each event. The ones that contain one rising and one reduction
-    // points or two reduction points with the second much larger than the
-    // first are selected and added to the array
     for (Event event: events) {
 
       log.debug("");
@@ -104,7 +203,7 @@ public class IsolatedEventsExtractor
 
       if (event.getRisingPoints().size() == 1
           && event.getReductionPoints().size() == 1) {
-        isolated.add(event);
+        result.add(event);
 
         log.debug("Isolated Event");
       }
@@ -120,13 +219,9 @@ public class IsolatedEventsExtractor
                                                                             .getPDiff()));
         q3 = (event.getReductionPoints().get(1).getQDiff() < 0);
 
-        // log.debug("Q1 > 0:" + q1);
-        // log.debug("PDiff:" + pDiff);
-        // log.debug("Q3 < 0:" + q3);
-
         if (q1 && q3 && pDiff) {
           event.getReductionPoints().remove(0);
-          isolated.add(event);
+          result.add(event);
 
           log.debug("Isolated Event");
 
@@ -134,27 +229,16 @@ public class IsolatedEventsExtractor
       }
     }
 
-    log.info("Number of Isolated Events: " + isolated.size());
-    log.info("");
-
-    // TODO Add clustering in order to find the correct fridge...
-
-    if (Constants.REF_LOOSE_COUPLING == false) {
-
-      log.info("============FRIDGE CLUSTERING===============");
-
-      Instances inst = createInstances(isolated);
-
-      // log.info(inst.toString());
-
-      if (inst.size() > 0) {
-        fillClusters(inst);
-        findRefrigerator();
-      }
-
-      clusterRefMeans();
-    }
+    return result;
+  }
 
+  /**
+   * This is an auxiliary function finding the final pairs of the isolated
+   * events.
+   */
+  private static void analyseIsolated (ArrayList<Event> isolated)
+    throws Exception
+  {
     for (Event event: isolated) {
       log.debug("");
       log.debug("Event: " + event.getId());
@@ -171,7 +255,6 @@ public class IsolatedEventsExtractor
       // event.status2();
 
     }
-
   }
 
   /**
@@ -230,206 +313,19 @@ public class IsolatedEventsExtractor
   // return refConsumptionMeans;
   // }
 
-  /**
-   * This is an auxiliary function that prepares the clustering data set. The
-   * events must be translated to instances of the data set that can be used for
-   * clustering.
-   * 
-   * @param isolated
-   *          The list of the events containing an isolated appliance.
-   * @return The instances of the data
-   * @throws Exception
-   */
-  private Instances createInstances (ArrayList<Event> isolated)
-    throws Exception
-  {
-    // Initializing auxiliary variables namely the attributes of the data set
-    Attribute id = new Attribute("id");
-    Attribute pDiffRise = new Attribute("pDiffRise");
-    Attribute qDiffRise = new Attribute("qDiffRise");
-    Attribute pDiffReduce = new Attribute("pDiffReduce");
-    Attribute qDiffReduce = new Attribute("qDiffReduce");
-    Attribute duration = new Attribute("duration");
-
-    ArrayList<Attribute> attr = new ArrayList<Attribute>();
-    attr.add(id);
-    attr.add(pDiffRise);
-    attr.add(qDiffRise);
-    attr.add(pDiffReduce);
-    attr.add(qDiffReduce);
-    attr.add(duration);
-
-    Instances instances = new Instances("Isolated", attr, 0);
-
-    // Each event is translated to an instance with the above attributes
-    for (Event event: isolated) {
-
-      Instance inst = new DenseInstance(6);
-      inst.setValue(id, event.getId());
-      inst.setValue(pDiffRise, event.getRisingPoints().get(0).getPDiff());
-      inst.setValue(qDiffRise, event.getRisingPoints().get(0).getQDiff());
-      inst.setValue(pDiffReduce, event.getReductionPoints().get(0).getPDiff());
-      inst.setValue(qDiffReduce, event.getReductionPoints().get(0).getQDiff());
-      inst.setValue(duration, event.getEndMinute() - event.getStartMinute());
-      instances.add(inst);
-
-    }
-
-    int n = Constants.MAX_CLUSTERS_NUMBER;
-    Instances newInst = null;
-
-    log.info("Instances: " + instances.toSummaryString());
-    log.info("Max Clusters: " + n);
-
-    // Create the addcluster filter of Weka and the set up the hierarchical
-    // clusterer.
-    AddCluster addcluster = new AddCluster();
-
-    if (instances.size() > Constants.KMEANS_LIMIT_NUMBER
-        || instances.size() == 0) {
-
-      HierarchicalClusterer clusterer = new HierarchicalClusterer();
-
-      String[] opt = { "-N", "" + n + "", "-P", "-D", "-L", "AVERAGE" };
-
-      clusterer.setDistanceFunction(new EuclideanDistance());
-      clusterer.setNumClusters(n);
-      clusterer.setOptions(opt);
-      clusterer.setPrintNewick(true);
-      clusterer.setDebug(true);
-
-      // clusterer.getOptions();
-
-      addcluster.setClusterer(clusterer);
-      addcluster.setInputFormat(instances);
-      addcluster.setIgnoredAttributeIndices("1");
-
-      // Cluster data set
-      newInst = Filter.useFilter(instances, addcluster);
-
-    }
-    else {
-
-      SimpleKMeans kmeans = new SimpleKMeans();
-
-      kmeans.setSeed(10);
-
-      // This is the important parameter to set
-      kmeans.setPreserveInstancesOrder(true);
-      kmeans.setNumClusters(n);
-      kmeans.buildClusterer(instances);
-
-      addcluster.setClusterer(kmeans);
-      addcluster.setInputFormat(instances);
-      addcluster.setIgnoredAttributeIndices("1");
-
-      // Cluster data set
-      newInst = Filter.useFilter(instances, addcluster);
-
-    }
-
-    return newInst;
-
-  }
-
-  /**
-   * This function is taking the instances coming out from clustering and put
-   * each event to each respective cluster.
-   * 
-   * @param inst
-   *          The clustered instances
-   */
-  private void fillClusters (Instances inst)
-  {
-    // Initializing auxiliary variables
-    ArrayList<Integer> temp;
-
-    // For each instance check the cluster value and put it to the correct
-    // cluster
-    for (int i = 0; i < inst.size(); i++) {
-
-      String cluster = inst.get(i).stringValue(inst.attribute(6));
-
-      if (!clusters.containsKey(cluster))
-        temp = new ArrayList<Integer>();
-      else
-        temp = clusters.get(cluster);
-
-      temp.add(i);
-
-      clusters.put(cluster, temp);
-
-    }
-
-  }
-
-  /**
-   * This function is responsible for finding the larger cluster in size which
-   * is going to be the refrigerator cluster.
-   */
-  private void findRefrigerator ()
-  {
-    // Initializing auxiliary variables
-    int maxSize = 0;
-    double distance1 = Double.POSITIVE_INFINITY, distance2 =
-      Double.POSITIVE_INFINITY;
-    // Magic Numbers for now
-    double[] meanRef = { 100, 60 };
-
-    for (String cluster: clusters.keySet()) {
-
-      double mean = clusterMeans(cluster)[0];
-
-      log.info("Mean for Cluster " + cluster + ":" + mean + " Members:"
-               + clusters.get(cluster).size());
-
-      if (maxSize < clusters.get(cluster).size()
-          && mean < Constants.REF_UPPER_THRESHOLD) {
-        maxSize = clusters.get(cluster).size();
-        refrigeratorCluster = cluster;
-        distance1 =
-          Utils.percentageEuclideanDistance(meanRef, clusterMeans(cluster));
-        log.info("Mean Ref Distance: " + distance1);
-      }
-      else if (maxSize == clusters.get(cluster).size()) {
-        distance2 =
-          Utils.percentageEuclideanDistance(meanRef, clusterMeans(cluster));
-        log.info("Mean Previous Ref Distance: " + distance1);
-        log.info("New Ref Distance: " + distance2);
-        log.info("Smaller?: " + (distance2 < distance1));
-        if (distance2 < distance1) {
-          maxSize = clusters.get(cluster).size();
-          refrigeratorCluster = cluster;
-          distance1 =
-            Utils.percentageEuclideanDistance(meanRef, clusterMeans(cluster));
-          log.info("Mean Ref Distance: " + distance1);
-        }
-      }
-    }
-
-  }
-
   /**
    * This function is used for filling an array with the mean values of active
    * and reactive power of the refrigerator cluster events.
    */
   public void clusterRefMeans ()
   {
-    // Initializing auxiliary variables
-    ArrayList<Integer> clusterEvents = clusters.get(refrigeratorCluster);
-    refMeans = new double[3];
-
-    for (Integer index: clusterEvents) {
+    refMeans =
+      (clustering != null) ? clustering.clusterMeans(refrigeratorCluster)
+                          : null;
 
-      refMeans[0] += isolated.get(index).getMeanValues()[0];
-      refMeans[1] += isolated.get(index).getMeanValues()[1];
-      refMeans[2] += isolated.get(index).getDuration();
-    }
-
-    for (int i = 0; i < refMeans.length; i++)
-      refMeans[i] /= clusterEvents.size();
-
-    log.info("Refrigerator Mean Values: " + Arrays.toString(refMeans));
+    // In case no cluster fits the refrigerator, there are no mean values.
+    if (refMeans != null)
+      log.info("Refrigerator Mean Values: " + Arrays.toString(refMeans));
 
   }
 
@@ -439,26 +335,14 @@ public class IsolatedEventsExtractor
    */
   public double[] clusterMeans (String clusterIndex)
   {
-    // Initializing auxiliary variables
-    ArrayList<Integer> clusterEvents = clusters.get(clusterIndex);
-    double[] meanValues = new double[2];
-
-    for (Integer index: clusterEvents) {
-      meanValues[0] += isolated.get(index).getMeanValues()[0];
-      meanValues[1] += isolated.get(index).getMeanValues()[1];
-    }
-
-    meanValues[0] /= clusterEvents.size();
-    meanValues[1] /= clusterEvents.size();
-
-    return meanValues;
-
+    return Arrays.copyOf(clustering.clusterMeans(clusterIndex), 2);
   }
 
   public void clear ()
   {
     isolated.clear();
-    clusters.clear();
+    clusters = new TreeMap<String, ArrayList<Integer>>();
+    clustering = null;
     refrigeratorCluster = "";
     refMeans = null;
   }
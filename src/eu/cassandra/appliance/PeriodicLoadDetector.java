@@ -0,0 +1,591 @@
+/*
+Copyright 2011-2013 The Cassandra Consortium (cassandra-fp7.eu)
+
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package eu.cassandra.appliance;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+
+import org.apache.log4j.Logger;
+
+import eu.cassandra.event.Event;
+import eu.cassandra.utils.Constants;
+import eu.cassandra.utils.PointOfInterest;
+import eu.cassandra.utils.Utils;
+
+/**
+ * This class is used for detecting the refrigerator as a periodic load
+ * directly on the active and reactive power measurements of the data set,
+ * without the clustering of the isolated events. The most frequent step of
+ * the active power below the refrigerator limit gives the step size, and the
+ * on and off steps of that size are paired in order to place the activations.
+ * The autocorrelation of the resulting on / off series is estimated with the
+ * Fast Fourier Transform and its strongest peak gives the period of the
+ * cycles, so the other loads of the data set do not cover the cycles. The
+ * confidence of the detection is the autocorrelation at the period times the
+ * share of the expected cycles that were placed.
+ */
+public class PeriodicLoadDetector
+{
+  static Logger log = Logger.getLogger(PeriodicLoadDetector.class);
+
+  /**
+   * This variable is the period of the cycles in minutes (-1 if not found).
+   */
+  private int period = -1;
+
+  /**
+   * This variable is the normalized autocorrelation at the period.
+   */
+  private double correlation = 0;
+
+  /**
+   * This variable is the active and reactive power of the step of the load.
+   */
+  private double[] step = null;
+
+  private double dutyCycle = 0;
+
+  private double confidence = 0;
+
+  /**
+   * This variable contains the start and end minute of each placed
+   * activation (from the start of the data set).
+   */
+  private final ArrayList<int[]> activations = new ArrayList<int[]>();
+
+  /**
+   * This variable contains the active and reactive power difference of the
+   * rising and the reduction step of each placed activation.
+   */
+  private final ArrayList<double[]> activationSteps = new ArrayList<double[]>();
+
+  /**
+   * The constructor of the detector, which runs the detection on the
+   * measurements of the data set.
+   *
+   * @param activePower
+   *          The active power measurements.
+   * @param reactivePower
+   *          The reactive power measurements.
+   */
+  public PeriodicLoadDetector (double[] activePower, double[] reactivePower)
+  {
+    log.info("==========SPECTRAL FRIDGE DETECTION=============");
+
+    int minPeriod = (int) (2 * Constants.REF_MIN_DURATION);
+    int maxPeriod = Math.min(Constants.SPECTRAL_MAX_PERIOD,
+                             activePower.length / 2);
+
+    ArrayList<double[]> rising = new ArrayList<double[]>();
+    ArrayList<double[]> reduction = new ArrayList<double[]>();
+
+    findSteps(activePower, reactivePower, rising, reduction);
+
+    if (maxPeriod < minPeriod || rising.size() == 0 || reduction.size() == 0)
+      return;
+
+    step = estimateStep(rising);
+
+    placeActivations(rising, reduction);
+
+    if (activations.size() == 0)
+      return;
+
+    // The on / off series of the placed activations.
+    double[] series = new double[activePower.length];
+    double durationSum = 0;
+
+    for (int[] activation: activations) {
+      for (int i = activation[0]; i < activation[1] && i < series.length; i++)
+        series[i] = 1;
+      durationSum += activation[1] - activation[0];
+    }
+
+    estimatePeriod(series, minPeriod, maxPeriod);
+
+    if (period == -1)
+      return;
+
+    dutyCycle = durationSum / activations.size() / period;
+
+    double coverage =
+      Math.min(1, (double) activations.size() * period / activePower.length);
+
+    if (dutyCycle < 1)
+      confidence = Math.max(0, correlation) * coverage;
+  }
+
+  /**
+   * This function is used for estimating the period of the cycles from the
+   * strongest peak of the autocorrelation. The first local peak that is
+   * close to the strongest one is chosen, so that a multiple of the period is
+   * not taken for the period.
+   */
+  private void estimatePeriod (double[] series, int minPeriod, int maxPeriod)
+  {
+    int n = series.length;
+
+    double mean = 0;
+    for (int i = 0; i < n; i++)
+      mean += series[i] / n;
+
+    double[] residual = new double[n];
+    for (int i = 0; i < n; i++)
+      residual[i] = series[i] - mean;
+
+    double[] acf = autocorrelation(residual);
+
+    if (acf[0] <= 0)
+      return;
+
+    double[] normalized = new double[maxPeriod + 2];
+    for (int k = 0; k < normalized.length && k < n; k++)
+      normalized[k] = acf[k] / acf[0] * n / (n - k);
+
+    double best = 0;
+    for (int k = minPeriod; k <= maxPeriod; k++)
+      best = Math.max(best, normalized[k]);
+
+    if (best <= 0)
+      return;
+
+    for (int k = minPeriod; k <= maxPeriod; k++)
+      if (normalized[k] >= Constants.SPECTRAL_PEAK_RATIO * best
+          && normalized[k] >= normalized[k - 1]
+          && normalized[k] >= normalized[k + 1]) {
+        period = k;
+        correlation = normalized[k];
+        break;
+      }
+  }
+
+  /**
+   * This function is used for finding the steps of the active power (merging
+   * consecutive changes of the same direction) whose size is within the
+   * refrigerator range. Each step is kept as its minute and its active and
+   * reactive power difference.
+   */
+  private void findSteps (double[] activePower, double[] reactivePower,
+                          ArrayList<double[]> rising,
+                          ArrayList<double[]> reduction)
+  {
+    int i = 1;
+
+    while (i < activePower.length) {
+
+      double difference = activePower[i] - activePower[i - 1];
+
+      if (difference == 0) {
+        i++;
+        continue;
+      }
+
+      int start = i - 1;
+      while (i < activePower.length
+             && Math.signum(activePower[i] - activePower[i - 1]) == Math
+                     .signum(difference))
+        i++;
+
+      double pDiff = activePower[i - 1] - activePower[start];
+      double qDiff = reactivePower[i - 1] - reactivePower[start];
+
+      if (Math.abs(pDiff) >= Constants.SPECTRAL_STEP_FLOOR
+          && Math.abs(pDiff) <= Constants.REF_UPPER_THRESHOLD) {
+        double[] temp = { start + 1, pDiff, qDiff };
+        if (pDiff > 0)
+          rising.add(temp);
+        else
+          reduction.add(temp);
+      }
+    }
+  }
+
+  /**
+   * This function is used for estimating the step of the load as the median
+   * of the densest group of rising steps, where a group contains the steps
+   * within the refrigerator threshold from its smallest step.
+   */
+  private static double[] estimateStep (ArrayList<double[]> rising)
+  {
+    ArrayList<double[]> sorted = new ArrayList<double[]>(rising);
+    Collections.sort(sorted, new Comparator<double[]>() {
+      @Override
+      public int compare (double[] step1, double[] step2)
+      {
+        return Double.compare(step1[1], step2[1]);
+      }
+    });
+
+    int bestStart = 0, bestEnd = 0;
+
+    for (int start = 0, end = 0; start < sorted.size(); start++) {
+      double limit =
+        sorted.get(start)[1] * (1 + 2 * Constants.REF_THRESHOLD / 100);
+      while (end < sorted.size() && sorted.get(end)[1] <= limit)
+        end++;
+      if (end - start > bestEnd - bestStart) {
+        bestStart = start;
+        bestEnd = end;
+      }
+    }
+
+    double[] pDiffs = new double[bestEnd - bestStart];
+    double[] qDiffs = new double[bestEnd - bestStart];
+
+    for (int i = bestStart; i < bestEnd; i++) {
+      pDiffs[i - bestStart] = sorted.get(i)[1];
+      qDiffs[i - bestStart] = sorted.get(i)[2];
+    }
+
+    double[] result = { median(pDiffs), median(qDiffs) };
+    return result;
+  }
+
+  /**
+   * This function is used for pairing each rising step of the load with the
+   * first unused reduction step of the load within the refrigerator duration
+   * limits.
+   */
+  private void placeActivations (ArrayList<double[]> rising,
+                                 ArrayList<double[]> reduction)
+  {
+    double[] opposite = { -step[0], -step[1] };
+    boolean[] used = new boolean[reduction.size()];
+    int first = 0;
+
+    for (double[] rise: rising) {
+
+      double[] riseValues = { rise[1], rise[2] };
+      if (Utils.percentageEuclideanDistance(step, riseValues) >= Constants.REF_THRESHOLD)
+        continue;
+
+      while (first < reduction.size()
+             && reduction.get(first)[0] < rise[0] + Constants.REF_MIN_DURATION)
+        first++;
+
+      for (int j = first; j < reduction.size()
+                          && reduction.get(j)[0] <= rise[0]
+                                                    + Constants.REF_MAX_DURATION; j++) {
+        double[] reductionValues = { reduction.get(j)[1], reduction.get(j)[2] };
+        if (!used[j]
+            && Utils.percentageEuclideanDistance(opposite, reductionValues) < Constants.REF_THRESHOLD) {
+          used[j] = true;
+          int[] activation = { (int) rise[0], (int) reduction.get(j)[0] };
+          double[] steps =
+            { rise[1], rise[2], reduction.get(j)[1], reduction.get(j)[2] };
+          activations.add(activation);
+          activationSteps.add(steps);
+          break;
+        }
+      }
+    }
+  }
+
+  /**
+   * This function is used for creating the refrigerator appliance from the
+   * placed activations. Each activation is added with the rising and
+   * reduction points of interest of its event that are closest to it in time
+   * and similar to the step of the load, and these points are removed from
+   * the event.
+   *
+   * @param events
+   *          The list of events produced from the data set.
+   * @return the refrigerator appliance or null if no activation was found in
+   *         the events.
+   */
+  public Appliance createRefrigerator (ArrayList<Event> events)
+  {
+    Appliance fridge = new Appliance("Refrigerator", "Refrigeration");
+    double[] opposite = { -step[0], -step[1] };
+
+    ArrayList<Event> sorted = new ArrayList<Event>(events);
+    Collections.sort(sorted, new Comparator<Event>() {
+      @Override
+      public int compare (Event event1, Event event2)
+      {
+        return Integer.compare(event1.getStartMinute(),
+                               event2.getStartMinute());
+      }
+    });
+
+    int[] starts = new int[sorted.size()];
+    for (int i = 0; i < starts.length; i++)
+      starts[i] = sorted.get(i).getStartMinute();
+
+    int added = 0;
+
+    for (int[] activation: activations) {
+
+      int index = Arrays.binarySearch(starts, activation[0]);
+      if (index < 0)
+        index = -index - 2;
+      if (index < 0)
+        continue;
+
+      Event event = sorted.get(index);
+      if (activation[1] > event.getEndMinute())
+        continue;
+
+      int offset = event.getStartMinute();
+
+      PointOfInterest rise =
+        closestPoint(event.getRisingPoints(), activation[0] - offset, step);
+      PointOfInterest reduction =
+        closestPoint(event.getReductionPoints(), activation[1] - offset,
+                     opposite);
+
+      if (rise != null && reduction != null
+          && rise.getMinute() < reduction.getMinute()) {
+        PointOfInterest[] pois = { rise, reduction };
+        fridge.addMatchingPoints(event, pois);
+
+        // The points are removed from the event, the same way as in the
+        // refrigerator identification, so that they are not matched again.
+        event.getRisingPoints().remove(rise);
+        event.getReductionPoints().remove(reduction);
+        added++;
+      }
+    }
+
+    log.info("Refrigerator Activations Placed In Events: " + added);
+
+    return (added == 0) ? null : fridge;
+  }
+
+  /**
+   * This function is used for creating the refrigerator appliance from the
+   * placed activations themselves, when they have been subtracted from the
+   * measurements before the event detection and thus do not belong to any
+   * event.
+   *
+   * @return the refrigerator appliance.
+   */
+  public Appliance createRefrigerator ()
+  {
+    Appliance fridge = new Appliance("Refrigerator", "Refrigeration");
+
+    for (int i = 0; i < activations.size(); i++) {
+      double[] steps = activationSteps.get(i);
+      double[] rising = { steps[0], steps[1] };
+      double[] reduction = { steps[2], steps[3] };
+      fridge.addActivation(activations.get(i)[0], activations.get(i)[1],
+                           rising, reduction);
+    }
+
+    return fridge;
+  }
+
+  /**
+   * This function is used for subtracting the periodic load, as reconstructed
+   * from the step of the load over the placed activations, from the
+   * measurements. The active power does not fall below zero.
+   *
+   * @param activePower
+   *          The active power measurements.
+   * @param reactivePower
+   *          The reactive power measurements.
+   * @return the residual active and reactive power measurements.
+   */
+  public double[][] subtract (double[] activePower, double[] reactivePower)
+  {
+    double[] active = activePower.clone();
+    double[] reactive = reactivePower.clone();
+
+    for (int[] activation: activations)
+      for (int i = activation[0]; i < activation[1] && i < active.length; i++) {
+        active[i] = Math.max(0, active[i] - step[0]);
+        reactive[i] -= step[1];
+      }
+
+    log.info("Periodic Load Subtracted From " + activations.size()
+             + " Activations");
+
+    double[][] result = { active, reactive };
+    return result;
+  }
+
+  /**
+   * This is an auxiliary function returning the point of interest closest to
+   * a minute (within the tolerance) that is similar to a step, or null.
+   */
+  private static PointOfInterest closestPoint (ArrayList<PointOfInterest> pois,
+                                               int minute, double[] values)
+  {
+    PointOfInterest result = null;
+    int distance = Constants.SPECTRAL_POINT_TOLERANCE + 1;
+
+    for (PointOfInterest poi: pois) {
+      double[] poiValues = { poi.getPDiff(), poi.getQDiff() };
+      if (Math.abs(poi.getMinute() - minute) < distance
+          && Utils.percentageEuclideanDistance(values, poiValues) < Constants.REF_THRESHOLD) {
+        distance = Math.abs(poi.getMinute() - minute);
+        result = poi;
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * This function is used for estimating the autocorrelation of a series for
+   * all the lags, using the Fast Fourier Transform of the series padded with
+   * zeros to avoid the circular overlap.
+   *
+   * @param series
+   *          The series of values.
+   * @return the autocorrelation of each lag.
+   */
+  public static double[] autocorrelation (double[] series)
+  {
+    int size = 1;
+    while (size < 2 * series.length)
+      size <<= 1;
+
+    double[] real = Arrays.copyOf(series, size);
+    double[] imaginary = new double[size];
+
+    fft(real, imaginary, false);
+
+    for (int i = 0; i < size; i++) {
+      real[i] = real[i] * real[i] + imaginary[i] * imaginary[i];
+      imaginary[i] = 0;
+    }
+
+    fft(real, imaginary, true);
+
+    return Arrays.copyOf(real, series.length);
+  }
+
+  /**
+   * This is an auxiliary function computing the (inverse) Fast Fourier
+   * Transform of a series of a length that is a power of two in place, with
+   * the iterative radix-2 algorithm.
+   */
+  private static void fft (double[] real, double[] imaginary, boolean inverse)
+  {
+    int n = real.length;
+
+    for (int i = 1, j = 0; i < n; i++) {
+      int bit = n >> 1;
+      for (; (j & bit) != 0; bit >>= 1)
+        j ^= bit;
+      j ^= bit;
+
+      if (i < j) {
+        double temp = real[i];
+        real[i] = real[j];
+        real[j] = temp;
+        temp = imaginary[i];
+        imaginary[i] = imaginary[j];
+        imaginary[j] = temp;
+      }
+    }
+
+    for (int length = 2; length <= n; length <<= 1) {
+      double angle = 2 * Math.PI / length * (inverse ? 1 : -1);
+      double stepReal = Math.cos(angle);
+      double stepImaginary = Math.sin(angle);
+
+      for (int i = 0; i < n; i += length) {
+        double wReal = 1, wImaginary = 0;
+
+        for (int j = 0; j < length / 2; j++) {
+          int a = i + j, b = i + j + length / 2;
+          double uReal = real[a], uImaginary = imaginary[a];
+          double vReal = real[b] * wReal - imaginary[b] * wImaginary;
+          double vImaginary = real[b] * wImaginary + imaginary[b] * wReal;
+
+          real[a] = uReal + vReal;
+          imaginary[a] = uImaginary + vImaginary;
+          real[b] = uReal - vReal;
+          imaginary[b] = uImaginary - vImaginary;
+
+          double temp = wReal * stepReal - wImaginary * stepImaginary;
+          wImaginary = wReal * stepImaginary + wImaginary * stepReal;
+          wReal = temp;
+        }
+      }
+    }
+
+    if (inverse)
+      for (int i = 0; i < n; i++) {
+        real[i] /= n;
+        imaginary[i] /= n;
+      }
+  }
+
+  private static double median (double[] values)
+  {
+    double[] sorted = values.clone();
+    Arrays.sort(sorted);
+
+    if (sorted.length % 2 == 1)
+      return sorted[sorted.length / 2];
+    else
+      return (sorted[sorted.length / 2 - 1] + sorted[sorted.length / 2]) / 2;
+  }
+
+  /**
+   * This function shows if the detection is confident enough for the
+   * refrigerator to be set without the clustering of the isolated events.
+   */
+  public boolean isConfident ()
+  {
+    return period != -1 && step != null && activations.size() > 0
+           && confidence >= Constants.SPECTRAL_MIN_CONFIDENCE;
+  }
+
+  public int getPeriod ()
+  {
+    return period;
+  }
+
+  public double getDutyCycle ()
+  {
+    return dutyCycle;
+  }
+
+  public double[] getStep ()
+  {
+    return step;
+  }
+
+  public double getConfidence ()
+  {
+    return confidence;
+  }
+
+  public ArrayList<int[]> getActivations ()
+  {
+    return activations;
+  }
+
+  /**
+   * This function is used to present the results of the detection on the
+   * console.
+   */
+  public void status ()
+  {
+    log.info("Period: " + period + " Autocorrelation: " + correlation);
+    log.info("Step: " + Arrays.toString(step) + " Duty Cycle: " + dutyCycle);
+    log.info("Activations: " + activations.size() + " Confidence: "
+             + confidence + " Confident: " + isConfident());
+  }
+}
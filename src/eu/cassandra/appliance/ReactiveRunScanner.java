@@ -0,0 +1,188 @@
+/*
+Copyright 2011-2013 The Cassandra Consortium (cassandra-fp7.eu)
+
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package eu.cassandra.appliance;
+
+import java.util.Arrays;
+
+import eu.cassandra.event.Event;
+import eu.cassandra.utils.ConsecutiveValues;
+import eu.cassandra.utils.Constants;
+
+/**
+ * This class is used during the washing machine identification procedure for
+ * finding the group of consecutive minutes with positive reactive power that
+ * has the largest reactive power in an event. The measurements of the event are
+ * scanned once, without copying them, keeping only running statistics of the
+ * group under construction and of the best group found so far. The reactive
+ * power of the refrigerator activations of the event is subtracted on the fly.
+ * Only the measurements of the winning group are copied, in order to create
+ * its consecutive values object.
+ */
+class ReactiveRunScanner
+{
+
+  private final double[] activePower;
+
+  private final double[] reactivePower;
+
+  /**
+   * These variables contain the start (inclusive) and end (exclusive) minutes
+   * (from the start of the event) of the refrigerator activations.
+   */
+  private final int[] refStarts;
+
+  private final int[] refEnds;
+
+  /**
+   * This variable contains the mean reactive power of the refrigerator.
+   */
+  private final double refReactive;
+
+  /**
+   * The constructor of a reactive run scanner.
+   *
+   * @param event
+   *          The event under consideration.
+   * @param refPoints
+   *          The activations of the refrigerator, or null if the refrigerator
+   *          load must not be removed.
+   * @param refReactive
+   *          The mean reactive power of the refrigerator.
+   */
+  ReactiveRunScanner (Event event, ActivationStore refPoints,
+                      double refReactive)
+  {
+    activePower = event.getActivePowerConsumptions();
+    reactivePower = event.getReactivePowerConsumptions();
+    this.refReactive = refReactive;
+
+    if (refPoints != null && refPoints.contains(event.getId())) {
+      int first = refPoints.first(event.getId());
+      int last = refPoints.last(event.getId());
+      int offset = event.getStartMinute();
+
+      refStarts = new int[last - first];
+      refEnds = new int[last - first];
+
+      for (int r = first; r < last; r++) {
+        refStarts[r - first] = refPoints.getStart(r) - offset;
+        refEnds[r - first] = refPoints.getEnd(r) - offset;
+      }
+    }
+    else {
+      refStarts = new int[0];
+      refEnds = new int[0];
+    }
+  }
+
+  /**
+   * This function returns the reactive power of a minute after removing the
+   * refrigerator load.
+   */
+  private double reactive (int minute)
+  {
+    double result = reactivePower[minute];
+
+    for (int r = 0; r < refStarts.length; r++)
+      if (refStarts[r] <= minute && minute < refEnds[r])
+        result -= refReactive;
+
+    return result;
+  }
+
+  /**
+   * This function is used for scanning the event. A group starts at a minute
+   * with positive reactive power and ends before a minute with non positive
+   * reactive power, unless there is a positive value within the merging limit
+   * after it. Groups that have not ended by the end of the event are not
+   * taken into consideration. The maximum reactive power of each group is
+   * estimated in the same way as the consecutive values do.
+   *
+   * @return the group with the largest reactive power, or null if there is no
+   *         group.
+   */
+  ConsecutiveValues findWinner ()
+  {
+    int length = reactivePower.length;
+    int start = -1, bestStart = -1, bestEnd = -1;
+    double maxQ = 0, bestQ = Double.NEGATIVE_INFINITY;
+    double previousP = 0, previousQ = 0, previousValue = 0;
+    boolean startFlag = false;
+
+    for (int j = 0; j < length; j++) {
+
+      double q = reactive(j);
+
+      if (q > 0 && !startFlag) {
+        start = j;
+        startFlag = true;
+        maxQ = Double.NEGATIVE_INFINITY;
+      }
+      else if (q <= 0 && startFlag) {
+
+        boolean flag = true;
+        int endIndex =
+          Math.min(j + Constants.WASHING_MACHINE_MERGING_MINUTE_LIMIT, length);
+
+        for (int k = j + 1; k < endIndex; k++)
+          if (reactive(k) > 0) {
+            flag = false;
+            break;
+          }
+
+        // End the current group, keeping it in case it is the best so far.
+        if (flag) {
+          if (bestQ < maxQ) {
+            bestQ = maxQ;
+            bestStart = start;
+            bestEnd = j - 1;
+          }
+          startFlag = false;
+          continue;
+        }
+      }
+      else if (!startFlag)
+        continue;
+
+      // The reactive power keeps its previous value when it changes in the
+      // opposite direction of the active power.
+      double value = q;
+      if (j > start
+          && (activePower[j] - previousP) * (q - previousQ) < 0)
+        value = previousValue;
+
+      if (maxQ < value)
+        maxQ = value;
+
+      previousP = activePower[j];
+      previousQ = q;
+      previousValue = value;
+    }
+
+    if (bestStart == -1)
+      return null;
+
+    double[] pValues = Arrays.copyOfRange(activePower, bestStart, bestEnd + 1);
+    double[] qValues = new double[bestEnd - bestStart + 1];
+
+    for (int j = bestStart; j <= bestEnd; j++)
+      qValues[j - bestStart] = reactive(j);
+
+    return new ConsecutiveValues(bestStart, bestEnd, pValues, qValues);
+  }
+}
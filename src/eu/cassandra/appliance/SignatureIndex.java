@@ -0,0 +1,210 @@
+/*
+Copyright 2011-2013 The Cassandra Consortium (cassandra-fp7.eu)
+
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package eu.cassandra.appliance;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * This class is a grid index of the rising or the reduction points of the
+ * activations of an appliance over their active and reactive power
+ * difference, used for finding if a point of interest is within a percentage
+ * euclidean distance threshold from any of them. A reference point r is within
+ * the threshold t (as a fraction) of a point x only if |x - r| < t |r| and
+ * therefore only if |x - r| < t |x| / (1 - t), so only the cells within this
+ * radius from x are examined. The cells are sized as the threshold of the
+ * mean reference point, which is the radius of the points close to the
+ * appliance.
+ */
+class SignatureIndex
+{
+
+  /**
+   * This variable contains the activations whose points are indexed.
+   */
+  private final ActivationStore store;
+
+  private final boolean rising;
+
+  /**
+   * This variable contains the percentage threshold.
+   */
+  private final double percentage;
+
+  /**
+   * This variable contains the threshold as a fraction.
+   */
+  private final double threshold;
+
+  private double cellSize = 1;
+
+  /**
+   * This variable contains the positions in the store of the points of each
+   * cell.
+   */
+  private final Map<Long, ArrayList<Integer>> cells =
+    new HashMap<Long, ArrayList<Integer>>();
+
+  private int indexed = 0;
+
+  /**
+   * The constructor of a signature index.
+   *
+   * @param store
+   *          The activations of the appliance.
+   * @param rising
+   *          The flag that shows if the rising or the reduction points are
+   *          indexed.
+   * @param threshold
+   *          The percentage euclidean distance threshold.
+   */
+  SignatureIndex (ActivationStore store, boolean rising, double threshold)
+  {
+    this.store = store;
+    this.rising = rising;
+    this.percentage = threshold;
+    this.threshold = threshold / 100;
+
+    double lengthSum = 0;
+    int lengths = 0;
+
+    for (int i = 0; i < store.size(); i++)
+      if (isValid(length(i))) {
+        lengthSum += length(i);
+        lengths++;
+      }
+
+    if (lengths > 0 && this.threshold * lengthSum / lengths > 1)
+      cellSize = this.threshold * lengthSum / lengths;
+
+    for (int i = 0; i < store.size(); i++) {
+      // Points of zero length (or invalid values) are never within any
+      // threshold.
+      if (!isValid(length(i)))
+        continue;
+
+      Long key = key(cell(pDiff(i)), cell(qDiff(i)));
+      if (!cells.containsKey(key))
+        cells.put(key, new ArrayList<Integer>());
+      cells.get(key).add(i);
+      indexed++;
+    }
+  }
+
+  /**
+   * This function shows if a point of interest is within the threshold from
+   * any of the indexed points. The result is the same as comparing the point
+   * with each of the indexed points.
+   *
+   * @param means
+   *          The active and reactive power difference of the point of
+   *          interest.
+   * @return true if there is such a point, false otherwise.
+   */
+  boolean matches (double[] means)
+  {
+    if (indexed == 0)
+      return false;
+
+    // In case the threshold is not smaller than the points themselves, the
+    // radius is not bounded and all the points are examined.
+    if (threshold >= 1)
+      return scan(means);
+
+    double radius =
+      threshold * Math.sqrt(means[0] * means[0] + means[1] * means[1])
+              / (1 - threshold);
+    radius = radius * (1 + 1e-9) + 1e-9;
+
+    if (Double.isNaN(radius) || Double.isInfinite(radius))
+      return scan(means);
+
+    long minX = cell(means[0] - radius);
+    long maxX = cell(means[0] + radius);
+    long minY = cell(means[1] - radius);
+    long maxY = cell(means[1] + radius);
+
+    // In case the area covers more cells than the points, all the points are
+    // examined instead.
+    if ((double) (maxX - minX + 1) * (maxY - minY + 1) > indexed)
+      return scan(means);
+
+    for (long x = minX; x <= maxX; x++)
+      for (long y = minY; y <= maxY; y++) {
+        ArrayList<Integer> cell = cells.get(key(x, y));
+        if (cell != null)
+          for (Integer i: cell)
+            if (distance(i, means) < percentage)
+              return true;
+      }
+
+    return false;
+  }
+
+  /**
+   * This is an auxiliary function comparing a point of interest with each of
+   * the indexed points.
+   */
+  private boolean scan (double[] means)
+  {
+    for (int i = 0; i < store.size(); i++)
+      if (distance(i, means) < percentage)
+        return true;
+
+    return false;
+  }
+
+  private double distance (int i, double[] means)
+  {
+    if (rising)
+      return store.risingPercentageDistance(i, means);
+    else
+      return store.reductionPercentageDistance(i, means);
+  }
+
+  private double pDiff (int i)
+  {
+    return rising ? store.getRisingPDiff(i) : store.getReductionPDiff(i);
+  }
+
+  private double qDiff (int i)
+  {
+    return rising ? store.getRisingQDiff(i) : store.getReductionQDiff(i);
+  }
+
+  private double length (int i)
+  {
+    return Math.sqrt(pDiff(i) * pDiff(i) + qDiff(i) * qDiff(i));
+  }
+
+  private static boolean isValid (double length)
+  {
+    return length != 0 && !Double.isNaN(length) && !Double.isInfinite(length);
+  }
+
+  private long cell (double value)
+  {
+    return (long) Math.floor(value / cellSize);
+  }
+
+  private static Long key (long x, long y)
+  {
+    return (x << 32) ^ (y & 0xffffffffL);
+  }
+}
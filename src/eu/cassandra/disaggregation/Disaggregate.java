@@ -31,14 +31,22 @@ import java.util.Properties;
 
 import org.apache.log4j.Logger;
 
+import eu.cassandra.appliance.ActivationStore;
 import eu.cassandra.appliance.Appliance;
 import eu.cassandra.appliance.ApplianceIdentifier;
+import eu.cassandra.appliance.ApplianceLibrary;
+import eu.cassandra.appliance.FleetSignatureIndex;
 import eu.cassandra.appliance.IsolatedEventsExtractor;
+import eu.cassandra.appliance.PeriodicLoadDetector;
 import eu.cassandra.event.Event;
 import eu.cassandra.event.EventDetector;
+import eu.cassandra.utils.ApproximateSolver;
 import eu.cassandra.utils.Constants;
-import eu.cassandra.utils.PointOfInterest;
+import eu.cassandra.utils.LinearSolution;
+import eu.cassandra.utils.NativeResources;
 import eu.cassandra.utils.PowerDatasets;
+import eu.cassandra.utils.SimpleLinearSolution;
+import eu.cassandra.utils.SolverBatch;
 import eu.cassandra.utils.Utils;
 
 /**
@@ -137,10 +145,32 @@ public class Disaggregate
     if (type.equalsIgnoreCase("List"))
       oldApplianceFile = configuration.getProperty("OldApplianceFile");
 
+    String applianceLibrary =
+      configuration.getProperty("ApplianceLibrary", Constants.APPLIANCE_LIBRARY);
+
+    String signatureIndex =
+      configuration.getProperty("SignatureIndex", Constants.SIGNATURE_INDEX);
+
     boolean loose =
       Boolean.parseBoolean(configuration.getProperty("LooseCoupling"));
     boolean fridgeLoose =
       Boolean.parseBoolean(configuration.getProperty("FridgeLooseCoupling"));
+
+    boolean spectralFridge =
+      Boolean.parseBoolean(configuration.getProperty("SpectralFridgeDetection",
+                                                     Boolean.toString(Constants.SPECTRAL_FRIDGE_DETECTION)));
+
+    boolean baseLoadSubtraction =
+      Boolean.parseBoolean(configuration.getProperty("BaseLoadSubtraction",
+                                                     Boolean.toString(Constants.BASE_LOAD_SUBTRACTION)));
+
+    double spectralConfidence =
+      Double.parseDouble(configuration.getProperty("SpectralMinConfidence",
+                                                   Double.toString(Constants.SPECTRAL_MIN_CONFIDENCE)));
+    boolean nativeClustering =
+      Boolean.parseBoolean(configuration.getProperty("NativeClustering",
+                                                     Boolean.toString(Constants.NATIVE_CLUSTERING)));
+
     boolean washingMachineDetection =
       Boolean.parseBoolean(configuration.getProperty("WashingMachineDetection"));
     String temp = configuration.getProperty("CleaningPointsOfInterest");
@@ -163,6 +193,76 @@ public class Disaggregate
     int largeEventThreshold =
       Integer.parseInt(configuration.getProperty("LargeEventThreshold"));
 
+    boolean splitLargeEvents =
+      Boolean.parseBoolean(configuration.getProperty("SplitLargeEvents",
+                                                     Boolean.toString(Constants.SPLIT_LARGE_EVENTS)));
+
+    int splitMaxLength =
+      Integer.parseInt(configuration.getProperty("SplitMaxLength",
+                                                 Integer.toString(Constants.SPLIT_MAX_LENGTH)));
+
+    int splitMaxPoints =
+      Integer.parseInt(configuration.getProperty("SplitMaxPoints",
+                                                 Integer.toString(Constants.SPLIT_MAX_POINTS)));
+
+    long solverTimeLimit =
+      Long.parseLong(configuration.getProperty("SolverTimeLimit",
+                                               Long.toString(Constants.SOLVER_TIME_LIMIT)));
+
+    long solverBranchLimit =
+      Long.parseLong(configuration.getProperty("SolverBranchLimit",
+                                               Long.toString(Constants.SOLVER_BRANCH_LIMIT)));
+
+    String solverType =
+      configuration.getProperty("SolverType", Constants.SOLVER_TYPE);
+
+    int solverThreads =
+      Integer.parseInt(configuration.getProperty("SolverThreads",
+                                                 Integer.toString(Constants.SOLVER_THREADS)));
+
+    int identificationThreads =
+      Integer.parseInt(configuration.getProperty("IdentificationThreads",
+                                                 Integer.toString(Constants.IDENTIFICATION_THREADS)));
+
+    int solutionCacheSize =
+      Integer.parseInt(configuration.getProperty("SolutionCacheSize",
+                                                 Integer.toString(Constants.SOLUTION_CACHE_SIZE)));
+
+    double solutionCacheQuantum =
+      Double.parseDouble(configuration.getProperty("SolutionCacheQuantum",
+                                                   Double.toString(Constants.SOLUTION_CACHE_QUANTUM)));
+
+    int solverBatchSize =
+      Integer.parseInt(configuration.getProperty("SolverBatchSize",
+                                                 Integer.toString(Constants.SOLVER_BATCH_SIZE)));
+
+    String qualityTier =
+      configuration.getProperty("QualityTier", Constants.QUALITY_TIER);
+
+    int qualitySampleRate =
+      Integer.parseInt(configuration.getProperty("QualitySampleRate",
+                                                 Integer.toString(Constants.QUALITY_SAMPLE_RATE)));
+
+    boolean concurrentClusters =
+      Boolean.parseBoolean(configuration.getProperty("ConcurrentClusters",
+                                                     Boolean.toString(Constants.CONCURRENT_CLUSTERS)));
+
+    boolean adaptiveClustering =
+      Boolean.parseBoolean(configuration.getProperty("AdaptiveClustering",
+                                                     Boolean.toString(Constants.ADAPTIVE_CLUSTERING)));
+
+    long adaptiveTimeBudget =
+      Long.parseLong(configuration.getProperty("AdaptiveTimeBudget",
+                                               Long.toString(Constants.ADAPTIVE_TIME_BUDGET)));
+
+    int adaptiveMinPoints =
+      Integer.parseInt(configuration.getProperty("AdaptiveMinPoints",
+                                                 Integer.toString(Constants.ADAPTIVE_MIN_POINTS)));
+
+    int adaptiveMaxPoints =
+      Integer.parseInt(configuration.getProperty("AdaptiveMaxPoints",
+                                                 Integer.toString(Constants.ADAPTIVE_MAX_POINTS)));
+
     boolean cleaning;
     double thres;
     if (temp.equalsIgnoreCase("Automatic")) {
@@ -184,8 +284,15 @@ public class Disaggregate
     log.info("==============CONFIGURATION====================");
     log.info("Appliance Type: " + type);
     log.info("Old Appliance File: " + oldApplianceFile);
+    log.info("Appliance Library: " + applianceLibrary);
+    log.info("Signature Index: " + signatureIndex);
     log.info("Loose Coupling: " + loose);
     log.info("Fridge Loose Coupling: " + fridgeLoose);
+    log.info("Spectral Fridge Detection: " + spectralFridge);
+    log.info("Base Load Subtraction: " + baseLoadSubtraction);
+    if (spectralFridge || baseLoadSubtraction)
+      log.info("Spectral Minimum Confidence: " + spectralConfidence);
+    log.info("Native Clustering: " + nativeClustering);
     log.info("Washing Machine Detection: " + washingMachineDetection);
     log.info("Automatic Cleaning POIs: " + cleaning);
     log.info("Cleaning POIs Threshold: " + thres);
@@ -198,6 +305,26 @@ public class Disaggregate
     log.info("Remove Large Events: " + removeLargeEvents);
     if (removeLargeEvents)
       log.info("Large Events Threshold: " + largeEventThreshold);
+    log.info("Split Large Events: " + splitLargeEvents);
+    if (splitLargeEvents)
+      log.info("Split Maximum Length: " + splitMaxLength + " Maximum Points: "
+               + splitMaxPoints);
+    log.info("Solver Time Limit: " + solverTimeLimit);
+    log.info("Solver Branch Limit: " + solverBranchLimit);
+    log.info("Solver Type: " + solverType);
+    log.info("Solver Threads: " + solverThreads
+             + " Identification Threads: " + identificationThreads);
+    log.info("Solution Cache Size: " + solutionCacheSize + " Quantum: "
+             + solutionCacheQuantum);
+    log.info("Solver Batch Size: " + solverBatchSize);
+    log.info("Quality Tier: " + qualityTier + " Sample Rate: "
+             + qualitySampleRate);
+    log.info("Concurrent Clusters: " + concurrentClusters);
+    log.info("Adaptive Clustering: " + adaptiveClustering);
+    if (adaptiveClustering)
+      log.info("Adaptive Time Budget: " + adaptiveTimeBudget
+               + " Points Per Cluster: " + adaptiveMinPoints + " - "
+               + adaptiveMaxPoints);
     log.info("Clean Dataset: " + cleanDataset);
     log.info("Normalize Dataset: " + normalizeDataset);
 
@@ -206,10 +333,19 @@ public class Disaggregate
 
     Constants.setApplianceType(type, oldApplianceFile);
 
+    Constants.setApplianceLibrary(applianceLibrary);
+    Constants.setSignatureIndex(signatureIndex);
+
     Constants.setClusterAppliances(loose);
 
     Constants.setFridgeCoupling(fridgeLoose);
 
+    Constants.setSpectralFridgeDetection(spectralFridge, spectralConfidence);
+
+    Constants.setBaseLoadSubtraction(baseLoadSubtraction);
+
+    Constants.setNativeClustering(nativeClustering);
+
     Constants.setWashingMachineDetection(washingMachineDetection);
 
     Constants.setCleaningConstants(cleaning, thres);
@@ -231,9 +367,32 @@ public class Disaggregate
 
     Constants.setRemoveLargeEvents(removeLargeEvents);
 
+    Constants.setSolverLimits(solverTimeLimit, solverBranchLimit);
+
+    Constants.setSolverType(solverType);
+
+    Constants.setSolverThreads(solverThreads);
+
+    Constants.setIdentificationThreads(identificationThreads);
+
+    Constants.setSolutionCache(solutionCacheSize, solutionCacheQuantum);
+    SimpleLinearSolution.getCache().setCapacity(Constants.SOLUTION_CACHE_SIZE);
+
+    Constants.setSolverBatchSize(solverBatchSize);
+
+    Constants.setQualityTier(qualityTier, qualitySampleRate);
+
+    Constants.setConcurrentClusters(concurrentClusters);
+
+    Constants.setAdaptiveClustering(adaptiveClustering, adaptiveTimeBudget,
+                                    adaptiveMinPoints, adaptiveMaxPoints);
+
     if (removeLargeEvents)
       Constants.setLargeEventThreshold(largeEventThreshold);
 
+    Constants.setEventSplitting(splitLargeEvents, splitMaxLength,
+                                splitMaxPoints);
+
     initDisaggregation(folder, input, inputPrefix + "ApplianceList.csv",
                        inputPrefix + "ActivityList.csv");
 
@@ -283,22 +442,57 @@ public class Disaggregate
       e.printStackTrace();
     }
 
-    Constants.setThreshold(data.getActivePower());
+    // The refrigerator may be detected as a periodic load directly on the
+    // measurements and subtracted from them before the event detection.
+    PeriodicLoadDetector pld = null;
+
+    if (Constants.SPECTRAL_FRIDGE_DETECTION || Constants.BASE_LOAD_SUBTRACTION) {
+      pld =
+        new PeriodicLoadDetector(data.getActivePower(), data.getReactivePower());
+      pld.status();
+
+      if (!pld.isConfident())
+        pld = null;
+    }
+
+    double[] activePower = data.getActivePower();
+    double[] reactivePower = data.getReactivePower();
+    boolean subtracted = Constants.BASE_LOAD_SUBTRACTION && pld != null;
+
+    if (subtracted) {
+      double[][] residual = pld.subtract(activePower, reactivePower);
+      activePower = residual[0];
+      reactivePower = residual[1];
+    }
+
+    Constants.setThreshold(activePower);
 
     // Initialize the auxiliary variables
     EventDetector ed = new EventDetector();
 
     File oldAppliancesFile = new File(Constants.OLD_APPLIANCE_FILE);
+    ApplianceLibrary library = null;
 
-    if (Constants.APPLIANCE_TYPE.equalsIgnoreCase("List")
-        && oldAppliancesFile.exists())
+    // The trained models of the appliance library take precedence over the
+    // appliance file.
+    if (!Constants.APPLIANCE_LIBRARY.isEmpty()) {
+      library = new ApplianceLibrary(Constants.APPLIANCE_LIBRARY);
+      ai = new ApplianceIdentifier(library);
+    }
+    else if (Constants.APPLIANCE_TYPE.equalsIgnoreCase("List")
+             && oldAppliancesFile.exists())
       ai = new ApplianceIdentifier(Constants.OLD_APPLIANCE_FILE);
     else
       ai = new ApplianceIdentifier();
 
+    // The signature index is mapped once and shared by all the runs.
+    if (!Constants.SIGNATURE_INDEX.isEmpty()
+        && new File(Constants.SIGNATURE_INDEX).exists())
+      ai.setSignatureIndex(FleetSignatureIndex.load(Constants.SIGNATURE_INDEX));
+
     // Run the event detector in order to find the possible events in the
     // data
-    events = ed.detectEvents(data.getActivePower(), data.getReactivePower());
+    events = ed.detectEvents(activePower, reactivePower);
 
     System.setOut(realSystemOut);
 
@@ -307,19 +501,34 @@ public class Disaggregate
 
     Utils.durationCheck(events);
 
+    // In case the refrigerator has been detected as a periodic load, the
+    // clustering of the isolated events is not needed for it.
+    Appliance spectralRef = null;
+
+    if (subtracted)
+      spectralRef = pld.createRefrigerator();
+    else if (pld != null)
+      spectralRef = pld.createRefrigerator(events);
+
     // The Isolated Appliance Extractor helps the procedure of finding the
     // refrigerator and washing machine amongst others.
-    iso = new IsolatedEventsExtractor(events);
+    iso =
+      new IsolatedEventsExtractor(events, spectralRef == null
+                                          && Constants.REF_LOOSE_COUPLING == false,
+                                  library);
 
     System.setOut(printOut);
 
+    if (spectralRef != null)
+      ai.getApplianceList().add(0, spectralRef);
+
     if (iso.getIsolatedEvents().size() != 0)
       ai.appliancesFromIsolated(iso);
 
     // Setting the refrigerator
     if (ai.getApplianceList().size() > 0) {
 
-      if (Constants.REF_LOOSE_COUPLING) {
+      if (Constants.REF_LOOSE_COUPLING && spectralRef == null) {
 
         Collections.sort(ai.getApplianceList(), Constants.comp6);
 
@@ -368,9 +577,21 @@ public class Disaggregate
     log.info("");
     log.info("===============DISAGGREGATION SECOND PHASE================");
 
+    // In case batches are enabled, the integer programming problems of the
+    // events with few points of interest are solved together after the
+    // combinations of all the events are prepared. Otherwise each event is
+    // analysed as soon as its combinations are found.
+    SolverBatch batch = null;
+    if (Constants.SOLVER_BATCH_SIZE > 0)
+      batch = new SolverBatch();
+
+    boolean[] combined = new boolean[events.size()];
+
     // For each event an analysis is at hand helping to separate the
     // different consumption models and identify their results
-    for (Event event: events) {
+    for (int i = 0; i < events.size(); i++) {
+
+      Event event = events.get(i);
 
       boolean riseFlag = (event.getRisingPoints().size() != 0);
       boolean reductionFlag = (event.getReductionPoints().size() != 0);
@@ -400,25 +621,55 @@ public class Disaggregate
           event.detectMatchingPoints(false);
 
         if (event.getRisingPoints().size() > 0
-            && event.getReductionPoints().size() > 0)
-          event.findCombinations(false);
+            && event.getReductionPoints().size() > 0) {
+          if (batch == null)
+            event.findCombinations(false);
+          else {
+            event.prepareCombinations(false, batch);
+            combined[i] = true;
+          }
+        }
       }
 
-      event.status2();
-      if (ai.getApplianceList().get(0).getMatchingPoints(event.getId()) != null) {
-        System.out.println("Fridge Points: ");
-        for (PointOfInterest[] pois: ai.getApplianceList().get(0)
-                .getMatchingPoints(event.getId()))
-          System.out.println(Arrays.toString(pois));
-      }
+      if (batch == null)
+        analyseEvent(event, ai);
+    }
+
+    // In case of batches, the events are analysed after all the problems are
+    // solved.
+    if (batch != null) {
+      log.info("Batched Problems: " + batch.size());
+      batch.solve();
+
+      for (int i = 0; i < events.size(); i++) {
 
-      event.calculateFinalPairs();
-      if (event.getFinalPairs().size() > 0)
-        ai.analyseEvent(event, false);
+        Event event = events.get(i);
+
+        if (combined[i]) {
+          log.info("");
+          log.info("Combinations of Event: " + event.getId());
+          event.completeCombinations(false);
+        }
 
+        analyseEvent(event, ai);
+      }
     }
 
+    // The activations split by the cuts of oversized events are joined again.
+    if (ed.getCuts().size() > 0)
+      ai.stitchActivations(ed.getCuts());
+
+    SimpleLinearSolution.getCache().status();
+    LinearSolution.getController().status();
+    ApproximateSolver.status();
+    NativeResources.status();
+
     ai.createDisaggregationFiles(outputAppliance, outputActivity, events);
+
+    if (library != null) {
+      library.update(ai.getApplianceList());
+      library.save(Constants.APPLIANCE_LIBRARY);
+    }
     output.close();
     System.setOut(realSystemOut);
 
@@ -430,6 +681,33 @@ public class Disaggregate
 
   }
 
+  /**
+   * This function is used for analysing an event after its combinations are
+   * found, in order to extract the final pairs of points of interest and
+   * assign them to appliances.
+   * 
+   * @param event
+   *          The event under examination.
+   * @param ai
+   *          The appliance identifier.
+   */
+  private void analyseEvent (Event event, ApplianceIdentifier ai)
+  {
+    event.status2();
+    ActivationStore fridgePoints =
+      ai.getApplianceList().get(0).getMatchingPoints();
+    if (fridgePoints != null && fridgePoints.contains(event.getId())) {
+      System.out.println("Fridge Points: ");
+      for (int j = fridgePoints.first(event.getId()); j < fridgePoints
+              .last(event.getId()); j++)
+        System.out.println(fridgePoints.toString(j));
+    }
+
+    event.calculateFinalPairs();
+    if (event.getFinalPairs().size() > 0)
+      ai.analyseEvent(event, false);
+  }
+
   private void clearAll ()
   {
     if (events != null)
@@ -439,6 +717,9 @@ public class Disaggregate
     if (iso != null)
       iso.clear();
     Constants.clear();
+    SimpleLinearSolution.getCache().clear();
+    LinearSolution.getController().clear();
+    ApproximateSolver.clear();
     // Utils.cleanFiles();
   }
 
@@ -0,0 +1,295 @@
+/*
+Copyright 2011-2013 The Cassandra Consortium (cassandra-fp7.eu)
+
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package eu.cassandra.disaggregation;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import eu.cassandra.event.Event;
+import eu.cassandra.event.EventDetector;
+import eu.cassandra.utils.Constants;
+import eu.cassandra.utils.LinearSolution;
+import eu.cassandra.utils.MixedIntegerSolver;
+import eu.cassandra.utils.PointOfInterest;
+import eu.cassandra.utils.PowerDatasets;
+import eu.cassandra.utils.SolverBatch;
+import eu.cassandra.utils.SolverBudget;
+
+/**
+ * This class is used for comparing the constraint programming and the mixed
+ * integer solvers on the events of the data sets in the DataFiles folder. For
+ * each event with few enough points of interest, the same partial solution
+ * problem is given to both solvers and their time and objective are compared.
+ * The problems of the events with few points of interest are also solved in a
+ * batch of shared solver sessions, in order to compare its throughput with
+ * solving each problem with its own solver. The benchmark needs the native
+ * libraries of OR-tools and has not been run yet, so there are no results on
+ * which of the solvers is better.
+ */
+public class SolverBenchmark
+{
+
+  /**
+   * This variable is the number of problems solved by both solvers.
+   */
+  private int problems = 0;
+
+  /**
+   * This variable is the number of problems where the two solvers reached
+   * solutions of the same similarity.
+   */
+  private int equal = 0;
+
+  /**
+   * This variable is the number of problems where the constraint programming
+   * solver reached a better solution.
+   */
+  private int constraintBetter = 0;
+
+  /**
+   * This variable is the number of problems where the mixed integer solver
+   * reached a better solution.
+   */
+  private int mixedBetter = 0;
+
+  /**
+   * This variable is the overall time (in nanoseconds) of the constraint
+   * programming solver.
+   */
+  private long constraintTime = 0;
+
+  /**
+   * This variable is the overall time (in nanoseconds) of the mixed integer
+   * solver.
+   */
+  private long mixedTime = 0;
+
+  /**
+   * This constant is the batch size used in case the batches are disabled in
+   * the configuration.
+   */
+  private static final int BENCHMARK_BATCH_SIZE = 32;
+
+  /**
+   * This variable is the number of problems of the events with few points of
+   * interest.
+   */
+  private int smallProblems = 0;
+
+  /**
+   * This variable is the overall time (in nanoseconds) of the constraint
+   * programming solver for the problems of the events with few points of
+   * interest, each solved with its own solver.
+   */
+  private long individualTime = 0;
+
+  /**
+   * This variable is the overall time (in nanoseconds) of solving the same
+   * problems in batches.
+   */
+  private long batchTime = 0;
+
+  /**
+   * This function is used for running the benchmark on the events of a data
+   * set.
+   *
+   * @param filename
+   *          The file name of the consumption measurements of an installation.
+   * @throws Exception
+   */
+  public void benchmark (String filename) throws Exception
+  {
+    PowerDatasets data = new PowerDatasets(filename, false);
+
+    Constants.setThreshold(data.getActivePower());
+
+    EventDetector ed = new EventDetector();
+
+    ArrayList<Event> events =
+      ed.detectEvents(data.getActivePower(), data.getReactivePower());
+
+    SolverBatch batch = new SolverBatch();
+
+    for (Event event: events) {
+
+      if (event.getRisingPoints().size() == 0
+          || event.getReductionPoints().size() == 0)
+        continue;
+
+      event.detectSwitchingPoints(true);
+
+      if (event.getRisingPoints().size() > 0
+          && event.getReductionPoints().size() > 0)
+        event.detectClusters(true);
+
+      if (event.getRisingPoints().size() > 0
+          && event.getReductionPoints().size() > 0)
+        event.detectBasicShapes(true);
+
+      if (event.getRisingPoints().size() > 0
+          && event.getReductionPoints().size() > 0)
+        event.detectMatchingPoints(true);
+
+      if (event.getRisingPoints().size() == 0
+          || event.getReductionPoints().size() == 0)
+        continue;
+
+      ArrayList<PointOfInterest> temp =
+        new ArrayList<PointOfInterest>(event.getRisingPoints());
+      temp.addAll(event.getReductionPoints());
+      Collections.sort(temp, Constants.comp);
+
+      if (temp.size() >= Constants.MAX_POINTS_OF_INTEREST)
+        continue;
+
+      compare(temp, batch);
+    }
+
+    if (batch.size() > 0) {
+      int batchSize = Constants.SOLVER_BATCH_SIZE;
+      if (batchSize == 0)
+        Constants.setSolverBatchSize(BENCHMARK_BATCH_SIZE);
+
+      long start = System.nanoTime();
+      batch.solve();
+      batchTime += System.nanoTime() - start;
+
+      Constants.setSolverBatchSize(batchSize);
+    }
+
+    Constants.clear();
+  }
+
+  /**
+   * This function is used for solving the partial solution problem of a list
+   * of points of interest with both solvers. In case of few points of
+   * interest, the problem is also added to the batch.
+   *
+   * @param temp
+   *          The list of points of interest.
+   * @param batch
+   *          The batch of the problems of the data set.
+   */
+  private void compare (ArrayList<PointOfInterest> temp, SolverBatch batch)
+  {
+    Map<int[], Double> input =
+      LinearSolution.findCombinations(temp,
+                                      new int[] { LinearSolution
+                                              .distanceThreshold(false, false) })
+              .get(0);
+
+    LinearSolution.removeDominatedCombinations(input);
+
+    if (input.size() == 0)
+      return;
+
+    int[][] symmetries = LinearSolution.findSymmetricPoints(temp, input);
+
+    double[] cost = new double[input.size()];
+    int[][] tempArray = new int[input.size()][temp.size()];
+    int counter = 0;
+    for (int[] in: input.keySet()) {
+      tempArray[counter] = in;
+      cost[counter++] = input.get(in);
+    }
+
+    long start = System.nanoTime();
+    ArrayList<Integer> constraint =
+      LinearSolution.solve2(tempArray, cost, symmetries, true,
+                            new SolverBudget());
+    long elapsed = System.nanoTime() - start;
+    constraintTime += elapsed;
+
+    if (temp.size() <= Constants.BATCH_MAX_POINTS) {
+      individualTime += elapsed;
+      smallProblems++;
+      batch.add(tempArray, cost, symmetries, false, new SolverBudget());
+    }
+
+    start = System.nanoTime();
+    ArrayList<Integer> mixed =
+      MixedIntegerSolver.solve(tempArray, cost, false, true,
+                               new SolverBudget());
+    mixedTime += System.nanoTime() - start;
+
+    double constraintValue = similarity(constraint, cost);
+    double mixedValue = similarity(mixed, cost);
+
+    problems++;
+
+    if (Math.abs(constraintValue - mixedValue) < Constants.NEAR_ZERO)
+      equal++;
+    else if (constraintValue > mixedValue)
+      constraintBetter++;
+    else
+      mixedBetter++;
+  }
+
+  /**
+   * This is an auxiliary function returning the overall similarity of a
+   * solution.
+   */
+  private static double similarity (ArrayList<Integer> solution, double[] cost)
+  {
+    double result = 0;
+
+    for (Integer index: solution)
+      result += cost[index];
+
+    return result;
+  }
+
+  public void status ()
+  {
+    System.out.println("Problems: " + problems);
+    System.out.println("Equal Solutions: " + equal
+                       + " Constraint Programming Better: " + constraintBetter
+                       + " Mixed Integer Better: " + mixedBetter);
+    System.out.println("Constraint Programming Time: " + constraintTime
+                       / 1000000 + "ms");
+    System.out.println("Mixed Integer Time: " + mixedTime / 1000000 + "ms");
+    System.out.println("Small Problems: " + smallProblems
+                       + " Individual Solvers Time: " + individualTime
+                       / 1000000 + "ms Batch Time: " + batchTime / 1000000
+                       + "ms");
+  }
+
+  public static void main (String[] args) throws Exception
+  {
+    File folder = new File("DataFiles/");
+    String path = folder.getPath() + "/";
+    String[] datasets = folder.list();
+    System.out.println(path);
+    System.out.println(Arrays.toString(datasets));
+
+    SolverBenchmark benchmark = new SolverBenchmark();
+
+    for (int i = 0; i < datasets.length; i++) {
+
+      System.out.println("File:" + datasets[i]);
+
+      benchmark.benchmark(path + datasets[i]);
+
+      benchmark.status();
+    }
+
+  }
+}
@@ -27,8 +27,11 @@ import org.apache.log4j.Logger;
 
 import eu.cassandra.utils.ComplexLinearSolution;
 import eu.cassandra.utils.Constants;
+import eu.cassandra.utils.LinearSolution;
 import eu.cassandra.utils.PointOfInterest;
 import eu.cassandra.utils.SimpleLinearSolution;
+import eu.cassandra.utils.SolverBatch;
+import eu.cassandra.utils.SolverBudget;
 import eu.cassandra.utils.Utils;
 
 /**
@@ -185,6 +188,24 @@ public class Event
   private final ArrayList<PointOfInterest[]> finalPairs =
     new ArrayList<PointOfInterest[]>();
 
+  /**
+   * This variable is the list of the points of interest given to the
+   * combinations procedure, in chronological order.
+   */
+  private ArrayList<PointOfInterest> combinationPoints = null;
+
+  /**
+   * This variable is the solution of the combinations procedure, in case it
+   * waits for a batch of problems to be solved.
+   */
+  private SimpleLinearSolution pendingSolution = null;
+
+  /**
+   * This variable is the time and branch budget of the integer programming
+   * searches of the combinations procedure.
+   */
+  private SolverBudget budget = null;
+
   /**
    * A constructor of an event in the measurements used in case we know most of
    * the input variables.
@@ -1915,6 +1936,28 @@ public class Event
    * @throws Exception
    */
   public void findCombinations (boolean isolated) throws Exception
+  {
+    prepareCombinations(isolated, null);
+
+    completeCombinations(isolated);
+  }
+
+  /**
+   * This function is used for the first part of the combinations procedure. In
+   * case a batch is given and the event has few points of interest, the
+   * integer programming problems are only added to the batch and the procedure
+   * is finished by the completeCombinations function after the batch is
+   * solved.
+   * 
+   * @param isolated
+   *          The flag that shows that the event is isolated.
+   * @param batch
+   *          The batch of problems of many events, or null in order to solve
+   *          at once.
+   * @throws Exception
+   */
+  public void prepareCombinations (boolean isolated, SolverBatch batch)
+    throws Exception
   {
     if (!isolated) {
       log.info("");
@@ -1927,6 +1970,8 @@ public class Event
     temp.addAll(reductionPoints);
     Collections.sort(temp, Constants.comp);
 
+    combinationPoints = temp;
+
     if (!isolated) {
       log.info("Points Of Interest: " + temp.size());
       log.info("Rising Points: " + risingPoints.toString());
@@ -1937,52 +1982,45 @@ public class Event
     if (temp.size() > 1 && risingPoints.size() > 0
         && reductionPoints.size() > 0) {
 
-      if (temp.size() < Constants.MAX_POINTS_OF_INTEREST) {
+      // All the integer programming searches of the event share the same time
+      // and branch budget.
+      budget = new SolverBudget();
 
-        SimpleLinearSolution finalSolution =
-          new SimpleLinearSolution(temp, isolated);
+      // The number of points per cluster is chosen based on the time of the
+      // problems solved up to now (the configured one if not adaptive).
+      int clusterSize =
+        LinearSolution.getController().clusterSize(temp.size());
 
-        ArrayList<PointOfInterest[]> extractedPairs =
-          finalSolution.extractFinalPairs();
+      if (temp.size() < clusterSize) {
 
-        if (!isolated)
-          log.info("Extracted Pair Size: " + extractedPairs.size());
+        if (temp.size() > Constants.BATCH_MAX_POINTS)
+          batch = null;
 
-        if (extractedPairs.size() > 0)
-          finalPairs.addAll(extractedPairs);
+        pendingSolution =
+          new SimpleLinearSolution(temp, isolated, budget, batch);
 
       }
       else {
 
-        ComplexLinearSolution complex = null;
-        ComplexLinearSolution finalComplex = null;
-        double previousDistance = Double.POSITIVE_INFINITY;
-
         int init =
-          (int) (Math.ceil((double) temp.size()
-                           / (double) Constants.MAX_POINTS_OF_INTEREST));
+          (int) (Math.ceil((double) temp.size() / (double) clusterSize));
 
         init = Math.max(-2, -init + 1);
 
-        for (int bias = init; bias < 3; bias++) {
+        // All the biases are solved concurrently and the one with the smallest
+        // overall distance is kept.
+        ComplexLinearSolution finalComplex =
+          ComplexLinearSolution.findBestSolution(temp, init, 2, clusterSize,
+                                                 budget);
 
-          complex = new ComplexLinearSolution(temp, bias);
+        LinearSolution.getController()
+                .recordEvent(true, temp.size(),
+                             finalComplex.getOverallNormalizedDistance());
 
-          log.info("Previous Distance: " + previousDistance + " New Distance: "
-                   + complex.getOverallNormalizedDistance());
-
-          if (complex.getOverallNormalizedDistance() < previousDistance) {
-            log.info("Change");
-            finalComplex = complex;
-            previousDistance = complex.getOverallNormalizedDistance();
-          }
-
-          log.info("");
-          log.info("");
-          log.info("");
-          log.info("");
-
-        }
+        log.info("");
+        log.info("");
+        log.info("");
+        log.info("");
 
         ArrayList<PointOfInterest[]> extractedPairs =
           finalComplex.extractFinalPairs();
@@ -2004,6 +2042,45 @@ public class Event
         log.info("No Reduction Points");
 
     }
+  }
+
+  /**
+   * This function is used for finishing the combinations procedure, adding the
+   * pairs of the solution to the final pairs and removing the combined points
+   * of interest.
+   * 
+   * @param isolated
+   *          The flag that shows that the event is isolated.
+   * @throws Exception
+   */
+  public void completeCombinations (boolean isolated) throws Exception
+  {
+    if (pendingSolution != null) {
+
+      pendingSolution.complete();
+
+      LinearSolution.getController()
+              .recordEvent(false, combinationPoints.size(),
+                           pendingSolution.getOverallNormalizedDistance());
+
+      ArrayList<PointOfInterest[]> extractedPairs =
+        pendingSolution.extractFinalPairs();
+
+      if (!isolated)
+        log.info("Extracted Pair Size: " + extractedPairs.size());
+
+      if (extractedPairs.size() > 0)
+        finalPairs.addAll(extractedPairs);
+
+      pendingSolution = null;
+    }
+
+    if (budget != null && budget.isLimitReached())
+      log.warn("Event " + getId() + " reached the solver limits in "
+               + budget.getLimitedSearches() + " searches. Optimality Gap: "
+               + budget.getGap());
+
+    budget = null;
 
     int previousMinuteRise = -1, previousMinuteRed = -1;
 
@@ -2036,7 +2113,9 @@ public class Event
                + " Reduction Points: " + reductionPoints.size());
 
     // Clearing the variables that will not be used again.
-    temp.clear();
+    if (combinationPoints != null)
+      combinationPoints.clear();
+    combinationPoints = null;
     risingPoints.clear();
     reductionPoints.clear();
 
@@ -44,6 +44,11 @@ public class EventDetector
    */
   double eventThreshold = 0;
 
+  /**
+   * This is the splitter of the oversized events.
+   */
+  EventSplitter splitter = new EventSplitter();
+
   /**
    * Simple empty constructor of the Event Detector object
    */
@@ -129,8 +134,15 @@ public class EventDetector
               log.debug("Event: " + (events.size() + 1) + " Start: " + start
                         + " End: " + end + " Duration: " + duration);
 
-              if ((Constants.REMOVE_LARGE_EVENTS && duration < Constants.LARGE_EVENT_THRESHOLD)
-                  || Constants.REMOVE_LARGE_EVENTS == false) {
+              // Oversized events are split into smaller events instead of
+              // being removed or analysed as a whole.
+              if (Constants.SPLIT_LARGE_EVENTS
+                  && splitter.isOversized(activePower, start, end)) {
+                events.addAll(splitter.split(start, end, activePower,
+                                             reactivePower));
+              }
+              else if ((Constants.REMOVE_LARGE_EVENTS && duration < Constants.LARGE_EVENT_THRESHOLD)
+                       || Constants.REMOVE_LARGE_EVENTS == false) {
                 Event temp =
                   new Event(start, end, Arrays.copyOfRange(activePower, start,
                                                            end + 1),
@@ -159,6 +171,17 @@ public class EventDetector
 
   }
 
+  /**
+   * This function is used as a getter for the minutes (from the start of the
+   * data set) where oversized events have been split.
+   * 
+   * @return the list of the cuts.
+   */
+  public ArrayList<Integer> getCuts ()
+  {
+    return splitter.getCuts();
+  }
+
   /**
    * This is an auxiliary function checking if the active power consumption
    * array of an event is large enough to suggest an actual event or not.
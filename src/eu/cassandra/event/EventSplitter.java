@@ -0,0 +1,279 @@
+/*
+Copyright 2011-2013 The Cassandra Consortium (cassandra-fp7.eu)
+
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package eu.cassandra.event;
+
+import java.util.ArrayList;
+
+import org.apache.log4j.Logger;
+
+import eu.cassandra.utils.Constants;
+
+/**
+ * This class is used for splitting the oversized events (too long or with too
+ * many steps of active power) into pieces, each one becoming an event of its
+ * own. The events are cut at stable local minima, where the active power
+ * stays on a plateau, preferring the lowest plateau within the maximum length
+ * of a piece. Each piece before a cut ends and each piece after a cut starts
+ * with one minute of the base load of the original event (its lowest active
+ * power) as context, so that an appliance that is switched on over the cut
+ * ends at the cut in the previous piece and starts at the cut in the next one.
+ * The cuts are kept so that these activations can be stitched together after
+ * the analysis of the events.
+ */
+class EventSplitter
+{
+
+  static Logger log = Logger.getLogger(EventSplitter.class);
+
+  /**
+   * This variable contains the minutes (from the start of the data set) where
+   * events have been cut.
+   */
+  private final ArrayList<Integer> cuts = new ArrayList<Integer>();
+
+  /**
+   * This function shows if an interval of the measurements is too long or
+   * has too many steps of active power to be analysed as a single event.
+   *
+   * @param activePower
+   *          The active power measurements.
+   * @param start
+   *          The start minute of the interval.
+   * @param end
+   *          The end minute of the interval.
+   * @return true if the interval must be split, false otherwise.
+   */
+  boolean isOversized (double[] activePower, int start, int end)
+  {
+    return end - start + 1 > Constants.SPLIT_MAX_LENGTH
+           || countSteps(activePower, start, end) > Constants.SPLIT_MAX_POINTS;
+  }
+
+  /**
+   * This function is used for splitting an interval of the measurements into
+   * events.
+   *
+   * @param start
+   *          The start minute of the interval.
+   * @param end
+   *          The end minute of the interval.
+   * @param activePower
+   *          The active power measurements.
+   * @param reactivePower
+   *          The reactive power measurements.
+   * @return the list of events created from the pieces.
+   */
+  ArrayList<Event> split (int start, int end, double[] activePower,
+                          double[] reactivePower)
+  {
+    ArrayList<Integer> pieceCuts = new ArrayList<Integer>();
+    int minLength = Math.max(2, Constants.SPLIT_MAX_LENGTH / 4);
+    int pieceStart = start;
+
+    while (isOversized(activePower, pieceStart, end)) {
+
+      // The cut must leave room for a piece after it and must not pass the
+      // maximum length or the maximum number of steps of the piece.
+      int last =
+        Math.min(pieceStart + Constants.SPLIT_MAX_LENGTH - 1, end - minLength);
+      last = Math.min(last, stepLimit(activePower, pieceStart, end));
+
+      int first = Math.min(pieceStart + minLength, last);
+
+      if (last <= pieceStart)
+        break;
+
+      int cut = findCut(activePower, first, last);
+      pieceCuts.add(cut);
+      pieceStart = cut;
+    }
+
+    ArrayList<Event> result = new ArrayList<Event>();
+    int base = baseMinute(activePower, start, end);
+    int pieceEnd = -1;
+    pieceStart = start;
+
+    for (int i = 0; i <= pieceCuts.size(); i++) {
+
+      pieceEnd = (i < pieceCuts.size()) ? pieceCuts.get(i) : end;
+
+      // The base load of the event precedes the pieces after a cut and
+      // follows the pieces before a cut as context.
+      int before = (i > 0) ? 1 : 0;
+      int after = (i < pieceCuts.size()) ? 1 : 0;
+      int length = pieceEnd - pieceStart + 1;
+
+      double[] active = new double[before + length + after];
+      double[] reactive = new double[before + length + after];
+
+      System.arraycopy(activePower, pieceStart, active, before, length);
+      System.arraycopy(reactivePower, pieceStart, reactive, before, length);
+
+      if (before == 1) {
+        active[0] = activePower[base];
+        reactive[0] = reactivePower[base];
+      }
+
+      if (after == 1) {
+        active[active.length - 1] = activePower[base];
+        reactive[reactive.length - 1] = reactivePower[base];
+      }
+
+      result.add(new Event(pieceStart - before, pieceEnd + after, active,
+                           reactive));
+
+      pieceStart = pieceEnd;
+    }
+
+    if (pieceCuts.size() > 0)
+      log.info("Start:" + start + " End: " + end + " Split at " + pieceCuts
+               + " into " + result.size() + " Events");
+
+    cuts.addAll(pieceCuts);
+
+    return result;
+  }
+
+  /**
+   * This is an auxiliary function returning the minute of the base load of an
+   * interval, where the active power is the lowest.
+   */
+  private static int baseMinute (double[] activePower, int start, int end)
+  {
+    int result = start;
+
+    for (int i = start + 1; i <= end; i++)
+      if (activePower[i] < activePower[result])
+        result = i;
+
+    return result;
+  }
+
+  /**
+   * This function is used for finding the cut of a piece. Among the minutes
+   * where the active power is on a plateau, the one with the lowest power is
+   * chosen (the latest one in case of ties, for longer pieces). In case there
+   * is no plateau, the minute with the lowest power is chosen.
+   */
+  private int findCut (double[] activePower, int first, int last)
+  {
+    int result = -1, lowest = first;
+
+    for (int i = first; i <= last; i++) {
+
+      if (activePower[i] <= activePower[lowest])
+        lowest = i;
+
+      if (isPlateau(activePower, i)
+          && (result == -1 || activePower[i] <= activePower[result]))
+        result = i;
+    }
+
+    return (result == -1) ? lowest : result;
+  }
+
+  /**
+   * This is an auxiliary function showing if the active power stays within
+   * the plateau tolerance around a minute.
+   */
+  private static boolean isPlateau (double[] activePower, int minute)
+  {
+    int from = Math.max(0, minute - Constants.SPLIT_PLATEAU_LENGTH);
+    int to =
+      Math.min(activePower.length - 1, minute + Constants.SPLIT_PLATEAU_LENGTH);
+
+    double min = activePower[minute], max = activePower[minute];
+
+    for (int i = from; i <= to; i++) {
+      min = Math.min(min, activePower[i]);
+      max = Math.max(max, activePower[i]);
+    }
+
+    return max - min <= Constants.SPLIT_PLATEAU_TOLERANCE;
+  }
+
+  /**
+   * This is an auxiliary function counting the steps of active power of an
+   * interval (merging consecutive changes of the same direction) that are
+   * large enough to become points of interest.
+   */
+  private static int countSteps (double[] activePower, int start, int end)
+  {
+    return stepsUntil(activePower, start, end, Integer.MAX_VALUE)[0];
+  }
+
+  /**
+   * This is an auxiliary function returning the last minute before the steps
+   * of active power from the start of an interval pass the maximum number of
+   * points of a piece.
+   */
+  private static int stepLimit (double[] activePower, int start, int end)
+  {
+    return stepsUntil(activePower, start, end, Constants.SPLIT_MAX_POINTS)[1];
+  }
+
+  /**
+   * This is an auxiliary function counting the steps of an interval until
+   * their number passes a limit, returning the number of steps and the last
+   * minute before the limit was passed.
+   */
+  private static int[] stepsUntil (double[] activePower, int start, int end,
+                                   int limit)
+  {
+    int steps = 0;
+    int i = start + 1;
+
+    while (i <= end) {
+
+      double difference = activePower[i] - activePower[i - 1];
+
+      if (difference == 0) {
+        i++;
+        continue;
+      }
+
+      int from = i - 1;
+      while (i <= end
+             && Math.signum(activePower[i] - activePower[i - 1]) == Math
+                     .signum(difference))
+        i++;
+
+      if (Math.abs(activePower[i - 1] - activePower[from]) >= Constants.CLEANING_POIS_THRESHOLD) {
+        steps++;
+        if (steps > limit) {
+          int[] result = { steps, from };
+          return result;
+        }
+      }
+    }
+
+    int[] result = { steps, end };
+    return result;
+  }
+
+  /**
+   * This function is used as a getter for the minutes where events have been
+   * cut.
+   *
+   * @return the list of the cuts.
+   */
+  ArrayList<Integer> getCuts ()
+  {
+    return cuts;
+  }
+}
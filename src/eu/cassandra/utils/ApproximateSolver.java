@@ -0,0 +1,332 @@
+/*
+Copyright 2011-2013 The Cassandra Consortium (cassandra-fp7.eu)
+
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package eu.cassandra.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+import org.apache.log4j.Logger;
+
+/**
+ * This class is used for solving the integer programming problems of the
+ * events approximately, when the quality tier of the configuration allows it.
+ * The candidate combinations are packed greedily in order of similarity and
+ * the packing is then improved by a local search with a bounded number of
+ * moves, where a candidate is removed or forced in and the freed points are
+ * packed again, in case the overall similarity increases. A sample of the
+ * problems is also solved exactly, in order to report the objective gap of
+ * the approximation.
+ */
+public class ApproximateSolver
+{
+
+  static Logger log = Logger.getLogger(ApproximateSolver.class);
+
+  private static long problems = 0;
+
+  private static long sampled = 0;
+
+  private static double gapSum = 0;
+
+  private static double maxGap = 0;
+
+  /**
+   * This function shows if a problem is solved approximately under the
+   * quality tier of the configuration.
+   *
+   * @param candidates
+   *          The number of candidate combinations of the problem.
+   * @return true if the problem is solved approximately, false otherwise.
+   */
+  public static boolean isApproximate (int candidates)
+  {
+    if (Constants.QUALITY_TIER.equalsIgnoreCase("Fast"))
+      return true;
+
+    if (Constants.QUALITY_TIER.equalsIgnoreCase("Balanced"))
+      return candidates > Constants.BALANCED_MAX_CANDIDATES;
+
+    return false;
+  }
+
+  /**
+   * This function is used for solving a problem approximately, solving it
+   * exactly as well in case it belongs to the sample.
+   *
+   * @param input
+   *          The input array of alternatives.
+   * @param cost
+   *          The cost array of the alternatives.
+   * @param symmetries
+   *          The pairs of equivalent points of interest.
+   * @param exact
+   *          The flag that shows that all the points must be used.
+   * @param isolated
+   *          The flag that shows that the event is isolated.
+   * @return a list of the indexes of the solution alternatives.
+   */
+  public static ArrayList<Integer> solve (int[][] input, double[] cost,
+                                          int[][] symmetries, boolean exact,
+                                          boolean isolated)
+  {
+    ArrayList<Integer> result = localSearch(input, cost, exact);
+
+    boolean sample = false;
+
+    synchronized (ApproximateSolver.class) {
+      problems++;
+      sample =
+        Constants.QUALITY_SAMPLE_RATE > 0
+                && problems % Constants.QUALITY_SAMPLE_RATE == 0;
+    }
+
+    if (sample) {
+      ArrayList<Integer> optimal = null;
+
+      if (exact)
+        optimal = LinearSolution.solve3(input, cost, new SolverBudget());
+      else
+        optimal =
+          LinearSolution.solve2(input, cost, symmetries, true,
+                                new SolverBudget());
+
+      double optimalValue = value(optimal, cost);
+
+      if (optimalValue > 0)
+        recordGap(Math.max(0, (optimalValue - value(result, cost))
+                              / optimalValue));
+    }
+
+    if (!isolated)
+      log.info("Approximate Solution: " + result + " Similarity: "
+               + value(result, cost));
+
+    return result;
+  }
+
+  /**
+   * This function is used for packing the candidates greedily and improving
+   * the packing with a bounded number of local search moves.
+   *
+   * @param input
+   *          The input array of alternatives.
+   * @param cost
+   *          The cost array of the alternatives.
+   * @param exact
+   *          The flag that shows that all the points must be used.
+   * @return a list of the indexes of the solution alternatives.
+   */
+  public static ArrayList<Integer> localSearch (int[][] input, double[] cost,
+                                                boolean exact)
+  {
+    int[] costNew = LinearSolution.scaleCost(cost);
+
+    ArrayList<Integer> greedy =
+      LinearSolution.greedySolution(input, costNew, false);
+
+    int points = input[0].length;
+
+    // The alternative that uses each point, or -1.
+    int[] owner = new int[points];
+    boolean[] selected = new boolean[input.length];
+
+    for (int j = 0; j < points; j++)
+      owner[j] = -1;
+
+    for (Integer index: greedy)
+      select(input, owner, selected, index);
+
+    // In case all the points must be used, the greedy packing is kept if it
+    // uses them, since the moves do not preserve this property.
+    if (exact && covers(owner))
+      return greedy;
+
+    // In case all the points must be used, each used point weighs more than
+    // the similarity of all the candidates, so that the moves aim at using
+    // all the points first.
+    double pointWeight = 0;
+    if (exact)
+      for (int i = 0; i < cost.length; i++)
+        pointWeight += cost[i] + 1;
+
+    int[] order = LinearSolution.similarityOrder(costNew);
+    double current = value(selected, owner, cost, pointWeight);
+    int moves = 0;
+    boolean improved = true;
+
+    // Each move either removes a used alternative or forces an unused one in
+    // (removing the alternatives it conflicts with), and then fills the freed
+    // points again in order of similarity. The move is kept only if the
+    // overall similarity increases.
+    while (improved && moves < Constants.LOCAL_SEARCH_MOVES) {
+      improved = false;
+
+      for (int i: order) {
+
+        if (moves >= Constants.LOCAL_SEARCH_MOVES)
+          break;
+
+        int[] previousOwner = owner.clone();
+        boolean[] previousSelected = selected.clone();
+
+        if (selected[i])
+          deselect(input, owner, selected, i);
+        else {
+          for (int j = 0; j < points; j++)
+            if (input[i][j] == 1 && owner[j] != -1)
+              deselect(input, owner, selected, owner[j]);
+
+          select(input, owner, selected, i);
+        }
+
+        for (int k: order)
+          if (k != i && !selected[k] && fits(input, owner, k))
+            select(input, owner, selected, k);
+
+        double candidate = value(selected, owner, cost, pointWeight);
+
+        moves++;
+
+        if (candidate > current + Constants.NEAR_ZERO) {
+          current = candidate;
+          improved = true;
+        }
+        else {
+          owner = previousOwner;
+          selected = previousSelected;
+        }
+      }
+    }
+
+    ArrayList<Integer> result = new ArrayList<Integer>();
+
+    for (int i = 0; i < input.length; i++)
+      if (selected[i])
+        result.add(i);
+
+    if (exact && !covers(owner))
+      result.clear();
+
+    Collections.sort(result);
+
+    return result;
+  }
+
+  /**
+   * This is an auxiliary function showing if an alternative uses only free
+   * points.
+   */
+  private static boolean fits (int[][] input, int[] owner, int index)
+  {
+    for (int j = 0; j < owner.length; j++)
+      if (input[index][j] == 1 && owner[j] != -1)
+        return false;
+
+    return true;
+  }
+
+  /**
+   * This is an auxiliary function showing if all the points are used.
+   */
+  private static boolean covers (int[] owner)
+  {
+    for (int j = 0; j < owner.length; j++)
+      if (owner[j] == -1)
+        return false;
+
+    return true;
+  }
+
+  private static void select (int[][] input, int[] owner, boolean[] selected,
+                              int index)
+  {
+    selected[index] = true;
+
+    for (int j = 0; j < owner.length; j++)
+      if (input[index][j] == 1)
+        owner[j] = index;
+  }
+
+  private static void deselect (int[][] input, int[] owner,
+                                boolean[] selected, int index)
+  {
+    selected[index] = false;
+
+    for (int j = 0; j < owner.length; j++)
+      if (owner[j] == index)
+        owner[j] = -1;
+  }
+
+  /**
+   * This is an auxiliary function returning the overall similarity of a
+   * solution.
+   */
+  private static double value (ArrayList<Integer> solution, double[] cost)
+  {
+    double result = 0;
+
+    for (Integer index: solution)
+      result += cost[index];
+
+    return result;
+  }
+
+  /**
+   * This is an auxiliary function returning the value of a packing for the
+   * local search, which is the overall similarity plus the weight of each
+   * used point.
+   */
+  private static double value (boolean[] selected, int[] owner,
+                               double[] cost, double pointWeight)
+  {
+    double result = 0;
+
+    for (int i = 0; i < selected.length; i++)
+      if (selected[i])
+        result += cost[i];
+
+    for (int j = 0; j < owner.length; j++)
+      if (owner[j] != -1)
+        result += pointWeight;
+
+    return result;
+  }
+
+  private static synchronized void recordGap (double gap)
+  {
+    sampled++;
+    gapSum += gap;
+    maxGap = Math.max(maxGap, gap);
+  }
+
+  public static synchronized void clear ()
+  {
+    problems = 0;
+    sampled = 0;
+    gapSum = 0;
+    maxGap = 0;
+  }
+
+  public static synchronized void status ()
+  {
+    log.info("Quality Tier: " + Constants.QUALITY_TIER
+             + " Approximate Problems: " + problems + " Sampled: " + sampled
+             + " Average Gap: " + ((sampled == 0) ? 0 : gapSum / sampled)
+             + " Maximum Gap: " + maxGap);
+  }
+}
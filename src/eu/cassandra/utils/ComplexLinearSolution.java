@@ -2,6 +2,14 @@ package eu.cassandra.utils;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.log4j.Logger;
 
@@ -21,6 +29,41 @@ public class ComplexLinearSolution
   private ArrayList<PointOfInterest> remainingPoints =
     new ArrayList<PointOfInterest>();
 
+  /**
+   * This variable is the bias used for the number of clusters.
+   */
+  private int bias = 0;
+
+  /**
+   * This variable shows if the procedure was stopped because it could not
+   * reach a better distance than another bias.
+   */
+  private boolean aborted = false;
+
+  /**
+   * This variable is a cache of the solutions of the clusters, shared between
+   * the solutions of the different biases of the same points of interest.
+   */
+  private ConcurrentMap<String, FutureTask<LinearSolution>> cache =
+    new ConcurrentHashMap<String, FutureTask<LinearSolution>>();
+
+  /**
+   * This variable is the best overall distance found by any bias up to now.
+   */
+  private AtomicReference<Double> bound =
+    new AtomicReference<Double>(Double.POSITIVE_INFINITY);
+
+  /**
+   * This variable is the time and branch budget of the integer programming
+   * searches, shared between the different biases.
+   */
+  private SolverBudget budget = null;
+
+  /**
+   * This variable is the number of points of interest per cluster.
+   */
+  private int clusterSize = Constants.MAX_POINTS_OF_INTEREST;
+
   /**
    * This function is used in case of a small number of points of interest in
    * the event. This procedure uses integer programming in order to find the
@@ -37,11 +80,99 @@ public class ComplexLinearSolution
   public ComplexLinearSolution (ArrayList<PointOfInterest> temp, int bias)
     throws Exception
   {
+    this(temp, bias, new ConcurrentHashMap<String, FutureTask<LinearSolution>>(),
+         new AtomicReference<Double>(Double.POSITIVE_INFINITY),
+         new SolverBudget());
+  }
 
-    clusters = Utils.clusterPoints(temp, bias);
+  /**
+   * This function is used when several biases are solved for the same points of
+   * interest. The cluster solutions are shared through the cache and the
+   * procedure stops as soon as the distance reached is larger than the best
+   * overall distance of the other biases.
+   * 
+   * @param temp
+   *          The list of points of interest.
+   * @param bias
+   *          The bias for the number of clusters.
+   * @param cache
+   *          The cache of the cluster solutions.
+   * @param bound
+   *          The best overall distance found up to now.
+   * @param budget
+   *          The time and branch budget of the event.
+   * @throws Exception
+   */
+  public ComplexLinearSolution (ArrayList<PointOfInterest> temp, int bias,
+                                ConcurrentMap<String, FutureTask<LinearSolution>> cache,
+                                AtomicReference<Double> bound,
+                                SolverBudget budget) throws Exception
+  {
+    this(temp, bias, Constants.MAX_POINTS_OF_INTEREST, cache, bound, budget);
+  }
+
+  /**
+   * This function is used when the number of points of interest per cluster
+   * is chosen for the event instead of the configured one.
+   * 
+   * @param temp
+   *          The list of points of interest.
+   * @param bias
+   *          The bias for the number of clusters.
+   * @param clusterSize
+   *          The number of points of interest per cluster.
+   * @param cache
+   *          The cache of the cluster solutions.
+   * @param bound
+   *          The best overall distance found up to now.
+   * @param budget
+   *          The time and branch budget of the event.
+   * @throws Exception
+   */
+  public ComplexLinearSolution (ArrayList<PointOfInterest> temp, int bias,
+                                int clusterSize,
+                                ConcurrentMap<String, FutureTask<LinearSolution>> cache,
+                                AtomicReference<Double> bound,
+                                SolverBudget budget) throws Exception
+  {
+    this.bias = bias;
+    this.clusterSize = clusterSize;
+    this.cache = cache;
+    this.bound = bound;
+    this.budget = budget;
+
+    clusters = Utils.clusterPoints(temp, bias, clusterSize);
 
     log.info(clusters);
 
+    if (Constants.CONCURRENT_CLUSTERS)
+      solveConcurrently();
+    else
+      solveSequentially();
+
+    if (aborted)
+      return;
+
+    estimateOverallDistance();
+    updateBound(bound, overallNormalizedDistance);
+
+    log.info("");
+    log.info("");
+    log.info("");
+    log.info("");
+
+    status();
+
+  }
+
+  /**
+   * This function is used for solving the clusters one after the other, adding
+   * the remaining points of each cluster to the next one before solving it.
+   * 
+   * @throws Exception
+   */
+  private void solveSequentially () throws Exception
+  {
     ArrayList<PointOfInterest> remaining = null;
     boolean flag1, flag2, flag3;
     LinearSolution finalSolution = null;
@@ -51,16 +182,27 @@ public class ComplexLinearSolution
       log.info("Cluster " + (i + 1));
       log.info("Cluster Size Before Cleaning: " + clusters.get(i).size());
 
-      while (clusters.get(i).size() > Constants.REMOVAL_MAX_POINTS)
+      while (clusters.get(i).size() > removalMaxPoints())
         clusterCleaning(i);
 
       log.info("Cluster Size After Cleaning: " + clusters.get(i).size());
 
-      finalSolution = solveCluster(i);
+      finalSolution = cachedSolveCluster(i);
 
       complexSolution.add(finalSolution);
       remaining = finalSolution.getRemainingPoints();
 
+      // The distance can only increase with the next clusters, so there is no
+      // need to go on if it is already larger than the best one.
+      if (partialDistance() > bound.get()) {
+        log.info("Bias " + bias + " stopped at cluster " + (i + 1)
+                 + " Distance: " + partialDistance() + " Best Distance: "
+                 + bound.get());
+        aborted = true;
+        overallNormalizedDistance = Double.POSITIVE_INFINITY;
+        return;
+      }
+
       flag1 = (i < clusters.size() - 1);
       if (remaining != null)
         flag2 =
@@ -85,6 +227,7 @@ public class ComplexLinearSolution
           Collections.sort(clusters.get(i + 1), Constants.comp);
         }
         else if (flag2 && flag3) {
+          remaining = new ArrayList<PointOfInterest>(remaining);
           remaining.addAll(remainingPoints);
           clusters.add(remaining);
           remainingPoints.clear();
@@ -97,16 +240,293 @@ public class ComplexLinearSolution
       }
 
     }
+  }
 
-    estimateOverallDistance();
+  /**
+   * This function is used for solving all the clusters concurrently. The
+   * clusters are disjoint, so they do not depend on each other once the
+   * remaining points are not passed on. A reconciliation pass then gathers
+   * the remaining points of all the clusters (along with the points removed
+   * during cleaning) and solves them as one more cluster. The time is close to
+   * the time of the largest cluster plus the time of the leftover problem.
+   * 
+   * @throws Exception
+   */
+  private void solveConcurrently () throws Exception
+  {
+    ArrayList<PointOfInterest> leftovers = new ArrayList<PointOfInterest>();
+
+    // Empty clusters are not filled by the previous ones, so they are removed.
+    for (int i = clusters.size() - 1; i >= 0; i--)
+      if (clusters.get(i).size() == 0)
+        clusters.remove(i);
+
+    for (int i = 0; i < clusters.size(); i++) {
+      log.info("Cluster " + (i + 1) + " Size Before Cleaning: "
+               + clusters.get(i).size());
+
+      if (clusters.get(i).size() > removalMaxPoints())
+        leftovers.addAll(Utils.removeSmallestPoints(clusters.get(i),
+                                                    removalMaxPoints()));
+
+      Collections.sort(clusters.get(i), Constants.comp);
+
+      log.info("Cluster " + (i + 1) + " Size After Cleaning: "
+               + clusters.get(i).size());
+    }
+
+    // The clusters are solved on the shared threads, so that together with
+    // the biases the number of threads stays bounded.
+    ArrayList<Callable<LinearSolution>> tasks =
+      new ArrayList<Callable<LinearSolution>>();
+
+    for (int i = 0; i < clusters.size(); i++) {
+      final int index = i;
+      tasks.add(new Callable<LinearSolution>() {
+        @Override
+        public LinearSolution call () throws Exception
+        {
+          return cachedSolveCluster(index);
+        }
+      });
+    }
+
+    for (LinearSolution solution: Utils.invokeAll(tasks,
+                                                  Constants.SOLVER_THREADS)) {
+
+      complexSolution.add(solution);
+
+      if (solution.getRemainingPoints() != null)
+        leftovers.addAll(solution.getRemainingPoints());
+    }
+
+    if (partialDistance() > bound.get()) {
+      log.info("Bias " + bias + " stopped after the clusters. Distance: "
+               + partialDistance() + " Best Distance: " + bound.get());
+      aborted = true;
+      overallNormalizedDistance = Double.POSITIVE_INFINITY;
+      return;
+    }
+
+    if (leftovers.size() == 0) {
+      log.info("No Points Remaining.");
+      return;
+    }
+
+    // Reconciliation of the remaining points of all the clusters
+    Collections.sort(leftovers, Constants.comp);
+    clusters.add(leftovers);
+
+    int last = clusters.size() - 1;
+
+    if (leftovers.size() > removalMaxPoints()) {
+      remainingPoints.addAll(Utils.removeSmallestPoints(leftovers,
+                                                        removalMaxPoints()));
+      Collections.sort(leftovers, Constants.comp);
+      Collections.sort(remainingPoints, Constants.comp);
+    }
 
     log.info("");
-    log.info("");
-    log.info("");
-    log.info("");
+    log.info("Reconciliation Cluster Size: " + leftovers.size());
 
-    status();
+    complexSolution.add(cachedSolveCluster(last));
+  }
+
+  /**
+   * This function is used for solving the points of interest with all the
+   * biases from init to last concurrently and returning the solution with the
+   * smallest overall distance. The biases share the solutions of identical
+   * clusters and the best distance found, so that the ones that cannot do
+   * better stop early. In case of equal distances the smaller bias is chosen.
+   * 
+   * @param temp
+   *          The list of points of interest.
+   * @param init
+   *          The first bias.
+   * @param last
+   *          The last bias.
+   * @return The solution with the smallest overall distance.
+   * @throws Exception
+   */
+  public static ComplexLinearSolution
+    findBestSolution (ArrayList<PointOfInterest> temp, int init, int last)
+      throws Exception
+  {
+    return findBestSolution(temp, init, last, new SolverBudget());
+  }
+
+  /**
+   * This function is used for solving the points of interest with all the
+   * biases from init to last concurrently, while all the integer programming
+   * searches share the time and branch budget of the event.
+   * 
+   * @param temp
+   *          The list of points of interest.
+   * @param init
+   *          The first bias.
+   * @param last
+   *          The last bias.
+   * @param budget
+   *          The time and branch budget of the event.
+   * @return The solution with the smallest overall distance.
+   * @throws Exception
+   */
+  public static ComplexLinearSolution
+    findBestSolution (ArrayList<PointOfInterest> temp, int init, int last,
+                      SolverBudget budget) throws Exception
+  {
+    return findBestSolution(temp, init, last,
+                            Constants.MAX_POINTS_OF_INTEREST, budget);
+  }
+
+  /**
+   * This function is used for solving the points of interest with all the
+   * biases from init to last concurrently, using the given number of points
+   * of interest per cluster.
+   * 
+   * @param temp
+   *          The list of points of interest.
+   * @param init
+   *          The first bias.
+   * @param last
+   *          The last bias.
+   * @param clusterSize
+   *          The number of points of interest per cluster.
+   * @param budget
+   *          The time and branch budget of the event.
+   * @return The solution with the smallest overall distance.
+   * @throws Exception
+   */
+  public static ComplexLinearSolution
+    findBestSolution (final ArrayList<PointOfInterest> temp, int init,
+                      int last, final int clusterSize,
+                      final SolverBudget budget) throws Exception
+  {
+    final ConcurrentMap<String, FutureTask<LinearSolution>> cache =
+      new ConcurrentHashMap<String, FutureTask<LinearSolution>>();
+    final AtomicReference<Double> bound =
+      new AtomicReference<Double>(Double.POSITIVE_INFINITY);
+
+    // The searches of the biases run at the same time, so each one reserves
+    // only its share of the branches of the event.
+    budget.setParallelism(Constants.SOLVER_THREADS);
+
+    ArrayList<Callable<ComplexLinearSolution>> tasks =
+      new ArrayList<Callable<ComplexLinearSolution>>();
+
+    for (int bias = init; bias <= last; bias++) {
+      final int tempBias = bias;
+      tasks.add(new Callable<ComplexLinearSolution>() {
+        @Override
+        public ComplexLinearSolution call () throws Exception
+        {
+          return new ComplexLinearSolution(temp, tempBias, clusterSize,
+                                           cache, bound, budget);
+        }
+      });
+    }
+
+    ComplexLinearSolution result = null;
+
+    for (ComplexLinearSolution complex: Utils.invokeAll(tasks,
+                                                        Constants.SOLVER_THREADS)) {
+
+      log.info("Bias: " + complex.bias + " Aborted: " + complex.aborted
+               + " Distance: " + complex.getOverallNormalizedDistance());
+
+      if (!complex.aborted
+          && (result == null || complex.getOverallNormalizedDistance() < result
+                  .getOverallNormalizedDistance()))
+        result = complex;
+    }
+
+    log.info("Chosen Bias: " + result.bias + " Distance: "
+             + result.getOverallNormalizedDistance() + " Cached Clusters: "
+             + cache.size());
+
+    return result;
+  }
+
+  /**
+   * This is an auxiliary function that returns the result of a concurrent
+   * procedure, throwing the original exception in case of failure.
+   */
+  private static <T> T getResult (Future<T> future) throws Exception
+  {
+    try {
+      return future.get();
+    }
+    catch (ExecutionException e) {
+      if (e.getCause() instanceof Exception)
+        throw (Exception) e.getCause();
+      else
+        throw e;
+    }
+  }
 
+  /**
+   * This is an auxiliary function that sets the new best overall distance if
+   * it is smaller than the current one.
+   */
+  private static void updateBound (AtomicReference<Double> bound,
+                                   double distance)
+  {
+    Double current = bound.get();
+    while (distance < current && !bound.compareAndSet(current, distance))
+      current = bound.get();
+  }
+
+  /**
+   * This function is used for solving a cluster, unless an identical cluster
+   * (same points of interest in the same order) has already been solved for
+   * another bias, in which case the same solution is returned.
+   * 
+   * @param i
+   *          The index of the cluster.
+   * @return The solution of the cluster.
+   * @throws Exception
+   */
+  private LinearSolution cachedSolveCluster (final int i) throws Exception
+  {
+    StringBuilder key = new StringBuilder();
+    for (PointOfInterest poi: clusters.get(i))
+      key.append(poi.getId()).append(',');
+
+    FutureTask<LinearSolution> task =
+      new FutureTask<LinearSolution>(new Callable<LinearSolution>() {
+        @Override
+        public LinearSolution call () throws Exception
+        {
+          return solveCluster(i);
+        }
+      });
+
+    FutureTask<LinearSolution> previous =
+      cache.putIfAbsent(key.toString(), task);
+
+    if (previous == null)
+      task.run();
+    else {
+      log.info("Cached Solution for Cluster " + (i + 1));
+      task = previous;
+    }
+
+    return getResult(task);
+  }
+
+  /**
+   * This function is estimating the overall distance of the clusters solved up
+   * to now, which is the smallest overall distance the procedure can reach.
+   */
+  private double partialDistance ()
+  {
+    double result = 0;
+
+    for (int i = 0; i < complexSolution.size(); i++)
+      if (complexSolution.get(i).getOverallNormalizedDistance() != Double.POSITIVE_INFINITY)
+        result += complexSolution.get(i).getOverallNormalizedDistance();
+
+    return result;
   }
 
   private LinearSolution solveCluster (int i)
@@ -114,8 +534,23 @@ public class ComplexLinearSolution
 
     LinearSolution finalSolution = null;
 
+    long start = SolverController.threadTime();
+
+    // The combinations are created once for both the partial and the full
+    // solution of the cluster.
+    int[] thresholds =
+      { LinearSolution.distanceThreshold(true, false),
+       LinearSolution.distanceThreshold(true, true) };
+
+    ArrayList<Map<int[], Double>> combinations =
+      LinearSolution.findCombinations(clusters.get(i), thresholds);
+
+    // The dominated candidates are removed by the partial solution.
+    int candidates = combinations.get(0).size();
+
     LinearSolution partial =
-      new LinearSolution(clusters.get(i), true, false, false);
+      new LinearSolution(clusters.get(i), true, false, false,
+                         combinations.get(0), budget);
 
     finalSolution = partial;
 
@@ -124,7 +559,8 @@ public class ComplexLinearSolution
     if (partial.getRemainingPoints() != null) {
 
       LinearSolution full =
-        new LinearSolution(clusters.get(i), true, true, false);
+        new LinearSolution(clusters.get(i), true, true, false,
+                           combinations.get(1), budget);
 
       full.status();
 
@@ -141,6 +577,11 @@ public class ComplexLinearSolution
 
     }
 
+    LinearSolution.getController().recordProblem(clusters.get(i).size(),
+                                                 candidates,
+                                                 SolverController
+                                                         .elapsed(start));
+
     return finalSolution;
   }
 
@@ -149,7 +590,8 @@ public class ComplexLinearSolution
     ArrayList<PointOfInterest> remaining = null;
 
     log.info("Size Before for index " + i + ": " + clusters.get(i).size());
-    remaining = Utils.removePoints(clusters.get(i));
+    remaining =
+      Utils.removeSmallestPoints(clusters.get(i), removalMaxPoints());
     log.info("Size After for index " + i + ": " + clusters.get(i).size());
     Collections.sort(clusters.get(i), Constants.comp);
 
@@ -169,6 +611,19 @@ public class ComplexLinearSolution
 
   }
 
+  /**
+   * This is an auxiliary function returning the number of points of interest
+   * a cluster is cleaned down to, which keeps the same ratio to the number of
+   * points per cluster as the configured values.
+   */
+  private int removalMaxPoints ()
+  {
+    if (clusterSize == Constants.MAX_POINTS_OF_INTEREST)
+      return Constants.REMOVAL_MAX_POINTS;
+
+    return 3 * clusterSize / 2;
+  }
+
   private void estimateOverallDistance ()
   {
     for (int i = 0; i < complexSolution.size(); i++)
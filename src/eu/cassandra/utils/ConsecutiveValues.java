@@ -85,7 +85,7 @@ public class ConsecutiveValues
    *          minutes.
    * @param qValues
    *          The array that contains the reactive power values of the
-   *          consecutive minutes.
+   *          consecutive minutes. The array is adjusted in place.
    */
   public ConsecutiveValues (int start, int end, double[] pValues,
                             double[] qValues)
@@ -188,32 +188,29 @@ public class ConsecutiveValues
    */
   private void fillMetrics ()
   {
+    double previousQ = 0, metric2 = 0;
 
-    double[] diffActive = new double[pValues.length - 1];
-    double[] diffReactive = new double[pValues.length - 1];
-    double[] tempReactive = Arrays.copyOf(qValues, qValues.length);
-    double metric2 = 0;
+    numberOfElements = qValues.length;
+    maxQ = Double.NEGATIVE_INFINITY;
 
-    for (int i = 0; i < diffActive.length; i++) {
+    // The reactive power values are adjusted in place, comparing each change
+    // with the original value of the previous minute.
+    for (int i = 0; i < qValues.length; i++) {
 
-      diffActive[i] = pValues[i + 1] - pValues[i];
-      diffReactive[i] = qValues[i + 1] - qValues[i];
+      double original = qValues[i];
 
-      if (diffActive[i] * diffReactive[i] < 0)
-        tempReactive[i + 1] = tempReactive[i]; // ASK
+      if (i > 0 && (pValues[i] - pValues[i - 1]) * (original - previousQ) < 0)
+        qValues[i] = qValues[i - 1]; // ASK
 
-    }
-
-    qValues = Arrays.copyOf(tempReactive, tempReactive.length);
+      previousQ = original;
 
-    maxQ = Utils.findMax(qValues);
-    numberOfElements = tempReactive.length;
-
-    for (int i = 0; i < tempReactive.length; i++) {
-      tempReactive[i] /= maxQ;
-      metric2 += tempReactive[i];
+      if (maxQ < qValues[i])
+        maxQ = qValues[i];
     }
 
+    for (int i = 0; i < qValues.length; i++)
+      metric2 += qValues[i] / maxQ;
+
     difference = 100 * ((numberOfElements - metric2) / numberOfElements);
 
   }
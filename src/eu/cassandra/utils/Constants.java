@@ -114,8 +114,8 @@ public class Constants
     @Override
     public int compare (Appliance appliance1, Appliance appliance2)
     {
-      return Integer.compare(-appliance1.getMatchingPoints().size(),
-                             -appliance2.getMatchingPoints().size());
+      return Integer.compare(-appliance1.getNumberOfEvents(),
+                             -appliance2.getNumberOfEvents());
     }
   };
 
@@ -202,6 +202,26 @@ public class Constants
    */
   public static String OLD_APPLIANCE_FILE = "";
 
+  /**
+   * This variable is the binary file keeping the appliance models of the
+   * household across runs. An empty name disables the appliance library.
+   */
+  public static String APPLIANCE_LIBRARY = "";
+
+  /**
+   * This variable is the signature index file built from the appliance files
+   * of many households, used for labelling the new appliances. An empty name
+   * disables the signature index.
+   */
+  public static String SIGNATURE_INDEX = "";
+
+  /**
+   * This constant is the weight of the duration difference (in minutes)
+   * against the power difference (in Watts / VAR) when searching the
+   * signature index.
+   */
+  public static final double SIGNATURE_DURATION_WEIGHT = 2;
+
   /**
    * This constant shows if the appliances in the end will be loosely clustered
    * or not.
@@ -261,6 +281,36 @@ public class Constants
    */
   public static int LARGE_EVENT_THRESHOLD = (int) Double.POSITIVE_INFINITY;
 
+  /**
+   * This constant shows if the oversized events are going to be split at
+   * stable local minima instead of being analysed (or removed) as a whole.
+   */
+  public static boolean SPLIT_LARGE_EVENTS = false;
+
+  /**
+   * This constant shows the maximum duration (in minutes) of an event before
+   * it is split.
+   */
+  public static int SPLIT_MAX_LENGTH = 240;
+
+  /**
+   * This constant shows the maximum number of steps of active power (possible
+   * points of interest) of an event before it is split.
+   */
+  public static int SPLIT_MAX_POINTS = 60;
+
+  /**
+   * This constant shows the number of minutes on each side of a cut where the
+   * active power must stay within the plateau tolerance.
+   */
+  public static final int SPLIT_PLATEAU_LENGTH = 3;
+
+  /**
+   * This constant shows the tolerance (in Watts) of the active power on a
+   * plateau.
+   */
+  public static final double SPLIT_PLATEAU_TOLERANCE = 10;
+
   // ================= PREPROCESS CONSTANTS =================
 
   public static boolean CLEANING_DATASET = true;
@@ -450,6 +500,14 @@ public class Constants
    */
   public static final int KMEANS_LIMIT_NUMBER = 10;
 
+  /**
+   * This constant shows if the isolated events are clustered with the
+   * streaming clusterer instead of the Weka clusterers. The streaming
+   * clusterer is the default, since the Weka clusterers run out of memory on
+   * data sets with too many isolated events.
+   */
+  public static boolean NATIVE_CLUSTERING = true;
+
   // ================= REFRIGERATOR CONSTANTS =================
 
   /**
@@ -494,6 +552,50 @@ public class Constants
    */
   public static final double REF_UPPER_THRESHOLD = 300;
 
+  /**
+   * This constant is enabling the spectral detection of the refrigerator as a
+   * periodic load, which sets the refrigerator without the clustering of the
+   * isolated events when it is confident enough.
+   */
+  public static boolean SPECTRAL_FRIDGE_DETECTION = false;
+
+  /**
+   * This constant signifies the minimum confidence of the spectral detection
+   * for the refrigerator to be set from it.
+   */
+  public static double SPECTRAL_MIN_CONFIDENCE = 0.3;
+
+  /**
+   * This constant is enabling the subtraction of the refrigerator, detected as
+   * a periodic load, from the measurements before the event detection, so
+   * that its cycles do not merge the events of the other appliances.
+   */
+  public static boolean BASE_LOAD_SUBTRACTION = false;
+
+  /**
+   * This constant signifies the maximum period (in minutes) of the
+   * refrigerator cycles searched by the spectral detection.
+   */
+  public static final int SPECTRAL_MAX_PERIOD = 240;
+
+  /**
+   * This constant signifies the share of the strongest autocorrelation peak
+   * that the first peak must reach in order to be taken as the period.
+   */
+  public static final double SPECTRAL_PEAK_RATIO = 0.8;
+
+  /**
+   * This constant signifies the minimum active power step considered by the
+   * spectral detection.
+   */
+  public static final double SPECTRAL_STEP_FLOOR = 30;
+
+  /**
+   * This constant signifies the maximum distance (in minutes) between a step
+   * placed by the spectral detection and the point of interest of the event.
+   */
+  public static final int SPECTRAL_POINT_TOLERANCE = 2;
+
   // ================= WASHING MACHINE CONSTANTS =================
 
   /**
@@ -640,6 +742,129 @@ public class Constants
 
   public static final int ADD_CLUSTER_THRESHOLD = 5;
 
+  /**
+   * This constant is setting the number of threads used for solving the
+   * different cluster biases of a large event concurrently.
+   */
+  public static int SOLVER_THREADS = Runtime.getRuntime()
+          .availableProcessors();
+
+  /**
+   * This constant is setting the number of parts the events are split in for
+   * the refrigerator identification and the clustering of the isolated
+   * events, which are processed concurrently on the shared threads.
+   */
+  public static int IDENTIFICATION_THREADS = Runtime.getRuntime()
+          .availableProcessors();
+
+  /**
+   * This constant is setting the wall clock time (in milliseconds) that the
+   * integer programming searches of a single event may spend. Zero means no
+   * limit.
+   */
+  public static long SOLVER_TIME_LIMIT = 0;
+
+  /**
+   * This constant is setting the number of branches that the integer
+   * programming searches of a single event may spend. Zero means no limit.
+   */
+  public static long SOLVER_BRANCH_LIMIT = 0;
+
+  /**
+   * This constant is setting the solver used for the integer programming. It
+   * can be ConstraintProgramming (the OR-tools constraint solver) or
+   * MixedInteger (the OR-tools linear solver, starting from the linear
+   * relaxation). The two solvers have not been compared on the data sets yet
+   * (see SolverBenchmark), so the linear solver is not the default.
+   */
+  public static String SOLVER_TYPE = "ConstraintProgramming";
+
+  /**
+   * This constant is setting the number of solution patterns kept in the cache
+   * of the events with few points of interest. Zero disables the cache.
+   */
+  public static int SOLUTION_CACHE_SIZE = 10000;
+
+  /**
+   * This constant is setting the step (in Watts / VAr) the power differences
+   * of the points of interest are rounded to, in order to recognize events
+   * with the same problem.
+   */
+  public static double SOLUTION_CACHE_QUANTUM = 5;
+
+  /**
+   * This constant is setting the maximum number of points of interest of the
+   * events whose integer programming problems are solved in batches.
+   */
+  public static int BATCH_MAX_POINTS = 6;
+
+  /**
+   * This constant is setting the maximum number of problems of the events with
+   * few points of interest that are solved one after the other on a shared
+   * solver session. Zero disables the batches.
+   */
+  public static int SOLVER_BATCH_SIZE = 0;
+
+  /**
+   * This constant is setting the quality tier of the integer programming. It
+   * can be Exact (every problem is solved by the solver), Balanced (the
+   * problems with many candidate combinations are solved approximately) or
+   * Fast (every problem is solved approximately).
+   */
+  public static String QUALITY_TIER = "Exact";
+
+  /**
+   * This constant is setting the number of candidate combinations over which
+   * the problems are solved approximately in the balanced quality tier.
+   */
+  public static int BALANCED_MAX_CANDIDATES = 200;
+
+  /**
+   * This constant is setting the maximum number of moves evaluated by the
+   * local search of the approximate solutions.
+   */
+  public static int LOCAL_SEARCH_MOVES = 2000;
+
+  /**
+   * This constant is setting how often (one in that many problems) an
+   * approximately solved problem is also solved exactly in order to measure
+   * the objective gap. Zero disables the sampling.
+   */
+  public static int QUALITY_SAMPLE_RATE = 20;
+
+  /**
+   * This constant is enabling the concurrent solution of the clusters of a
+   * large event, followed by the solution of the points remaining from all
+   * the clusters, instead of passing the remaining points of each cluster to
+   * the next one.
+   */
+  public static boolean CONCURRENT_CLUSTERS = false;
+
+  /**
+   * This constant is enabling the adaptive choice of the number of points of
+   * interest per cluster of each event, based on the cost of the problems
+   * solved during the run.
+   */
+  public static boolean ADAPTIVE_CLUSTERING = false;
+
+  /**
+   * This constant is setting the time (in milliseconds) that the adaptive
+   * clustering aims to spend for the integer programming of a single event.
+   */
+  public static long ADAPTIVE_TIME_BUDGET = 5000;
+
+  /**
+   * This constant is setting the smallest number of points of interest per
+   * cluster that the adaptive clustering may choose.
+   */
+  public static int ADAPTIVE_MIN_POINTS = 6;
+
+  /**
+   * This constant is setting the largest number of points of interest per
+   * cluster that the adaptive clustering may choose.
+   */
+  public static int ADAPTIVE_MAX_POINTS = 30;
+
   public static final double REMAINING_POINTS_POWER_PENALTY = 0.2;
 
   // ================= APPLIANCES THRESHOLDS =================
@@ -761,6 +986,16 @@ public class Constants
       OLD_APPLIANCE_FILE = oldApplianceFile;
   }
 
+  public static final void setApplianceLibrary (String library)
+  {
+    APPLIANCE_LIBRARY = library;
+  }
+
+  public static final void setSignatureIndex (String index)
+  {
+    SIGNATURE_INDEX = index;
+  }
+
   public static final void setClusterAppliances (boolean loose)
   {
     CLUSTER_APPLIANCES = loose;
@@ -771,6 +1006,23 @@ public class Constants
     REF_LOOSE_COUPLING = loose;
   }
 
+  public static final void setNativeClustering (boolean nativeClustering)
+  {
+    NATIVE_CLUSTERING = nativeClustering;
+  }
+
+  public static final void setSpectralFridgeDetection (boolean spectral,
+                                                       double minConfidence)
+  {
+    SPECTRAL_FRIDGE_DETECTION = spectral;
+    SPECTRAL_MIN_CONFIDENCE = minConfidence;
+  }
+
+  public static final void setBaseLoadSubtraction (boolean subtraction)
+  {
+    BASE_LOAD_SUBTRACTION = subtraction;
+  }
+
   public static final void setMedianThreshold (boolean median)
   {
     MEDIAN_THRESHOLD = median;
@@ -814,6 +1066,84 @@ public class Constants
     LARGE_EVENT_THRESHOLD = threshold;
   }
 
+  public static final void setEventSplitting (boolean split, int maxLength,
+                                              int maxPoints)
+  {
+    SPLIT_LARGE_EVENTS = split;
+    SPLIT_MAX_LENGTH = maxLength;
+    SPLIT_MAX_POINTS = maxPoints;
+  }
+
+  public static final void setSolverLimits (long timeLimit, long branchLimit)
+  {
+    SOLVER_TIME_LIMIT = timeLimit;
+    SOLVER_BRANCH_LIMIT = branchLimit;
+  }
+
+  public static final void setQualityTier (String tier, int sampleRate)
+  {
+    if (tier.equalsIgnoreCase("Exact") || tier.equalsIgnoreCase("Balanced")
+        || tier.equalsIgnoreCase("Fast"))
+      QUALITY_TIER = tier;
+    else
+      System.out
+              .println("Error with quality tier input. Set to Exact by default.");
+
+    QUALITY_SAMPLE_RATE = sampleRate;
+  }
+
+  public static final void setConcurrentClusters (boolean concurrent)
+  {
+    CONCURRENT_CLUSTERS = concurrent;
+  }
+
+  public static final void setAdaptiveClustering (boolean adaptive,
+                                                 long timeBudget,
+                                                 int minPoints, int maxPoints)
+  {
+    ADAPTIVE_CLUSTERING = adaptive;
+    ADAPTIVE_TIME_BUDGET = timeBudget;
+    ADAPTIVE_MIN_POINTS = minPoints;
+    ADAPTIVE_MAX_POINTS = maxPoints;
+  }
+
+  public static final void setSolverThreads (int threads)
+  {
+    if (threads > 0)
+      SOLVER_THREADS = threads;
+    else
+      SOLVER_THREADS = Runtime.getRuntime().availableProcessors();
+  }
+
+  public static final void setIdentificationThreads (int threads)
+  {
+    if (threads > 0)
+      IDENTIFICATION_THREADS = threads;
+    else
+      IDENTIFICATION_THREADS = Runtime.getRuntime().availableProcessors();
+  }
+
+  public static final void setSolutionCache (int size, double quantum)
+  {
+    SOLUTION_CACHE_SIZE = size;
+    SOLUTION_CACHE_QUANTUM = quantum;
+  }
+
+  public static final void setSolverBatchSize (int size)
+  {
+    SOLVER_BATCH_SIZE = size;
+  }
+
+  public static final void setSolverType (String type)
+  {
+    if (type.equalsIgnoreCase("ConstraintProgramming")
+        || type.equalsIgnoreCase("MixedInteger"))
+      SOLVER_TYPE = type;
+    else
+      System.out
+              .println("Error with solver type input. Set to ConstraintProgramming by default.");
+  }
+
   public static final void setCleaningDataset (boolean clean)
   {
     CLEANING_DATASET = clean;
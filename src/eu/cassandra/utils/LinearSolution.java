@@ -2,6 +2,8 @@ package eu.cassandra.utils;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -14,6 +16,7 @@ import org.paukov.combinatorics.ICombinatoricsVector;
 import com.google.ortools.constraintsolver.DecisionBuilder;
 import com.google.ortools.constraintsolver.IntVar;
 import com.google.ortools.constraintsolver.OptimizeVar;
+import com.google.ortools.constraintsolver.SearchLimit;
 import com.google.ortools.constraintsolver.Solver;
 
 public class LinearSolution
@@ -21,6 +24,12 @@ public class LinearSolution
 
   private static Logger log = Logger.getLogger(LinearSolution.class);
 
+  /**
+   * This variable is the controller choosing the number of points of interest
+   * per cluster, based on the time of the problems solved up to now.
+   */
+  private static SolverController controller = new SolverController();
+
   private ArrayList<PointOfInterest> poiInput = null;
 
   private Map<int[], Double> input = new HashMap<int[], Double>();
@@ -33,8 +42,42 @@ public class LinearSolution
 
   private double overallNormalizedDistance = 0;
 
+  /**
+   * This variable is the number of candidate combinations that were removed as
+   * dominated before passing the input to the solver.
+   */
+  private int removedCandidates = 0;
+
+  /**
+   * This variable contains the pairs of equivalent points of interest used for
+   * adding symmetry breaking constraints to the solver.
+   */
+  private int[][] symmetricPoints = new int[0][];
+
   ArrayList<PointOfInterest> remainingPoints = new ArrayList<PointOfInterest>();
 
+  /**
+   * This variable is the batch the problem has been added to, in case it is
+   * solved together with the problems of other events (null after the
+   * solution is retrieved).
+   */
+  private SolverBatch batch = null;
+
+  /**
+   * This variable is the index of the problem in the batch.
+   */
+  private int ticket = -1;
+
+  /**
+   * This variable is the time (in milliseconds of the thread CPU time) spent
+   * for creating and solving the problem, including the time of the batch.
+   */
+  private double solveTime = 0;
+
+  private boolean complex = false;
+
+  private boolean isolated = false;
+
   /**
    * This function is used in case of a small number of points of interest in
    * the event. This procedure uses integer programming in order to find the
@@ -51,21 +94,101 @@ public class LinearSolution
   public LinearSolution (ArrayList<PointOfInterest> temp, boolean complex,
                          boolean full, boolean isolated)
   {
+    this(temp, complex, full, isolated,
+         findCombinations(temp, new int[] { distanceThreshold(complex, full) })
+                 .get(0), new SolverBudget());
+  }
+
+  /**
+   * This function is used in case the combinations of the points of interest
+   * have already been created (for example shared between the partial and the
+   * full solution of the same points).
+   * 
+   * @param temp
+   *          The list of points of interest.
+   * @param complex
+   *          The flag that show that this is a complex procedure due to the
+   *          large number of points of interest involved.
+   * @param combinations
+   *          The hashmap of the matched points with the distance that they
+   *          have, as created by findCombinations.
+   */
+  public LinearSolution (ArrayList<PointOfInterest> temp, boolean complex,
+                         boolean full, boolean isolated,
+                         Map<int[], Double> combinations)
+  {
+    this(temp, complex, full, isolated, combinations, new SolverBudget());
+  }
+
+  /**
+   * This function is used in case the integer programming search must respect
+   * the time and branch budget of the event the points of interest belong to.
+   * 
+   * @param temp
+   *          The list of points of interest.
+   * @param complex
+   *          The flag that show that this is a complex procedure due to the
+   *          large number of points of interest involved.
+   * @param combinations
+   *          The hashmap of the matched points with the distance that they
+   *          have, as created by findCombinations.
+   * @param budget
+   *          The time and branch budget of the event.
+   */
+  public LinearSolution (ArrayList<PointOfInterest> temp, boolean complex,
+                         boolean full, boolean isolated,
+                         Map<int[], Double> combinations, SolverBudget budget)
+  {
+    this(temp, complex, full, isolated, combinations, budget, null);
+  }
+
+  /**
+   * This function is used in case the problem is added to a batch of problems
+   * of many events instead of being solved at once. The solution is available
+   * after calling the complete function.
+   * 
+   * @param temp
+   *          The list of points of interest.
+   * @param complex
+   *          The flag that show that this is a complex procedure due to the
+   *          large number of points of interest involved.
+   * @param combinations
+   *          The hashmap of the matched points with the distance that they
+   *          have, as created by findCombinations.
+   * @param budget
+   *          The time and branch budget of the event.
+   * @param batch
+   *          The batch of problems, or null in order to solve at once.
+   */
+  public LinearSolution (ArrayList<PointOfInterest> temp, boolean complex,
+                         boolean full, boolean isolated,
+                         Map<int[], Double> combinations, SolverBudget budget,
+                         SolverBatch batch)
+  {
+
+    long start = SolverController.threadTime();
 
     poiInput = temp;
+    input = combinations;
+    this.complex = complex;
+    this.isolated = isolated;
 
     if (full) {
       if (!isolated)
         log.info("=========FULL SOLUTION=============");
-      input = findCombinations(temp, complex, full);
     }
     else {
       if (!isolated)
         log.info("=========PARTIAL SOLUTION=============");
-      input = findCombinations(temp, complex);
+      removedCandidates = removeDominatedCombinations(input);
     }
+
+    symmetricPoints = findSymmetricPoints(temp, input);
+
     if (!isolated)
-      log.info("Input Size: " + input.size());
+      log.info("Input Size: " + input.size() + " Removed Candidates: "
+               + removedCandidates + " Symmetric Points: "
+               + symmetricPoints.length);
 
     // Creating the input for the integer programming solver
     cost = new double[input.size()];
@@ -101,11 +224,42 @@ public class LinearSolution
       if (!isolated)
         log.info("INTEGER PROGRAMMING");
 
+      // The problem is solved approximately if the quality tier allows it.
+      if (ApproximateSolver.isApproximate(input.size())) {
+        solution =
+          ApproximateSolver.solve(tempArray, cost, full ? new int[0][]
+                                                        : symmetricPoints,
+                                  full, isolated);
+
+        if (solution.size() > 0)
+          remainingPoints =
+            Utils.extractRemainingPoints(temp, solution, tempArray);
+
+        estimateOverallDistance(complex);
+        solveTime = SolverController.elapsed(start);
+        return;
+      }
+
+      // The problem is solved later together with the problems of other
+      // events.
+      if (batch != null
+          && !Constants.SOLVER_TYPE.equalsIgnoreCase("MixedInteger")) {
+        this.batch = batch;
+        ticket =
+          batch.add(tempArray, cost, full ? new int[0][] : symmetricPoints,
+                    full, budget);
+        solveTime = SolverController.elapsed(start);
+        return;
+      }
+
       // Solving the problem and presenting the solution
-      if (full)
-        solution = solve3(tempArray, cost);
+      if (Constants.SOLVER_TYPE.equalsIgnoreCase("MixedInteger"))
+        solution =
+          MixedIntegerSolver.solve(tempArray, cost, full, isolated, budget);
+      else if (full)
+        solution = solve3(tempArray, cost, budget);
       else
-        solution = solve2(tempArray, cost, isolated);
+        solution = solve2(tempArray, cost, symmetricPoints, isolated, budget);
 
       if (!isolated)
         log.info("Solution:" + solution.toString());
@@ -118,6 +272,34 @@ public class LinearSolution
       remainingPoints = Utils.extractRemainingPoints(temp, solution, tempArray);
 
     estimateOverallDistance(complex);
+
+    solveTime = SolverController.elapsed(start);
+  }
+
+  /**
+   * This function is used for retrieving the solution of a problem that has
+   * been added to a batch, solving the batch if needed. It does nothing if the
+   * problem has already been solved.
+   * 
+   * @throws Exception
+   */
+  public void complete () throws Exception
+  {
+    if (batch == null)
+      return;
+
+    solution = batch.getSolution(ticket);
+    solveTime += batch.getTime(ticket);
+    batch = null;
+
+    if (!isolated)
+      log.info("Solution:" + solution.toString());
+
+    if (solution.size() > 0)
+      remainingPoints =
+        Utils.extractRemainingPoints(poiInput, solution, tempArray);
+
+    estimateOverallDistance(complex);
   }
 
   public void estimateOverallDistance (boolean complex)
@@ -145,11 +327,30 @@ public class LinearSolution
           Math.abs(rest.getPDiff()) * Constants.REMAINING_POINTS_POWER_PENALTY;
   }
 
+  public static SolverController getController ()
+  {
+    return controller;
+  }
+
+  /**
+   * This function returns the time (in milliseconds) spent for creating and
+   * solving the problem.
+   */
+  public double getSolveTime ()
+  {
+    return solveTime;
+  }
+
   public ArrayList<Integer> getSolution ()
   {
     return solution;
   }
 
+  public ArrayList<PointOfInterest> getPoiInput ()
+  {
+    return poiInput;
+  }
+
   public int[][] getTempArray ()
   {
     return tempArray;
@@ -165,6 +366,32 @@ public class LinearSolution
     return remainingPoints;
   }
 
+  public int getRemovedCandidates ()
+  {
+    return removedCandidates;
+  }
+
+  /**
+   * This function returns the distance threshold that is used for accepting a
+   * combination of points of interest, depending on the type of procedure.
+   * 
+   * @param complex
+   *          The flag that show that this is a complex procedure due to the
+   *          large number of points of interest involved.
+   * @param full
+   *          The flag that shows if this is the full or the partial solution.
+   * @return The distance threshold.
+   */
+  public static int distanceThreshold (boolean complex, boolean full)
+  {
+    if (!complex && full)
+      return Constants.PERFECT_MATCH_DISTANCE_THRESHOLD;
+    else if (complex && full)
+      return Constants.SECOND_DISTANCE_THRESHOLD;
+    else
+      return Constants.DISTANCE_THRESHOLD;
+  }
+
   /**
    * This function is responsible for creating the possible combinations of the
    * rising and reduction points of interest in the event in order to create the
@@ -181,224 +408,360 @@ public class LinearSolution
     findCombinations (ArrayList<PointOfInterest> temp, boolean complex,
                       Boolean... full)
   {
+    int[] thresholds = { distanceThreshold(complex, full.length == 1) };
+
+    return findCombinations(temp, thresholds).get(0);
+  }
+
+  /**
+   * This function is responsible for creating the possible combinations of the
+   * rising and reduction points of interest for several distance thresholds at
+   * once. The subsets of points are enumerated a single time and each accepted
+   * combination is added to the hashmap of every threshold it passes, so the
+   * partial and full solutions can share the same procedure. The arrays of
+   * points are shared between the hashmaps.
+   * 
+   * @param temp
+   *          The list of points of interest in the procedure.
+   * @param thresholds
+   *          The distance thresholds for accepting a combination.
+   * @return A list with a hashmap of the matched points with the distance that
+   *         they have for each threshold.
+   */
+  public static ArrayList<Map<int[], Double>>
+    findCombinations (ArrayList<PointOfInterest> temp, int[] thresholds)
+  {
 
     // Initializing the auxiliary variables
-    Map<int[], Double> input = new HashMap<int[], Double>();
+    ArrayList<Map<int[], Double>> result = new ArrayList<Map<int[], Double>>();
+    Map<String, int[]> arrays = new HashMap<String, int[]>();
     Integer[] points = null;
     int[] pointsArray = null;
     List<Integer> subset = new ArrayList<Integer>();
     double distance = 0;
 
-    int distanceThreshold = 0;
+    for (int t = 0; t < thresholds.length; t++)
+      result.add(new HashMap<int[], Double>());
 
-    if (!complex && (full.length == 1))
-      distanceThreshold = Constants.PERFECT_MATCH_DISTANCE_THRESHOLD;
-    else if (complex && (full.length == 1))
-      distanceThreshold = Constants.SECOND_DISTANCE_THRESHOLD;
-    else
-      distanceThreshold = Constants.DISTANCE_THRESHOLD;
+    double[] previousMaxDistance = new double[thresholds.length];
+    double[] currentMaxDistance = new double[thresholds.length];
+    boolean[] active = new boolean[thresholds.length];
 
     // For each point
     for (int i = 0; i < temp.size(); i++) {
       // If rising point then we find the reduction points after that point,
-      // create all the possible subsets from them and estimate the distance
-      // of the active and reactive power measurements.If the distance is
-      // under a certain threshold, the combination is accepted.
+      // else we find the rising points before that point. Then all the
+      // possible subsets are created and the distance of the active and
+      // reactive power measurements is estimated. If the distance is under a
+      // certain threshold, the combination is accepted for this threshold.
 
-      double previousMaxDistance = Double.NEGATIVE_INFINITY, currentMaxDistance =
-        Double.NEGATIVE_INFINITY;
+      Arrays.fill(previousMaxDistance, Double.NEGATIVE_INFINITY);
+      Arrays.fill(currentMaxDistance, Double.NEGATIVE_INFINITY);
+      Arrays.fill(active, true);
 
-      if (temp.get(i).getRising()) {
+      boolean rising = temp.get(i).getRising();
 
-        // Returns the reduction points that can be associated with this rising
-        // point
+      // Returns the points that can be associated with this point
+      if (rising)
         points = Utils.findRedPoints(i, temp);
+      else
+        points = Utils.findRisPoints(i, temp);
 
-        // An initial vector of all the reduction points
-        ICombinatoricsVector<Integer> initialSet = Factory.createVector(points);
-        log.debug("Initial Set for point " + temp.get(i).toString() + ": "
-                  + initialSet.toString());
-        log.debug("Reduction Points for rising point " + i + ": "
-                  + initialSet.toString());
+      // An initial vector of all the candidate points
+      ICombinatoricsVector<Integer> initialSet = Factory.createVector(points);
+      log.debug("Initial Set for point " + temp.get(i).toString() + ": "
+                + initialSet.toString());
 
-        // Set the max combination of reduction point for each rising point
-        int upperThres =
-          Math.min(Constants.MAX_POINTS_LIMIT, initialSet.getSize());
-        // log.debug("Upper Threshold:" + upperThres);
+      // Set the max combination of points for each point
+      int upperThres =
+        Math.min(Constants.MAX_POINTS_LIMIT, initialSet.getSize());
 
-        // For a number of reduction points for the rising point
-        for (int pairing = 1; pairing <= upperThres; pairing++) {
+      // For a number of candidate points for the point
+      for (int pairing = 1; pairing <= upperThres; pairing++) {
 
-          Generator<Integer> gen =
-            Factory.createSimpleCombinationGenerator(initialSet, pairing);
+        Generator<Integer> gen =
+          Factory.createSimpleCombinationGenerator(initialSet, pairing);
 
-          for (ICombinatoricsVector<Integer> subSet: gen) {
-            // log.debug(subSet.toString());
-            if (subSet.getSize() > 0) {
-              double sumP = 0, sumQ = 0;
+        for (ICombinatoricsVector<Integer> subSet: gen) {
 
-              subset = subSet.getVector();
+          if (subSet.getSize() > 0) {
+            double sumP = 0, sumQ = 0;
 
-              for (Integer index: subset) {
-                sumP += temp.get(index).getPDiff();
-                sumQ += temp.get(index).getQDiff();
-              }
+            subset = subSet.getVector();
 
-              double[] tempValues = { -sumP, -sumQ };
+            for (Integer index: subset) {
+              sumP += temp.get(index).getPDiff();
+              sumQ += temp.get(index).getQDiff();
+            }
+
+            distance = similarity(temp.get(i), sumP, sumQ);
 
-              distance =
-                1 / (temp.get(i).percentageEuclideanDistance(tempValues) + Constants.NEAR_ZERO);
+            pointsArray = null;
+
+            for (int t = 0; t < thresholds.length; t++) {
 
               // If accepted then an array is created with 1 in the index of the
               // points included, 0 otherwise
-              if ((1 / distance) < distanceThreshold) {
+              if (active[t] && (1 / distance) < thresholds[t]) {
 
-                log.debug("Subset: " + subSet.toString() + " Distance: " + 1
-                          / distance + " Z: " + distance);
+                if (pointsArray == null) {
 
-                pointsArray = new int[temp.size()];
-                pointsArray[i] = 1;
-                for (Integer index: subset)
-                  pointsArray[index] = 1;
+                  log.debug("Subset: " + subSet.toString() + " Distance: " + 1
+                            / distance + " Z: " + distance);
 
-                if (distance > currentMaxDistance) {
-                  // log.debug("Distance: " + distance
-                  // + " Current Max Distance: "
-                  // + currentMaxDistance);
-                  currentMaxDistance = distance;
-                }
+                  pointsArray = new int[temp.size()];
+                  pointsArray[i] = 1;
+                  for (Integer index: subset)
+                    pointsArray[index] = 1;
 
-                // Check if the array is already included in the alternatives.If
-                // not, it is added to the alternatives.
-                boolean flag = true;
-                for (int[] content: input.keySet()) {
-                  if (Arrays.equals(content, pointsArray)) {
-                    flag = false;
-                    break;
-                  }
+                  // Check if the array is already included in the
+                  // alternatives. If so, the same array is used.
+                  String key = Arrays.toString(pointsArray);
+                  if (arrays.containsKey(key))
+                    pointsArray = arrays.get(key);
+                  else
+                    arrays.put(key, pointsArray);
                 }
 
-                if (flag) {
-                  input.put(pointsArray, distance);
-                  // log.debug("Input:" + input);
-                }
+                if (distance > currentMaxDistance[t])
+                  currentMaxDistance[t] = distance;
+
+                if (!result.get(t).containsKey(pointsArray))
+                  result.get(t).put(pointsArray, distance);
               }
             }
           }
-          // log.debug("Input size for pairing of " + pairing + ":"
-          // + input.size());
-          // log.debug("Current Max Distance: " + currentMaxDistance
-          // + " Previous Max Distance:" + previousMaxDistance);
-
-          // Checking if the max distance is reduced and continue for larger
-          // combination else stop the procedure
-          if (previousMaxDistance < currentMaxDistance
-              || currentMaxDistance == Double.NEGATIVE_INFINITY)
-            previousMaxDistance = currentMaxDistance;
-          else {
-            // log.debug("Breaking for pairing = " + pairing);
-            break;
+        }
+
+        // Checking if the max distance is reduced and continue for larger
+        // combination else stop the procedure for this threshold
+        boolean flag = false;
+        for (int t = 0; t < thresholds.length; t++) {
+          if (active[t]) {
+            if (previousMaxDistance[t] < currentMaxDistance[t]
+                || currentMaxDistance[t] == Double.NEGATIVE_INFINITY)
+              previousMaxDistance[t] = currentMaxDistance[t];
+            else
+              active[t] = false;
           }
+          flag = flag || active[t];
+        }
 
+        if (!flag) {
+          // log.debug("Breaking for pairing = " + pairing);
+          break;
         }
       }
-      // If reduction point then we find the rising points before that point,
-      // create all the possible subsets from them and estimate the distance
-      // of the active and reactive power measurements.If the distance is
-      // under a certain threshold, the combination is accepted.
-      else {
-        points = Utils.findRisPoints(i, temp);
+    }
+    return result;
+  }
 
-        ICombinatoricsVector<Integer> initialSet = Factory.createVector(points);
+  /**
+   * This function estimates the similarity of a point of interest with the
+   * sum of the points of interest that could be matched with it, as used for
+   * accepting the combinations.
+   * 
+   * @param point
+   *          The point of interest the combination is created for.
+   * @param sumP
+   *          The sum of the active power differences of the matched points.
+   * @param sumQ
+   *          The sum of the reactive power differences of the matched points.
+   * @return The similarity of the combination.
+   */
+  public static double similarity (PointOfInterest point, double sumP,
+                                   double sumQ)
+  {
+    if (point.getRising()) {
+      double[] tempValues = { -sumP, -sumQ };
 
-        log.debug("Initial Set for point " + temp.get(i).toString() + ": "
-                  + initialSet.toString());
-        log.debug("Rising Points for reduction point " + i + ": "
-                  + initialSet.toString());
+      return 1 / (point.percentageEuclideanDistance(tempValues) + Constants.NEAR_ZERO);
+    }
+    else {
+      double[] sum = { sumP, sumQ };
+      double[] tempValues = { -point.getPDiff(), -point.getQDiff() };
 
-        int upperThres =
-          Math.min(Constants.MAX_POINTS_LIMIT, initialSet.getSize());
-        // log.debug("Upper Threshold:" + upperThres);
+      // TODO Add temporal distance
 
-        for (int pairing = 1; pairing <= upperThres; pairing++) {
+      return 1 / (Utils.percentageEuclideanDistance(sum, tempValues) + Constants.NEAR_ZERO);
+    }
+  }
+
+  /**
+   * This function estimates the similarity of a combination of points of
+   * interest the same way as findCombinations does. A combination is created
+   * for its single rising point, or for its single reduction point in case it
+   * contains more rising points. A pair of points is created for either of
+   * them, the rising point being tried first.
+   * 
+   * @param temp
+   *          The list of points of interest in the procedure.
+   * @param array
+   *          The array with 1 in the index of the points of the combination.
+   * @param threshold
+   *          The distance threshold for accepting a combination.
+   * @return The similarity of the combination, or zero if it is not accepted
+   *         by the threshold.
+   */
+  public static double combinationSimilarity (ArrayList<PointOfInterest> temp,
+                                              int[] array, int threshold)
+  {
+    int rising = -1, reduction = -1, risingCount = 0;
+    double sumRisingP = 0, sumRisingQ = 0, sumReductionP = 0, sumReductionQ = 0;
 
-          Generator<Integer> gen =
-            Factory.createSimpleCombinationGenerator(initialSet, pairing);
+    for (int i = 0; i < array.length; i++) {
+      if (array[i] == 0)
+        continue;
 
-          for (ICombinatoricsVector<Integer> subSet: gen) {
+      PointOfInterest poi = temp.get(i);
 
-            if (subSet.getSize() > 0) {
-              double sumP = 0, sumQ = 0;
+      if (poi.getRising()) {
+        rising = i;
+        risingCount++;
+        sumRisingP += poi.getPDiff();
+        sumRisingQ += poi.getQDiff();
+      }
+      else {
+        reduction = i;
+        sumReductionP += poi.getPDiff();
+        sumReductionQ += poi.getQDiff();
+      }
+    }
 
-              subset = subSet.getVector();
+    if (rising == -1 || reduction == -1)
+      return 0;
 
-              for (Integer index: subset) {
-                sumP += temp.get(index).getPDiff();
-                sumQ += temp.get(index).getQDiff();
-              }
+    double result = 0;
 
-              double[] sum = { sumP, sumQ };
-              double[] tempValues =
-                { -temp.get(i).getPDiff(), -temp.get(i).getQDiff() };
+    if (risingCount == 1)
+      result = similarity(temp.get(rising), sumReductionP, sumReductionQ);
 
-              // TODO Add temporal distance
+    if ((risingCount > 1 || Utils.countPoints(array) == 2)
+        && (1 / result) >= threshold)
+      result = similarity(temp.get(reduction), sumRisingP, sumRisingQ);
 
-              distance =
-                1 / (Utils.percentageEuclideanDistance(sum, tempValues) + Constants.NEAR_ZERO);
+    return ((1 / result) < threshold) ? result : 0;
+  }
 
-              // If accepted then an array is created with 1 in the index of the
-              // points included, 0 otherwise
-              if ((1 / distance) < distanceThreshold) {
+  /**
+   * This function is responsible for removing the dominated combinations from
+   * the candidates of the set packing problem. A combination is dominated when
+   * it contains all the points of interest of another combination but has
+   * lower similarity, so the solver can always replace it without losing
+   * anything. It must not be used for the full solution, where all the points
+   * must be covered.
+   * 
+   * @param input
+   *          The hashmap of the matched points with the distance that they
+   *          have.
+   * @return The number of combinations removed.
+   */
+  public static int removeDominatedCombinations (Map<int[], Double> input)
+  {
+    ArrayList<int[]> candidates = new ArrayList<int[]>(input.keySet());
+    ArrayList<int[]> dominated = new ArrayList<int[]>();
+
+    for (int[] candidate: candidates) {
+      for (int[] other: candidates) {
+        if (candidate != other
+            && Utils.countPoints(other) < Utils.countPoints(candidate)
+            && input.get(candidate) <= input.get(other)
+            && Utils.containsPoints(candidate, other)) {
+          log.debug("Dominated: " + Arrays.toString(candidate) + " by "
+                    + Arrays.toString(other));
+          dominated.add(candidate);
+          break;
+        }
+      }
+    }
 
-                log.debug("Subset: " + subSet.toString() + " Distance: " + 1
-                          / distance + " Z: " + distance);
+    for (int[] candidate: dominated)
+      input.remove(candidate);
 
-                pointsArray = new int[temp.size()];
-                pointsArray[i] = 1;
-                for (Integer index: subset)
-                  pointsArray[index] = 1;
+    return dominated.size();
+  }
 
-                if (distance > currentMaxDistance) {
-                  // log.debug("Distance: " + distance
-                  // + " Current Max Distance: "
-                  // + currentMaxDistance);
-                  currentMaxDistance = distance;
-                }
+  /**
+   * This function is responsible for finding the equivalent points of interest
+   * (same minute, type and power differences) that can be swapped in all the
+   * combinations without changing the distance. For each such pair the solver
+   * may use the second point only if it uses the first one too, which cuts
+   * the symmetric branches of the search.
+   * 
+   * @param temp
+   *          The list of points of interest in the procedure.
+   * @param input
+   *          The hashmap of the matched points with the distance that they
+   *          have.
+   * @return An array of the index pairs of the equivalent points.
+   */
+  public static int[][] findSymmetricPoints (ArrayList<PointOfInterest> temp,
+                                             Map<int[], Double> input)
+  {
+    ArrayList<int[]> result = new ArrayList<int[]>();
+    Map<String, Double> contents = new HashMap<String, Double>();
 
-                // Check if the array is already included in the alternatives.If
-                // not, it is added to the alternatives.
-                boolean flag = true;
-                for (int[] content: input.keySet()) {
-                  if (Arrays.equals(content, pointsArray)) {
-                    flag = false;
-                    break;
-                  }
-                }
+    for (int[] in: input.keySet())
+      contents.put(Arrays.toString(in), input.get(in));
 
-                if (flag) {
-                  input.put(pointsArray, distance);
-                  // log.debug("Input:" + input);
-                }
-              }
-            }
-          }
+    for (int i = 0; i < temp.size() - 1; i++) {
+      for (int j = i + 1; j < temp.size()
+                          && temp.get(j).getMinute() == temp.get(i).getMinute(); j++) {
+
+        if (temp.get(i).getRising() == temp.get(j).getRising()
+            && temp.get(i).getPDiff() == temp.get(j).getPDiff()
+            && temp.get(i).getQDiff() == temp.get(j).getQDiff()) {
 
-          // log.debug("Input size for pairing of " + pairing + ":"
-          // + input.size());
-          // log.debug("Current Max Distance: " + currentMaxDistance
-          // + " Previous Max Distance:" + previousMaxDistance);
-
-          if (previousMaxDistance < currentMaxDistance
-              || currentMaxDistance == Double.NEGATIVE_INFINITY)
-            previousMaxDistance = currentMaxDistance;
-          else {
-            // log.debug("Breaking for pairing = " + pairing);
-            break;
+          if (isSymmetric(input, contents, i, j)) {
+            int[] pair = { i, j };
+            result.add(pair);
           }
+          break;
         }
       }
     }
-    return input;
+
+    return result.toArray(new int[result.size()][]);
+  }
+
+  /**
+   * This is an auxiliary function checking if swapping two points of interest
+   * in every combination gives again a combination of the input with the same
+   * distance.
+   * 
+   * @param input
+   *          The hashmap of the matched points with the distance that they
+   *          have.
+   * @param contents
+   *          The same combinations indexed by their contents.
+   * @param first
+   *          The index of the first point of interest.
+   * @param second
+   *          The index of the second point of interest.
+   * @return true if the combinations are symmetric, false otherwise.
+   */
+  private static boolean isSymmetric (Map<int[], Double> input,
+                                      Map<String, Double> contents, int first,
+                                      int second)
+  {
+    for (int[] in: input.keySet()) {
+
+      if (in[first] != in[second]) {
+
+        int[] swapped = Arrays.copyOf(in, in.length);
+        swapped[first] = in[second];
+        swapped[second] = in[first];
+
+        Double other = contents.get(Arrays.toString(swapped));
+
+        if (other == null
+            || Math.abs(other - input.get(in)) > Constants.NEAR_ZERO
+                                                 * Math.abs(input.get(in)))
+          return false;
+      }
+    }
+
+    return true;
   }
 
   /**
@@ -415,124 +778,232 @@ public class LinearSolution
   {
     ArrayList<ArrayList<Integer>> solutions =
       new ArrayList<ArrayList<Integer>>();
-    Solver solver = new Solver("Integer Programming");
+    Solver solver =
+      NativeResources.createSolver("Integer Programming",
+                                   NativeResources.estimateModelObjects(input));
+
+    try {
+      int num_alternatives = cost.length;
+      int num_objects = input[0].length;
+
+      int[] costNew = new int[cost.length];
+      int lambda = 1000;
+      for (int i = 0; i < costNew.length; i++) {
+        costNew[i] = (int) (100 * cost[i]);
+        costNew[i] *= lambda;
+      }
+      //
+      // variables
+      //
+      IntVar[] x = solver.makeIntVarArray(num_alternatives, 0, 1, "x");
+
+      // number of assigned senators, to be minimize
+      IntVar z = solver.makeScalProd(x, costNew).var();
+
+      //
+      // constraints
+      //
+
+      for (int j = 0; j < num_objects; j++) {
+        IntVar[] b = new IntVar[num_alternatives];
+        for (int i = 0; i < num_alternatives; i++) {
+          b[i] = solver.makeProd(x[i], input[i][j]).var();
+        }
 
-    int num_alternatives = cost.length;
-    int num_objects = input[0].length;
+        solver.addConstraint(solver.makeSumLessOrEqual(b, 1));
 
-    int[] costNew = new int[cost.length];
-    int lambda = 1000;
-    for (int i = 0; i < costNew.length; i++) {
-      costNew[i] = (int) (100 * cost[i]);
-      costNew[i] *= lambda;
+      }
+
+      //
+      // objective
+      //
+      OptimizeVar objective = solver.makeMaximize(z, 1);
+
+      //
+      // search
+      //
+      DecisionBuilder db =
+        solver.makePhase(x, Solver.INT_VAR_DEFAULT, Solver.INT_VALUE_DEFAULT);
+      solver.newSearch(db, objective);
+
+      //
+      // output
+      //
+
+      // ArrayList<Integer> temp = ArrayList<Integer>()
+      ArrayList<Integer> temp = null;
+      while (solver.nextSolution()) {
+        temp = new ArrayList<Integer>();
+        log.debug("z: " + z.value());
+        log.debug("Selected alternatives: ");
+        for (int i = 0; i < num_alternatives; i++) {
+          if (x[i].value() == 1) {
+            log.debug((1 + i) + " ");
+            temp.add(i);
+          }
+        }
+        solutions.add(temp);
+
+      }
+      solver.endSearch();
+
+      // Statistics
+      log.info("");
+      log.info("Solutions: " + solver.solutions());
+      log.info("Failures: " + solver.failures());
+      log.info("Branches: " + solver.branches());
+      log.info("Wall time: " + solver.wallTime() + "ms");
+    }
+    finally {
+      NativeResources.release(solver);
     }
-    //
-    // variables
-    //
-    IntVar[] x = solver.makeIntVarArray(num_alternatives, 0, 1, "x");
 
-    // number of assigned senators, to be minimize
-    IntVar z = solver.makeScalProd(x, costNew).var();
+    return solutions;
 
-    //
-    // constraints
-    //
+  }
 
-    for (int j = 0; j < num_objects; j++) {
-      IntVar[] b = new IntVar[num_alternatives];
-      for (int i = 0; i < num_alternatives; i++) {
-        b[i] = solver.makeProd(x[i], input[i][j]).var();
-      }
+  /**
+   * This is an integer programming solver.
+   * 
+   * @param input
+   *          The input array of alternatives.
+   * @param cost
+   *          The cost array of the alternatives.
+   * @param symmetries
+   *          The pairs of equivalent points of interest.
+   * @param budget
+   *          The time and branch budget of the search.
+   * @return a list of the indexes of the solution alternatives.
+   */
+  public static ArrayList<Integer> solve2 (int[][] input, double[] cost,
+                                           int[][] symmetries,
+                                           boolean isolated,
+                                           SolverBudget budget)
+  {
 
-      solver.addConstraint(solver.makeSumLessOrEqual(b, 1));
+    Solver solver =
+      NativeResources.createSolver("Integer Programming",
+                                   NativeResources.estimateModelObjects(input));
 
-    }
+    try {
+      int num_objects = input[0].length;
 
-    //
-    // objective
-    //
-    OptimizeVar objective = solver.makeMaximize(z, 1);
+      int solutionThreshold = 0;
 
-    //
-    // search
-    //
-    DecisionBuilder db =
-      solver.makePhase(x, Solver.INT_VAR_DEFAULT, Solver.INT_VALUE_DEFAULT);
-    solver.newSearch(db, objective);
+      if (input[0].length < 10)
+        solutionThreshold = Constants.SOLUTION_THRESHOLD_UNDER_10;
+      else
+        solutionThreshold = Constants.SOLUTION_THRESHOLD_UNDER_20;
 
-    //
-    // output
-    //
+      if (!isolated)
+        log.info("Objects: " + num_objects + " Threshold: "
+                 + solutionThreshold);
 
-    // ArrayList<Integer> temp = ArrayList<Integer>()
-    ArrayList<Integer> temp = null;
-    while (solver.nextSolution()) {
-      temp = new ArrayList<Integer>();
-      log.debug("z: " + z.value());
-      log.debug("Selected alternatives: ");
-      for (int i = 0; i < num_alternatives; i++) {
-        if (x[i].value() == 1) {
-          log.debug((1 + i) + " ");
-          temp.add(i);
-        }
-      }
-      solutions.add(temp);
+      int[] costNew = scaleCost(cost);
 
-    }
-    solver.endSearch();
+      IntVar[] x = createModel(solver, input, symmetries, false);
 
-    // Statistics
-    log.info("");
-    log.info("Solutions: " + solver.solutions());
-    log.info("Failures: " + solver.failures());
-    log.info("Branches: " + solver.branches());
-    log.info("Wall time: " + solver.wallTime() + "ms");
+      IntVar z = solver.makeScalProd(x, costNew).var();
 
-    return solutions;
+      // The greedy solution is a lower bound of the objective, since the
+      // symmetry breaking keeps at least one solution of every value.
+      ArrayList<Integer> greedy =
+        addIncumbent(solver, z, input, costNew, false);
+
+      if (!isolated)
+        log.info("Greedy Incumbent: " + solutionValue(greedy, costNew));
+
+      return search(solver, x, z, input, costNew, greedy, false, isolated,
+                    budget);
+    }
+    finally {
+      NativeResources.release(solver);
+    }
 
   }
 
   /**
-   * This is an integer programming solver.
+   * Testing another type of solution.
    * 
    * @param input
    *          The input array of alternatives.
    * @param cost
    *          The cost array of the alternatives.
+   * @param budget
+   *          The time and branch budget of the search.
    * @return a list of the indexes of the solution alternatives.
    */
-  public static ArrayList<Integer> solve2 (int[][] input, double[] cost,
-                                           boolean isolated)
+  public static ArrayList<Integer> solve3 (int[][] input, double[] cost,
+                                           SolverBudget budget)
   {
 
-    Solver solver = new Solver("Integer Programming");
+    Solver solver =
+      NativeResources.createSolver("Integer Programming",
+                                   NativeResources.estimateModelObjects(input));
 
-    int num_alternatives = cost.length;
-    int num_objects = input[0].length;
+    try {
+      int[] costNew = scaleCost(cost);
 
-    int solutionThreshold = 0;
+      IntVar[] x = createModel(solver, input, new int[0][], true);
 
-    if (input[0].length < 10)
-      solutionThreshold = Constants.SOLUTION_THRESHOLD_UNDER_10;
-    else
-      solutionThreshold = Constants.SOLUTION_THRESHOLD_UNDER_20;
+      IntVar z = solver.makeScalProd(x, costNew).var();
 
-    if (!isolated)
-      log.info("Objects: " + num_objects + " Threshold: " + solutionThreshold);
+      // In case the greedy procedure covers all the points, its solution is a
+      // lower bound of the objective.
+      ArrayList<Integer> greedy =
+        addIncumbent(solver, z, input, costNew, true);
+
+      log.info("Greedy Incumbent: " + solutionValue(greedy, costNew));
+
+      return search(solver, x, z, input, costNew, greedy, true, false, budget);
+    }
+    finally {
+      NativeResources.release(solver);
+    }
+
+  }
 
+  /**
+   * This function is used for converting the similarities of the alternatives
+   * to the integer costs used by the solver.
+   */
+  static int[] scaleCost (double[] cost)
+  {
     int[] costNew = new int[cost.length];
 
     for (int i = 0; i < costNew.length; i++)
       costNew[i] = (int) (10000 * cost[i]);
 
+    return costNew;
+  }
+
+  /**
+   * This function is used for adding the variables and the constraints of a
+   * problem to a solver. Each point of interest is used at most once (exactly
+   * once for the full solution) and the second of two equivalent points is
+   * used only if the first is used.
+   * 
+   * @param solver
+   *          The solver.
+   * @param input
+   *          The input array of alternatives.
+   * @param symmetries
+   *          The pairs of equivalent points of interest.
+   * @param exact
+   *          The flag that shows that all the points must be used.
+   * @return the variables of the alternatives.
+   */
+  static IntVar[] createModel (Solver solver, int[][] input,
+                               int[][] symmetries, boolean exact)
+  {
+    int num_alternatives = input.length;
+    int num_objects = input[0].length;
+
     //
     // variables
     //
     IntVar[] x = solver.makeIntVarArray(num_alternatives, 0, 1, "x");
 
-    // number of assigned senators, to be minimize
-    IntVar z = solver.makeScalProd(x, costNew).var();
-
     //
     // constraints
     //
@@ -543,10 +1014,91 @@ public class LinearSolution
         b[i] = solver.makeProd(x[i], input[i][j]).var();
       }
 
-      solver.addConstraint(solver.makeSumLessOrEqual(b, 1));
+      if (exact)
+        solver.addConstraint(solver.makeSumEquality(b, 1));
+      else
+        solver.addConstraint(solver.makeSumLessOrEqual(b, 1));
 
     }
 
+    // The second of two equivalent points is used only if the first is used.
+    for (int[] pair: symmetries) {
+      int[] first = new int[num_alternatives];
+      int[] second = new int[num_alternatives];
+      for (int i = 0; i < num_alternatives; i++) {
+        first[i] = input[i][pair[0]];
+        second[i] = input[i][pair[1]];
+      }
+
+      solver.addConstraint(solver.makeGreaterOrEqual(solver.makeScalProd(x,
+                                                                         first),
+                                                     solver.makeScalProd(x,
+                                                                         second)));
+    }
+
+    return x;
+  }
+
+  /**
+   * This function is used for creating the greedy solution of a problem and
+   * adding its value as a lower bound of the objective.
+   * 
+   * @param solver
+   *          The solver.
+   * @param z
+   *          The objective variable.
+   * @param input
+   *          The input array of alternatives.
+   * @param costNew
+   *          The integer cost array of the alternatives.
+   * @param exact
+   *          The flag that shows that all the points must be used.
+   * @return a list of the indexes of the greedy solution alternatives.
+   */
+  static ArrayList<Integer> addIncumbent (Solver solver, IntVar z,
+                                          int[][] input, int[] costNew,
+                                          boolean exact)
+  {
+    ArrayList<Integer> greedy = greedySolution(input, costNew, exact);
+
+    if (greedy.size() > 0)
+      solver.addConstraint(solver.makeGreaterOrEqual(z,
+                                                     solutionValue(greedy,
+                                                                   costNew)));
+
+    return greedy;
+  }
+
+  /**
+   * This function is used for searching the best solution of a problem whose
+   * model has already been added to the solver. The most similar alternatives
+   * are tried first and the search respects the budget of the event. In case
+   * of the full solution, the search stops as soon as the objective is good
+   * enough.
+   * 
+   * @param solver
+   *          The solver.
+   * @param x
+   *          The variables of the alternatives.
+   * @param z
+   *          The objective variable.
+   * @param input
+   *          The input array of alternatives.
+   * @param costNew
+   *          The integer cost array of the alternatives.
+   * @param greedy
+   *          The greedy solution, used if the search finds no solution.
+   * @param exact
+   *          The flag that shows that all the points must be used.
+   * @param budget
+   *          The time and branch budget of the search.
+   * @return a list of the indexes of the solution alternatives.
+   */
+  static ArrayList<Integer> search (Solver solver, IntVar[] x, IntVar z,
+                                    int[][] input, int[] costNew,
+                                    ArrayList<Integer> greedy, boolean exact,
+                                    boolean isolated, SolverBudget budget)
+  {
     //
     // objective
     //
@@ -556,130 +1108,252 @@ public class LinearSolution
     // search
     //
     DecisionBuilder db =
-      solver.makePhase(x, Solver.INT_VAR_DEFAULT, Solver.INT_VALUE_DEFAULT);
-    solver.newSearch(db, objective);
+      solver.makePhase(similarityOrder(x, costNew),
+                       Solver.CHOOSE_FIRST_UNBOUND, Solver.ASSIGN_MAX_VALUE);
+    long reserved = budget.reserveBranches();
+    SearchLimit limit =
+      solver.makeLimit(budget.getRemainingTime(), reserved, Long.MAX_VALUE,
+                       Long.MAX_VALUE);
+
+    // The statistics of the solver are kept for all its searches.
+    long solutions = solver.solutions();
+    long failures = solver.failures();
+    long branches = solver.branches();
+    long wallTime = solver.wallTime();
+
+    solver.newSearch(db, objective, limit);
 
     //
     // output
     //
     ArrayList<Integer> temp = new ArrayList<Integer>();
+    long best = -1;
     while (solver.nextSolution()) {
       temp.clear();
+      best = z.value();
       if (!isolated)
         log.debug("z: " + z.value());
       // log.debug("Selected alternatives: ");
-      for (int i = 0; i < num_alternatives; i++) {
+      for (int i = 0; i < x.length; i++) {
         if (x[i].value() == 1) {
           // log.debug((1 + i) + " ");
           temp.add(i);
         }
       }
-      // if (z.value() > solutionThreshold)
-      // break;
+      if (exact && z.value() > Constants.OTHER_SOLUTION_THRESHOLD)
+        break;
       // System.out.println("\n");
 
     }
     solver.endSearch();
 
+    // In case the search ended without reaching a solution, the greedy one is
+    // used, but its optimality is not proven.
+    boolean fallback = false;
+    if (temp.size() == 0 && greedy.size() > 0) {
+      temp.addAll(greedy);
+      best = solutionValue(greedy, costNew);
+      fallback = true;
+    }
+
+    branches = solver.branches() - branches;
+
+    double gap =
+      registerSearch(limit.crossed() || fallback, input, costNew, best,
+                     reserved, branches, budget);
+
     // Statistics
     if (!isolated) {
       log.info("");
-      log.info("Solutions: " + solver.solutions());
-      log.info("Failures: " + solver.failures());
-      log.info("Branches: " + solver.branches());
-      log.info("Wall time: " + solver.wallTime() + "ms");
+      log.info("Solutions: " + (solver.solutions() - solutions));
+      log.info("Failures: " + (solver.failures() - failures));
+      log.info("Branches: " + branches);
+      log.info("Wall time: " + (solver.wallTime() - wallTime) + "ms");
+      if (limit.crossed())
+        log.info("Search Limit Reached. Optimality Gap: " + gap);
+      else if (fallback)
+        log.info("Greedy Solution Used. Optimality Gap: " + gap);
     }
 
     return temp;
-
   }
 
   /**
-   * Testing another type of solution.
+   * This function is used for creating a solution in a greedy way, by taking
+   * the alternatives in order of similarity and skipping any alternative that
+   * uses an already used point of interest.
    * 
    * @param input
    *          The input array of alternatives.
-   * @param cost
-   *          The cost array of the alternatives.
-   * @return a list of the indexes of the solution alternatives.
+   * @param costNew
+   *          The integer cost array of the alternatives.
+   * @param exact
+   *          The flag that shows that all the points must be used.
+   * @return a list of the indexes of the solution alternatives, empty in case
+   *         the exact solution could not be created.
    */
-  public static ArrayList<Integer> solve3 (int[][] input, double[] cost)
+  public static ArrayList<Integer> greedySolution (int[][] input,
+                                                   int[] costNew,
+                                                   boolean exact)
   {
+    ArrayList<Integer> result = new ArrayList<Integer>();
+    boolean[] used = new boolean[input[0].length];
+    int usedPoints = 0;
 
-    Solver solver = new Solver("Integer Programming");
+    for (int index: similarityOrder(costNew)) {
 
-    int num_alternatives = cost.length;
-    int num_objects = input[0].length;
+      boolean conflict = false;
+      for (int j = 0; j < used.length && !conflict; j++)
+        conflict = (input[index][j] == 1 && used[j]);
 
-    int[] costNew = new int[cost.length];
+      if (conflict)
+        continue;
 
-    for (int i = 0; i < costNew.length; i++)
-      costNew[i] = (int) (10000 * cost[i]);
+      result.add(index);
+      for (int j = 0; j < used.length; j++)
+        if (input[index][j] == 1) {
+          used[j] = true;
+          usedPoints++;
+        }
+    }
 
-    //
-    // variables
-    //
-    IntVar[] x = solver.makeIntVarArray(num_alternatives, 0, 1, "x");
+    if (exact && usedPoints < used.length)
+      result.clear();
 
-    // number of assigned senators, to be minimize
-    IntVar z = solver.makeScalProd(x, costNew).var();
+    Collections.sort(result);
 
-    //
-    // constraints
-    //
+    return result;
+  }
 
-    for (int j = 0; j < num_objects; j++) {
-      IntVar[] b = new IntVar[num_alternatives];
-      for (int i = 0; i < num_alternatives; i++) {
-        b[i] = solver.makeProd(x[i], input[i][j]).var();
+  /**
+   * This is an auxiliary function returning the value of the objective
+   * function for a solution.
+   */
+  private static long solutionValue (ArrayList<Integer> solution, int[] costNew)
+  {
+    long result = 0;
+
+    for (Integer index: solution)
+      result += costNew[index];
+
+    return result;
+  }
+
+  /**
+   * This is an auxiliary function returning the indices of the alternatives
+   * sorted by their similarity in descending order (equal ones by index).
+   */
+  static int[] similarityOrder (final int[] costNew)
+  {
+    Integer[] order = new Integer[costNew.length];
+    for (int i = 0; i < order.length; i++)
+      order[i] = i;
+
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare (Integer i1, Integer i2)
+      {
+        if (costNew[i1] != costNew[i2])
+          return Integer.compare(costNew[i2], costNew[i1]);
+        else
+          return Integer.compare(i1, i2);
       }
+    });
 
-      solver.addConstraint(solver.makeSumEquality(b, 1));
+    int[] result = new int[order.length];
+    for (int i = 0; i < order.length; i++)
+      result[i] = order[i];
 
-    }
+    return result;
+  }
 
-    //
-    // objective
-    //
-    OptimizeVar objective = solver.makeMaximize(z, 1);
+  /**
+   * This function returns the variables of the alternatives ordered by their
+   * similarity, so that the search tries the most similar alternatives first.
+   */
+  private static IntVar[] similarityOrder (IntVar[] x, int[] costNew)
+  {
+    int[] order = similarityOrder(costNew);
+    IntVar[] result = new IntVar[x.length];
 
-    //
-    // search
-    //
-    DecisionBuilder db =
-      solver.makePhase(x, Solver.INT_VAR_DEFAULT, Solver.INT_VALUE_DEFAULT);
-    solver.newSearch(db, objective);
+    for (int i = 0; i < order.length; i++)
+      result[i] = x[order[i]];
 
-    //
-    // output
-    //
-    ArrayList<Integer> temp = new ArrayList<Integer>();
-    while (solver.nextSolution()) {
-      temp.clear();
-      log.debug("z: " + z.value());
-      // log.debug("Selected alternatives: ");
-      for (int i = 0; i < num_alternatives; i++) {
-        if (x[i].value() == 1) {
-          // log.debug((1 + i) + " ");
-          temp.add(i);
-        }
-      }
-      if (z.value() > Constants.OTHER_SOLUTION_THRESHOLD)
-        break;
-      // System.out.println("\n");
+    return result;
+  }
 
+  /**
+   * This function is used for registering the branches spent by a search to
+   * the budget of the event and estimating the optimality gap of the best
+   * solution found in case the search was stopped by the limits.
+   * 
+   * @param unproven
+   *          The flag that shows that the search was stopped by the limits or
+   *          that its solution is the greedy one.
+   * @param input
+   *          The input array of alternatives.
+   * @param costNew
+   *          The integer cost array of the alternatives.
+   * @param best
+   *          The objective value of the best solution found (-1 if none).
+   * @param reserved
+   *          The number of branches reserved for the search.
+   * @param branches
+   *          The number of branches the search spent.
+   * @param budget
+   *          The time and branch budget of the search.
+   * @return the optimality gap of the best solution, or zero if its optimality
+   *         is proven.
+   */
+  private static double registerSearch (boolean unproven, int[][] input,
+                                        int[] costNew, long best,
+                                        long reserved, long branches,
+                                        SolverBudget budget)
+  {
+    double gap = 0;
+
+    if (unproven) {
+      long bound = upperBound(input, costNew);
+
+      if (best < 0)
+        gap = 1;
+      else if (bound > 0)
+        gap = Math.max(0, (double) (bound - best) / bound);
     }
-    solver.endSearch();
 
-    // Statistics
-    log.info("");
-    log.info("Solutions: " + solver.solutions());
-    log.info("Failures: " + solver.failures());
-    log.info("Branches: " + solver.branches());
-    log.info("Wall time: " + solver.wallTime() + "ms");
+    budget.consume(reserved, branches, unproven, gap);
 
-    return temp;
+    return gap;
+  }
 
+  /**
+   * This function estimates an upper bound of the objective function. Since
+   * each point of interest is used at most once, the objective cannot exceed
+   * the sum over the points of the best cost per point of any alternative
+   * containing them.
+   * 
+   * @param input
+   *          The input array of alternatives.
+   * @param costNew
+   *          The integer cost array of the alternatives.
+   * @return the upper bound of the objective function.
+   */
+  public static long upperBound (int[][] input, int[] costNew)
+  {
+    double[] perPoint = new double[input[0].length];
+
+    for (int i = 0; i < input.length; i++) {
+      double count = Utils.countPoints(input[i]);
+      for (int j = 0; j < input[i].length; j++)
+        if (input[i][j] == 1)
+          perPoint[j] = Math.max(perPoint[j], costNew[i] / count);
+    }
+
+    double result = 0;
+    for (double value: perPoint)
+      result += value;
+
+    return (long) Math.ceil(result);
   }
 
   public ArrayList<PointOfInterest[]> extractFinalPairs ()
@@ -699,13 +1373,21 @@ public class LinearSolution
 
   }
 
+  /**
+   * This function is used for printing the solution. It does not change the
+   * solution, since the solutions of the clusters are shared between the
+   * threads solving the different biases of an event.
+   */
   public void status ()
   {
+    // Without a solution all the points of interest remain.
+    ArrayList<PointOfInterest> remaining = remainingPoints;
+
     log.info("");
     log.info("Solution: ");
     if (solution.size() == 0) {
       log.info("No Available Solution");
-      remainingPoints = poiInput;
+      remaining = poiInput;
     }
     else {
       for (Integer index: solution)
@@ -714,9 +1396,9 @@ public class LinearSolution
                  + (1 / input.get(tempArray[index])));
     }
     log.info("Overall Distance: " + getOverallNormalizedDistance());
-    if (remainingPoints != null) {
-      log.info("Remaining Size: " + remainingPoints.size());
-      log.info("Remaining Points: " + remainingPoints.toString());
+    if (remaining != null) {
+      log.info("Remaining Size: " + remaining.size());
+      log.info("Remaining Points: " + remaining.toString());
     }
     else
       log.info("No Remaining Points");
@@ -0,0 +1,211 @@
+/*
+Copyright 2011-2013 The Cassandra Consortium (cassandra-fp7.eu)
+
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package eu.cassandra.utils;
+
+import java.util.ArrayList;
+
+import org.apache.log4j.Logger;
+
+import com.google.ortools.linearsolver.MPConstraint;
+import com.google.ortools.linearsolver.MPObjective;
+import com.google.ortools.linearsolver.MPSolver;
+import com.google.ortools.linearsolver.MPVariable;
+
+/**
+ * This class is used as an alternative to the constraint programming solver of
+ * the LinearSolution class. The selection of the alternatives is modelled as an
+ * integer program of the linear solver. The linear relaxation is solved first
+ * and in case it is integral, as it usually is for points of interest that do
+ * not interleave, its solution is accepted without any branching.
+ */
+public class MixedIntegerSolver
+{
+
+  static Logger log = Logger.getLogger(MixedIntegerSolver.class);
+
+  /**
+   * This constant is the tolerance used for deciding if a value of the linear
+   * relaxation is integral.
+   */
+  private static final double INTEGRALITY_TOLERANCE = 1.0E-6;
+
+  /** Loading a library for linear programming. */
+  static {
+    System.loadLibrary("jnilinearsolver");
+  }
+
+  /**
+   * This is an integer programming solver using the linear solver.
+   *
+   * @param input
+   *          The input array of alternatives.
+   * @param cost
+   *          The cost array of the alternatives.
+   * @param exact
+   *          The flag that shows that all the points must be used exactly once
+   *          (else at most once).
+   * @param isolated
+   *          The flag that shows that the event is isolated.
+   * @param budget
+   *          The time and branch budget of the search.
+   * @return a list of the indexes of the solution alternatives.
+   */
+  public static ArrayList<Integer> solve (int[][] input, double[] cost,
+                                          boolean exact, boolean isolated,
+                                          SolverBudget budget)
+  {
+    ArrayList<Integer> temp = new ArrayList<Integer>();
+
+    int[] costNew = new int[cost.length];
+
+    for (int i = 0; i < costNew.length; i++)
+      costNew[i] = (int) (10000 * cost[i]);
+
+    // Solving the linear relaxation
+    double bound = 0;
+    boolean integral = true;
+
+    long modelObjects = NativeResources.estimateModelObjects(input);
+
+    MPSolver relaxation =
+      NativeResources.createLinearSolver("Linear Relaxation",
+                                         MPSolver.CLP_LINEAR_PROGRAMMING,
+                                         modelObjects);
+
+    try {
+      MPVariable[] x = relaxation.makeNumVarArray(cost.length, 0, 1);
+      createModel(relaxation, x, input, costNew, exact);
+
+      int status = relaxation.solve();
+
+      if (status != MPSolver.OPTIMAL) {
+        if (!isolated)
+          log.info("Linear Relaxation Status: " + status);
+        return temp;
+      }
+
+      bound = relaxation.objectiveValue();
+
+      for (int i = 0; i < x.length; i++) {
+        double value = x[i].solutionValue();
+        if (value > 1 - INTEGRALITY_TOLERANCE)
+          temp.add(i);
+        else if (value > INTEGRALITY_TOLERANCE)
+          integral = false;
+      }
+
+      if (!isolated) {
+        log.info("");
+        log.info("Linear Relaxation Bound: " + bound + " Integral: "
+                 + integral);
+        log.info("Wall time: " + relaxation.wallTime() + "ms");
+      }
+    }
+    finally {
+      NativeResources.release(relaxation);
+    }
+
+    if (integral)
+      return temp;
+
+    // Solving the integer program, since the relaxation is fractional
+    temp.clear();
+
+    MPSolver solver =
+      NativeResources.createLinearSolver("Integer Programming",
+                                         MPSolver.CBC_MIXED_INTEGER_PROGRAMMING,
+                                         modelObjects);
+
+    try {
+      MPVariable[] x = solver.makeBoolVarArray(cost.length);
+      createModel(solver, x, input, costNew, exact);
+
+      if (budget.getRemainingTime() != Long.MAX_VALUE)
+        solver.setTimeLimit(budget.getRemainingTime());
+
+      int status = solver.solve();
+
+      if (status == MPSolver.OPTIMAL || status == MPSolver.FEASIBLE)
+        for (int i = 0; i < x.length; i++)
+          if (x[i].solutionValue() > 0.5)
+            temp.add(i);
+
+      boolean crossed =
+        (status == MPSolver.FEASIBLE || status == MPSolver.NOT_SOLVED);
+
+      double gap = 0;
+      if (crossed) {
+        if (temp.size() == 0)
+          gap = 1;
+        else if (bound > 0)
+          gap = Math.max(0, (bound - solver.objectiveValue()) / bound);
+      }
+
+      budget.consume(solver.nodes(), crossed, gap);
+
+      // Statistics
+      if (!isolated) {
+        log.info("");
+        log.info("Status: " + status);
+        log.info("Nodes: " + solver.nodes());
+        log.info("Iterations: " + solver.iterations());
+        log.info("Wall time: " + solver.wallTime() + "ms");
+        if (crossed)
+          log.info("Search Limit Reached. Optimality Gap: " + gap);
+      }
+    }
+    finally {
+      NativeResources.release(solver);
+    }
+
+    return temp;
+  }
+
+  /**
+   * This function is used for adding the constraints (each point of interest
+   * is used at most or exactly once) and the objective function (the overall
+   * similarity of the chosen alternatives) to a linear solver.
+   *
+   * @param solver
+   *          The linear solver.
+   * @param x
+   *          The variables of the alternatives.
+   * @param input
+   *          The input array of alternatives.
+   * @param costNew
+   *          The integer cost array of the alternatives.
+   * @param exact
+   *          The flag that shows that all the points must be used exactly once.
+   */
+  private static void createModel (MPSolver solver, MPVariable[] x,
+                                   int[][] input, int[] costNew, boolean exact)
+  {
+    for (int j = 0; j < input[0].length; j++) {
+      MPConstraint constraint =
+        solver.makeConstraint(exact ? 1 : 0, 1);
+      for (int i = 0; i < x.length; i++)
+        if (input[i][j] == 1)
+          constraint.setCoefficient(x[i], 1);
+    }
+
+    MPObjective objective = solver.objective();
+    for (int i = 0; i < x.length; i++)
+      objective.setCoefficient(x[i], costNew[i]);
+    objective.setMaximization();
+  }
+}
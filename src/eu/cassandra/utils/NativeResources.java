@@ -0,0 +1,186 @@
+/*
+Copyright 2011-2013 The Cassandra Consortium (cassandra-fp7.eu)
+
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package eu.cassandra.utils;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import com.google.ortools.constraintsolver.Solver;
+import com.google.ortools.linearsolver.MPSolver;
+
+/**
+ * This class is used for creating and releasing the native solvers of
+ * OR-tools. The memory of a solver (and of all the variables, constraints and
+ * search objects it owns) lives outside the Java heap and is otherwise
+ * released only when the garbage collector finalizes the Java wrapper, so each
+ * solver is deleted as soon as its problem is solved. The class also keeps
+ * the number of live solvers and an estimate of the native memory they use.
+ */
+public class NativeResources
+{
+
+  static Logger log = Logger.getLogger(NativeResources.class);
+
+  /**
+   * This constant is the estimated native memory (in bytes) of an empty
+   * solver.
+   */
+  public static final long SOLVER_BYTES = 16 * 1024;
+
+  /**
+   * This constant is the estimated native memory (in bytes) of each variable
+   * or constraint of a model.
+   */
+  public static final long MODEL_OBJECT_BYTES = 128;
+
+  /**
+   * This variable contains the estimated native memory of each live solver.
+   */
+  private static final Map<Object, Long> liveSolvers =
+    new IdentityHashMap<Object, Long>();
+
+  private static long estimatedBytes = 0;
+
+  private static long peakBytes = 0;
+
+  private static long createdSolvers = 0;
+
+  /**
+   * This function is used for creating a constraint programming solver.
+   *
+   * @param name
+   *          The name of the solver.
+   * @param modelObjects
+   *          The estimated number of variables and constraints of the model.
+   * @return The new solver.
+   */
+  public static Solver createSolver (String name, long modelObjects)
+  {
+    Solver solver = new Solver(name);
+
+    register(solver, modelObjects);
+
+    return solver;
+  }
+
+  /**
+   * This function is used for creating a linear solver.
+   *
+   * @param name
+   *          The name of the solver.
+   * @param type
+   *          The type of the linear solver.
+   * @param modelObjects
+   *          The estimated number of variables and constraints of the model.
+   * @return The new solver.
+   */
+  public static MPSolver createLinearSolver (String name, int type,
+                                            long modelObjects)
+  {
+    MPSolver solver = new MPSolver(name, type);
+
+    register(solver, modelObjects);
+
+    return solver;
+  }
+
+  /**
+   * This function is used for deleting a constraint programming solver along
+   * with all the native objects it owns.
+   */
+  public static void release (Solver solver)
+  {
+    if (solver == null)
+      return;
+
+    unregister(solver);
+    solver.delete();
+  }
+
+  /**
+   * This function is used for deleting a linear solver along with all the
+   * native objects it owns.
+   */
+  public static void release (MPSolver solver)
+  {
+    if (solver == null)
+      return;
+
+    unregister(solver);
+    solver.delete();
+  }
+
+  /**
+   * This function estimates the number of variables and constraints of the
+   * model of an integer programming problem (the variables of the
+   * alternatives, their products with each point and a constraint per point).
+   *
+   * @param input
+   *          The input array of alternatives.
+   * @return The estimated number of model objects.
+   */
+  public static long estimateModelObjects (int[][] input)
+  {
+    if (input.length == 0)
+      return 0;
+
+    return (long) input.length * (input[0].length + 2) + input[0].length;
+  }
+
+  private static synchronized void register (Object solver, long modelObjects)
+  {
+    long bytes = SOLVER_BYTES + modelObjects * MODEL_OBJECT_BYTES;
+
+    liveSolvers.put(solver, bytes);
+    estimatedBytes += bytes;
+    peakBytes = Math.max(peakBytes, estimatedBytes);
+    createdSolvers++;
+  }
+
+  private static synchronized void unregister (Object solver)
+  {
+    Long bytes = liveSolvers.remove(solver);
+
+    if (bytes != null)
+      estimatedBytes -= bytes;
+  }
+
+  public static synchronized int getLiveSolvers ()
+  {
+    return liveSolvers.size();
+  }
+
+  public static synchronized long getEstimatedBytes ()
+  {
+    return estimatedBytes;
+  }
+
+  public static synchronized long getPeakBytes ()
+  {
+    return peakBytes;
+  }
+
+  public static synchronized void status ()
+  {
+    log.info("Native Solvers Created: " + createdSolvers + " Live: "
+             + liveSolvers.size() + " Estimated Native Bytes: "
+             + estimatedBytes + " Peak: " + peakBytes);
+  }
+}
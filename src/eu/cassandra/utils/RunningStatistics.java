@@ -0,0 +1,159 @@
+/*
+Copyright 2011-2013 The Cassandra Consortium (cassandra-fp7.eu)
+
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package eu.cassandra.utils;
+
+import java.util.Arrays;
+
+/**
+ * This class is used for keeping the running mean and variance of a number of
+ * values with the Welford procedure, which is numerically stable and needs
+ * constant memory. Values can be added, removed again, and the statistics of
+ * two sets of values can be merged, so that the statistics are updated
+ * incrementally across runs.
+ */
+public class RunningStatistics
+{
+
+  private long count = 0;
+
+  private final double[] mean;
+
+  /**
+   * This variable contains the sum of the squared differences from the mean
+   * of each value.
+   */
+  private final double[] m2;
+
+  /**
+   * The constructor of empty running statistics.
+   *
+   * @param dimensions
+   *          The number of values of each sample.
+   */
+  public RunningStatistics (int dimensions)
+  {
+    mean = new double[dimensions];
+    m2 = new double[dimensions];
+  }
+
+  /**
+   * The constructor of running statistics with a known state (e.g. read from
+   * a file).
+   *
+   * @param count
+   *          The number of samples.
+   * @param mean
+   *          The mean of each value.
+   * @param m2
+   *          The sum of the squared differences from the mean of each value.
+   */
+  public RunningStatistics (long count, double[] mean, double[] m2)
+  {
+    this.count = count;
+    this.mean = Arrays.copyOf(mean, mean.length);
+    this.m2 = Arrays.copyOf(m2, m2.length);
+  }
+
+  /**
+   * This function is used for adding a sample.
+   */
+  public void add (double[] sample)
+  {
+    count++;
+
+    for (int d = 0; d < mean.length; d++) {
+      double delta = sample[d] - mean[d];
+      mean[d] += delta / count;
+      m2[d] += delta * (sample[d] - mean[d]);
+    }
+  }
+
+  /**
+   * This function is used for removing a sample that has been added before.
+   */
+  public void remove (double[] sample)
+  {
+    if (count <= 1) {
+      clear();
+      return;
+    }
+
+    count--;
+
+    for (int d = 0; d < mean.length; d++) {
+      double delta = sample[d] - mean[d];
+      mean[d] -= delta / count;
+      m2[d] = Math.max(0, m2[d] - delta * (sample[d] - mean[d]));
+    }
+  }
+
+  /**
+   * This function is used for merging the statistics of another set of
+   * samples.
+   */
+  public void merge (RunningStatistics other)
+  {
+    if (other.count == 0)
+      return;
+
+    long total = count + other.count;
+
+    for (int d = 0; d < mean.length; d++) {
+      double delta = other.mean[d] - mean[d];
+      mean[d] += delta * other.count / total;
+      m2[d] += other.m2[d] + delta * delta * count * other.count / total;
+    }
+
+    count = total;
+  }
+
+  public long getCount ()
+  {
+    return count;
+  }
+
+  public int getDimensions ()
+  {
+    return mean.length;
+  }
+
+  public double getMean (int dimension)
+  {
+    return mean[dimension];
+  }
+
+  public double getM2 (int dimension)
+  {
+    return m2[dimension];
+  }
+
+  /**
+   * This function returns the sample variance of a value.
+   */
+  public double getVariance (int dimension)
+  {
+    return (count > 1) ? m2[dimension] / (count - 1) : 0;
+  }
+
+  public void clear ()
+  {
+    count = 0;
+    Arrays.fill(mean, 0);
+    Arrays.fill(m2, 0);
+  }
+}
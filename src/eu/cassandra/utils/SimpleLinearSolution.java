@@ -1,6 +1,7 @@
 package eu.cassandra.utils;
 
 import java.util.ArrayList;
+import java.util.Map;
 
 import org.apache.log4j.Logger;
 
@@ -23,6 +24,56 @@ public class SimpleLinearSolution
   private ArrayList<PointOfInterest> remainingPoints =
     new ArrayList<PointOfInterest>();
 
+  /**
+   * This variable is the time and branch budget of the integer programming
+   * searches.
+   */
+  private SolverBudget budget = null;
+
+  /**
+   * This variable is the cache of the solution patterns of the events with
+   * the same points of interest.
+   */
+  private static SolutionCache cache =
+    new SolutionCache(Constants.SOLUTION_CACHE_SIZE);
+
+  /**
+   * This variable contains the final pairs in case the solution was found in
+   * the cache.
+   */
+  private ArrayList<PointOfInterest[]> cachedPairs = null;
+
+  /**
+   * This variable is the batch the problems are added to, in case they are
+   * solved together with the problems of other events.
+   */
+  private SolverBatch batch = null;
+
+  /**
+   * This variable is the signature of the problem in the cache (null if it
+   * cannot be cached).
+   */
+  private String signature = null;
+
+  private boolean isolated = false;
+
+  /**
+   * This variable is the time (in milliseconds) spent for creating the
+   * combinations of the problems.
+   */
+  private double enumerationTime = 0;
+
+  /**
+   * This variable is the number of candidate combinations of the partial
+   * problem.
+   */
+  private int candidates = 0;
+
+  /**
+   * This variable shows that the solution has been chosen.
+   */
+  private boolean completed = false;
+
   /**
    * This function is used in case of a small number of points of interest in
    * the event. This procedure uses integer programming in order to find the
@@ -38,34 +89,166 @@ public class SimpleLinearSolution
    */
   public SimpleLinearSolution (ArrayList<PointOfInterest> temp, boolean isolated)
     throws Exception
+  {
+    this(temp, isolated, new SolverBudget());
+  }
+
+  /**
+   * This function is used when the integer programming searches must respect
+   * the time and branch budget of the event.
+   * 
+   * @param temp
+   *          The list of points of interest.
+   * @param budget
+   *          The time and branch budget of the event.
+   * @throws Exception
+   */
+  public SimpleLinearSolution (ArrayList<PointOfInterest> temp,
+                               boolean isolated, SolverBudget budget)
+    throws Exception
+  {
+    this(temp, isolated, budget, null);
+  }
+
+  /**
+   * This function is used when the integer programming problems are added to a
+   * batch of problems of many events. The solution is chosen after calling the
+   * complete function, once the batch is solved.
+   * 
+   * @param temp
+   *          The list of points of interest.
+   * @param budget
+   *          The time and branch budget of the event.
+   * @param batch
+   *          The batch of problems, or null in order to solve at once.
+   * @throws Exception
+   */
+  public SimpleLinearSolution (ArrayList<PointOfInterest> temp,
+                               boolean isolated, SolverBudget budget,
+                               SolverBatch batch) throws Exception
   {
     poiInput = temp;
+    this.budget = budget;
+    this.batch = batch;
+    this.isolated = isolated;
+
+    // The combinations are created once for both the partial and the full
+    // solution (the full one is not needed for isolated events).
+    int[] thresholds = null;
+    if (isolated)
+      thresholds = new int[] { LinearSolution.distanceThreshold(false, false) };
+    else
+      thresholds =
+        new int[] { LinearSolution.distanceThreshold(false, false),
+                   LinearSolution.distanceThreshold(false, true) };
+
+    // In case the same problem has already been solved, the solution pattern
+    // is used without creating the combinations or calling the solver. The
+    // distance of the pattern is estimated again on the points of this event.
+    signature = SolutionCache.signature(temp, isolated, thresholds);
+    SolutionCache.Pattern pattern = null;
+    if (signature != null)
+      pattern = cache.get(signature, temp);
+
+    if (pattern != null) {
+      cachedPairs = pattern.createFinalPairs(temp);
+      remainingPoints = pattern.createRemainingPoints(temp);
+      overallNormalizedDistance = pattern.estimateDistance(temp);
+      completed = true;
+
+      if (!isolated)
+        status();
+    }
+    else {
+      long start = SolverController.threadTime();
+
+      ArrayList<Map<int[], Double>> combinations =
+        LinearSolution.findCombinations(new ArrayList<PointOfInterest>(temp),
+                                        thresholds);
+
+      enumerationTime = SolverController.elapsed(start);
+      candidates = combinations.get(0).size();
+
+      solve(isolated, combinations);
+
+      if (batch == null)
+        complete();
+    }
+
+  }
+
+  /**
+   * This function is used for choosing the solution, after the problems of the
+   * batch are solved. It does nothing if the solution is already chosen.
+   * 
+   * @throws Exception
+   */
+  public void complete () throws Exception
+  {
+    if (completed)
+      return;
+
+    completed = true;
 
-    solve(isolated);
+    for (LinearSolution partial: partialSolution)
+      partial.complete();
+
+    if (fullSolution != null) {
+      fullSolution.complete();
+
+      // The full solution is created along with the partial one in a batch,
+      // so it is discarded here if it is not needed.
+      if (partialSolution.get(0).getRemainingPoints() == null) {
+        log.info("No Points Remaining.");
+        fullSolution = null;
+      }
+    }
+
+    addExcessivePoints();
 
     chooseSolution(isolated);
 
+    recordTime();
+
+    // The solutions of the excessive points are found on combinations of a
+    // different threshold, so they are not kept.
+    if (signature != null && !budget.isLimitReached()
+        && !(choosePartial && partialSolution.size() > 1))
+      cache.put(signature, createPattern());
+
     if (!isolated)
       status();
-
   }
 
-  private void solve (boolean isolated)
+  private void solve (boolean isolated,
+                      ArrayList<Map<int[], Double>> combinations)
   {
 
     ArrayList<PointOfInterest> temp = new ArrayList<PointOfInterest>(poiInput);
 
-    LinearSolution partial = new LinearSolution(temp, false, false, isolated);
+    LinearSolution partial =
+      new LinearSolution(temp, false, false, isolated, combinations.get(0),
+                         budget, batch);
     partialSolution.add(partial);
 
     if (!isolated) {
-      if (partial.getRemainingPoints() != null)
+      if (batch != null || partial.getRemainingPoints() != null)
         fullSolution =
           new LinearSolution(new ArrayList<PointOfInterest>(temp), false, true,
-                             isolated);
+                             isolated, combinations.get(1), budget, batch);
       else
         log.info("No Points Remaining.");
     }
+  }
+
+  /**
+   * This function is used for solving again the points that remain after the
+   * partial solution, in case they are too many.
+   */
+  private void addExcessivePoints ()
+  {
+    LinearSolution partial = partialSolution.get(0);
+    ArrayList<PointOfInterest> temp = null;
 
     if (partial.getRemainingPoints() != null
         && partial.getRemainingPoints().size() > Constants.ADD_CLUSTER_THRESHOLD) {
@@ -74,7 +257,13 @@ public class SimpleLinearSolution
                 .getRemainingPoints());
       log.info("Excessive Points Size: " + temp.size());
       log.info("Excessive Points: " + temp.toString());
-      partial = new LinearSolution(temp, true, true, isolated);
+      int[] threshold = { LinearSolution.distanceThreshold(true, true) };
+      long start = SolverController.threadTime();
+      Map<int[], Double> combinations =
+        LinearSolution.findCombinations(temp, threshold).get(0);
+      enumerationTime += SolverController.elapsed(start);
+      partial =
+        new LinearSolution(temp, true, true, isolated, combinations, budget);
       partialSolution.add(partial);
       partialSolution.get(0).getRemainingPoints().clear();
     }
@@ -121,11 +310,103 @@ public class SimpleLinearSolution
     }
   }
 
+  /**
+   * This function is used for recording the time of the whole solution of the
+   * points of interest (combinations, partial and full problems) to the
+   * controller of the solver.
+   */
+  private void recordTime ()
+  {
+    double time = enumerationTime;
+
+    for (LinearSolution partial: partialSolution)
+      time += partial.getSolveTime();
+
+    if (fullSolution != null)
+      time += fullSolution.getSolveTime();
+
+    LinearSolution.getController().recordProblem(poiInput.size(), candidates,
+                                                 time);
+  }
+
+  /**
+   * This function is used for creating the solution pattern of the chosen
+   * solution, with the indices of the combined and the remaining points of
+   * interest in the list of all the points.
+   * 
+   * @return The solution pattern.
+   */
+  private SolutionCache.Pattern createPattern ()
+  {
+    ArrayList<LinearSolution> chosen = new ArrayList<LinearSolution>();
+    if (choosePartial)
+      chosen.addAll(partialSolution);
+    else
+      chosen.add(fullSolution);
+
+    ArrayList<int[]> combinations = new ArrayList<int[]>();
+
+    for (LinearSolution linear: chosen)
+      for (Integer index: linear.getSolution()) {
+        int[] array = new int[poiInput.size()];
+        int[] points = linear.getTempArray()[index];
+        for (int j = 0; j < points.length; j++)
+          if (points[j] == 1)
+            array[indexOf(linear.getPoiInput().get(j))] = 1;
+        combinations.add(array);
+      }
+
+    int[] remaining = null;
+    if (remainingPoints != null) {
+      remaining = new int[remainingPoints.size()];
+      for (int i = 0; i < remaining.length; i++)
+        remaining[i] = indexOf(remainingPoints.get(i));
+    }
+
+    return new SolutionCache.Pattern(combinations.toArray(new int[0][]),
+                                     remaining, choosePartial ? 0 : 1);
+  }
+
+  /**
+   * This is an auxiliary function returning the index of a point of interest
+   * in the list of all the points.
+   */
+  private int indexOf (PointOfInterest poi)
+  {
+    for (int i = 0; i < poiInput.size(); i++)
+      if (poiInput.get(i) == poi)
+        return i;
+
+    return -1;
+  }
+
+  /**
+   * This function returns the cache of the solution patterns.
+   */
+  public static SolutionCache getCache ()
+  {
+    return cache;
+  }
+
+  public double getOverallNormalizedDistance ()
+  {
+    return overallNormalizedDistance;
+  }
+
   public void status ()
   {
     log.info("");
     log.info("Simple Solution: ");
 
+    if (cachedPairs != null) {
+      log.info("=========CACHED SOLUTION=============");
+      log.info("Final Pairs: " + cachedPairs.size());
+      log.info("Overall Normalized Distance: " + overallNormalizedDistance);
+      log.info("Remaining Points: " + remainingPoints);
+      log.info("");
+      return;
+    }
+
     if (choosePartial) {
       log.info("=========PARTIAL SOLUTION=============");
       for (int i = 0; i < partialSolution.size(); i++) {
@@ -155,7 +436,9 @@ public class SimpleLinearSolution
     ArrayList<PointOfInterest[]> finalPairs =
       new ArrayList<PointOfInterest[]>();
 
-    if (choosePartial)
+    if (cachedPairs != null)
+      finalPairs.addAll(cachedPairs);
+    else if (choosePartial)
       for (int i = 0; i < partialSolution.size(); i++)
         finalPairs.addAll(partialSolution.get(i).extractFinalPairs());
     else
@@ -0,0 +1,362 @@
+/*
+Copyright 2011-2013 The Cassandra Consortium (cassandra-fp7.eu)
+
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package eu.cassandra.utils;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+/**
+ * This class is used for keeping the solutions of the integer programming
+ * problems of the events with few points of interest. Repeating appliances
+ * (refrigerators, freezers, boilers) create almost the same points of interest
+ * again and again, so the problems are identified by a signature of the
+ * quantized active and reactive power differences of the points in
+ * chronological order, together with the pairs of points that are accepted by
+ * the distance thresholds, and the solution pattern (which points are combined
+ * together and which remain) is reused for every event with the same
+ * signature. The least recently used solutions are removed when the cache is
+ * full.
+ */
+public class SolutionCache
+{
+
+  static Logger log = Logger.getLogger(SolutionCache.class);
+
+  /**
+   * This class is the solution pattern of a problem. The combinations and the
+   * remaining points contain the indices of the points of interest in
+   * chronological order.
+   */
+  public static class Pattern
+  {
+    /**
+     * This variable contains the arrays of the combined points of interest.
+     */
+    private final int[][] combinations;
+
+    /**
+     * This variable contains the indices of the remaining points of interest
+     * (null if there are no remaining points).
+     */
+    private final int[] remaining;
+
+    /**
+     * This variable is the index of the combinations map the pattern was
+     * solved on (0 for the partial and 1 for the full solution).
+     */
+    private final int source;
+
+    public Pattern (int[][] combinations, int[] remaining, int source)
+    {
+      this.combinations = combinations;
+      this.remaining = remaining;
+      this.source = source;
+    }
+
+    /**
+     * This function is used for mapping the combinations of the pattern on the
+     * points of interest of a new event, creating the final pairs.
+     *
+     * @param pois
+     *          The points of interest of the event in chronological order.
+     * @return The final pairs of the event.
+     */
+    public ArrayList<PointOfInterest[]>
+      createFinalPairs (ArrayList<PointOfInterest> pois)
+    {
+      ArrayList<PointOfInterest[]> result = new ArrayList<PointOfInterest[]>();
+
+      for (int[] array: combinations)
+        result.addAll(Utils.createFinalPairs(pois, array));
+
+      return result;
+    }
+
+    /**
+     * This function is used for mapping the remaining points of the pattern on
+     * the points of interest of a new event.
+     *
+     * @param pois
+     *          The points of interest of the event in chronological order.
+     * @return The remaining points of interest of the event.
+     */
+    public ArrayList<PointOfInterest>
+      createRemainingPoints (ArrayList<PointOfInterest> pois)
+    {
+      if (remaining == null)
+        return null;
+
+      ArrayList<PointOfInterest> result = new ArrayList<PointOfInterest>();
+
+      for (int index: remaining)
+        result.add(pois.get(index));
+
+      return result;
+    }
+
+    /**
+     * This function is used for checking that every combination of the
+     * pattern is accepted by the distance threshold on the points of interest
+     * of a new event, since the signature contains only the accepted pairs of
+     * points.
+     *
+     * @param pois
+     *          The points of interest of the event in chronological order.
+     * @return true if the pattern can be used for the event, false otherwise.
+     */
+    public boolean accepts (ArrayList<PointOfInterest> pois)
+    {
+      int threshold = LinearSolution.distanceThreshold(false, source == 1);
+
+      for (int[] array: combinations)
+        if (LinearSolution.combinationSimilarity(pois, array, threshold) == 0)
+          return false;
+
+      return true;
+    }
+
+    /**
+     * This function is used for estimating the overall normalized distance of
+     * the pattern on the points of interest of a new event, the same way as
+     * the linear solution does, since the similarities of the combinations
+     * are not the same as the ones of the event the pattern was solved for.
+     *
+     * @param pois
+     *          The points of interest of the event in chronological order.
+     * @return The overall normalized distance of the pattern.
+     */
+    public double estimateDistance (ArrayList<PointOfInterest> pois)
+    {
+      if (combinations.length == 0)
+        return Double.POSITIVE_INFINITY;
+
+      int threshold = LinearSolution.distanceThreshold(false, source == 1);
+
+      double result = 0;
+
+      for (int[] array: combinations) {
+        double similarity =
+          LinearSolution.combinationSimilarity(pois, array, threshold);
+        if (similarity == 0)
+          return Double.POSITIVE_INFINITY;
+        result += (1 / similarity) / Utils.countPoints(array);
+      }
+
+      if (remaining != null)
+        for (int index: remaining)
+          result +=
+            Math.abs(pois.get(index).getPDiff())
+                    * Constants.REMAINING_POINTS_POWER_PENALTY;
+
+      return result;
+    }
+
+    public int getSource ()
+    {
+      return source;
+    }
+  }
+
+  /**
+   * This variable contains the solution patterns, ordered from the least to
+   * the most recently used.
+   */
+  private final LinkedHashMap<String, Pattern> patterns;
+
+  /**
+   * This variable is the maximum number of patterns in the cache.
+   */
+  private int capacity;
+
+  private long hits = 0;
+
+  private long misses = 0;
+
+  private long evictions = 0;
+
+  /**
+   * The constructor of the cache.
+   *
+   * @param capacity
+   *          The maximum number of patterns in the cache.
+   */
+  public SolutionCache (int capacity)
+  {
+    this.capacity = capacity;
+
+    patterns = new LinkedHashMap<String, Pattern>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry (Map.Entry<String, Pattern> eldest)
+      {
+        if (size() > SolutionCache.this.capacity) {
+          evictions++;
+          return true;
+        }
+        return false;
+      }
+    };
+  }
+
+  /**
+   * This function is used for creating the signature of a problem before its
+   * combinations are enumerated. Problems whose points are further apart than
+   * the temporal threshold are not cached, since the time limit of the
+   * combinations would then depend on the exact minutes of the points. The
+   * candidate points of each point and the distance thresholds accepting each
+   * pair of them are part of the signature, so that points that are quantized
+   * the same but lie on different sides of a threshold do not share a
+   * pattern. The patterns of larger combinations are checked again when they
+   * are used.
+   *
+   * @param pois
+   *          The points of interest of the event in chronological order.
+   * @param isolated
+   *          The flag that shows that the event is isolated.
+   * @param thresholds
+   *          The distance thresholds of the combinations of the event.
+   * @return The signature of the problem, or null if it cannot be cached.
+   */
+  public static String signature (ArrayList<PointOfInterest> pois,
+                                  boolean isolated, int[] thresholds)
+  {
+    if (pois.size() == 0 || Constants.SOLUTION_CACHE_SIZE <= 0)
+      return null;
+
+    int duration =
+      pois.get(pois.size() - 1).getMinute() - pois.get(0).getMinute();
+
+    if (Constants.SIMPLE_TIME_COMPLEXITY
+        && duration > Constants.TEMPORAL_THRESHOLD)
+      return null;
+
+    StringBuilder result = new StringBuilder(isolated ? "I" : "E");
+
+    for (PointOfInterest poi: pois)
+      result.append(poi.getRising() ? '+' : '-')
+              .append(quantize(poi.getPDiff())).append(',')
+              .append(quantize(poi.getQDiff())).append(';');
+
+    for (int i = 0; i < pois.size(); i++) {
+      PointOfInterest poi = pois.get(i);
+
+      Integer[] points = null;
+      if (poi.getRising())
+        points = Utils.findRedPoints(i, pois);
+      else
+        points = Utils.findRisPoints(i, pois);
+
+      result.append('|');
+
+      for (Integer index: points) {
+        double similarity =
+          LinearSolution.similarity(poi, pois.get(index).getPDiff(),
+                                    pois.get(index).getQDiff());
+
+        result.append(index).append(':');
+        for (int threshold: thresholds)
+          result.append((1 / similarity) < threshold ? '1' : '0');
+        result.append(';');
+      }
+    }
+
+    return result.toString();
+  }
+
+  /**
+   * This is an auxiliary function rounding a power difference to the
+   * quantization step of the cache.
+   */
+  private static long quantize (double value)
+  {
+    return Math.round(value / Constants.SOLUTION_CACHE_QUANTUM);
+  }
+
+  /**
+   * This function returns the pattern of a signature, or null if it is not
+   * stored or it cannot be used for the points of interest of the event.
+   *
+   * @param signature
+   *          The signature of the problem.
+   * @param pois
+   *          The points of interest of the event in chronological order.
+   * @return The pattern of the signature.
+   */
+  public synchronized Pattern get (String signature,
+                                   ArrayList<PointOfInterest> pois)
+  {
+    Pattern result = patterns.get(signature);
+
+    if (result != null && !result.accepts(pois))
+      result = null;
+
+    if (result == null)
+      misses++;
+    else
+      hits++;
+
+    return result;
+  }
+
+  /**
+   * This function is used for changing the maximum number of patterns in the
+   * cache, removing the least recently used patterns if needed.
+   *
+   * @param capacity
+   *          The maximum number of patterns in the cache.
+   */
+  public synchronized void setCapacity (int capacity)
+  {
+    this.capacity = capacity;
+
+    Iterator<String> iterator = patterns.keySet().iterator();
+    while (patterns.size() > Math.max(capacity, 0) && iterator.hasNext()) {
+      iterator.next();
+      iterator.remove();
+      evictions++;
+    }
+  }
+
+  public synchronized void put (String signature, Pattern pattern)
+  {
+    patterns.put(signature, pattern);
+  }
+
+  public synchronized void clear ()
+  {
+    patterns.clear();
+    hits = 0;
+    misses = 0;
+    evictions = 0;
+  }
+
+  public synchronized void status ()
+  {
+    long requests = hits + misses;
+
+    log.info("Solution Cache Size: " + patterns.size() + " Hits: " + hits
+             + " Misses: " + misses + " Evictions: " + evictions
+             + " Hit Ratio: "
+             + ((requests == 0) ? 0 : (double) hits / requests));
+  }
+}
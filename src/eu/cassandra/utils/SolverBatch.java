@@ -0,0 +1,270 @@
+/*
+Copyright 2011-2013 The Cassandra Consortium (cassandra-fp7.eu)
+
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package eu.cassandra.utils;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+
+import org.apache.log4j.Logger;
+
+import com.google.ortools.constraintsolver.IntVar;
+import com.google.ortools.constraintsolver.Solver;
+
+/**
+ * This class is used for solving together the small integer programming
+ * problems of many events. The problems are collected while the events are
+ * prepared and are then solved on the shared threads. The partial solution
+ * problems are split in sessions of up to the batch size of problems and the
+ * problems of a session are solved one after the other on the same solver, so
+ * that only their variables and constraints are created for each of them
+ * instead of a new solver. The full solution problems may be infeasible, which
+ * would make every later search of a shared solver fail, so each one is solved
+ * with its own solver. The solutions are returned to the events that created
+ * the problems.
+ */
+public class SolverBatch
+{
+
+  static Logger log = Logger.getLogger(SolverBatch.class);
+
+  /**
+   * This class contains a problem of the batch and its solution.
+   */
+  private static class Problem
+  {
+    int[][] input;
+
+    double[] cost;
+
+    int[][] symmetries;
+
+    boolean exact;
+
+    SolverBudget budget;
+
+    ArrayList<Integer> solution = null;
+
+    double time = 0;
+  }
+
+  /**
+   * This variable contains the problems of the batch in the order they were
+   * added.
+   */
+  private ArrayList<Problem> problems = new ArrayList<Problem>();
+
+  /**
+   * This variable is the number of problems that have already been solved.
+   */
+  private int solved = 0;
+
+  /**
+   * This function is used for adding a problem to the batch.
+   *
+   * @param input
+   *          The input array of alternatives.
+   * @param cost
+   *          The cost array of the alternatives.
+   * @param symmetries
+   *          The pairs of equivalent points of interest.
+   * @param exact
+   *          The flag that shows that all the points must be used.
+   * @param budget
+   *          The time and branch budget of the event.
+   * @return The index of the problem in the batch.
+   */
+  public synchronized int add (int[][] input, double[] cost,
+                               int[][] symmetries, boolean exact,
+                               SolverBudget budget)
+  {
+    Problem problem = new Problem();
+    problem.input = input;
+    problem.cost = cost;
+    problem.symmetries = symmetries;
+    problem.exact = exact;
+    problem.budget = budget;
+
+    problems.add(problem);
+
+    return problems.size() - 1;
+  }
+
+  /**
+   * This function is used for solving all the problems of the batch that are
+   * not solved yet. The sessions of the partial solution problems have up to
+   * the batch size of problems, but are not larger than needed for keeping all
+   * the shared threads busy.
+   *
+   * @throws Exception
+   */
+  public synchronized void solve () throws Exception
+  {
+    if (solved == problems.size())
+      return;
+
+    ArrayList<Problem> partial = new ArrayList<Problem>();
+    ArrayList<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+
+    for (int i = solved; i < problems.size(); i++) {
+      final Problem problem = problems.get(i);
+
+      if (problem.exact)
+        tasks.add(new Callable<Object>() {
+          @Override
+          public Object call () throws Exception
+          {
+            solveProblem(problem);
+            return null;
+          }
+        });
+      else
+        partial.add(problem);
+    }
+
+    int threads = Math.max(1, Constants.SOLVER_THREADS);
+    int sessionSize =
+      Math.max(1, Math.min(Constants.SOLVER_BATCH_SIZE,
+                           (partial.size() + threads - 1) / threads));
+
+    for (int i = 0; i < partial.size(); i += sessionSize) {
+      int last = Math.min(partial.size(), i + sessionSize);
+
+      final ArrayList<Problem> session =
+        new ArrayList<Problem>(partial.subList(i, last));
+
+      tasks.add(new Callable<Object>() {
+        @Override
+        public Object call () throws Exception
+        {
+          solveSession(session);
+          return null;
+        }
+      });
+    }
+
+    long start = System.nanoTime();
+
+    Utils.invokeAll(tasks, Constants.SOLVER_THREADS);
+
+    log.info("Batch of " + (problems.size() - solved) + " problems solved in "
+             + tasks.size() + " sessions. Wall time: "
+             + (System.nanoTime() - start) / 1000000 + "ms");
+
+    solved = problems.size();
+  }
+
+  /**
+   * This function is used for solving a full solution problem of the batch
+   * with its own solver.
+   *
+   * @param problem
+   *          The problem of the batch.
+   */
+  private static void solveProblem (Problem problem)
+  {
+    long start = SolverController.threadTime();
+
+    problem.solution =
+      LinearSolution.solve3(problem.input, problem.cost, problem.budget);
+
+    problem.time = SolverController.elapsed(start);
+  }
+
+  /**
+   * This function is used for solving the partial solution problems of a
+   * session one after the other on the same solver. The model of each problem
+   * is added next to the models of the previous ones and only its own
+   * variables are searched. The models of the previous problems stay feasible
+   * (using no alternative satisfies their constraints and their greedy
+   * solutions satisfy their incumbent bounds), so they do not affect the
+   * search. The time of creating the solver is counted to the first problem.
+   *
+   * @param session
+   *          The partial solution problems of the session.
+   */
+  private static void solveSession (ArrayList<Problem> session)
+  {
+    long start = SolverController.threadTime();
+
+    long modelObjects = 0;
+    for (Problem problem: session)
+      modelObjects += NativeResources.estimateModelObjects(problem.input);
+
+    Solver solver =
+      NativeResources.createSolver("Integer Programming Session", modelObjects);
+
+    try {
+      for (Problem problem: session) {
+        int[] costNew = LinearSolution.scaleCost(problem.cost);
+
+        IntVar[] x =
+          LinearSolution.createModel(solver, problem.input,
+                                     problem.symmetries, false);
+
+        IntVar z = solver.makeScalProd(x, costNew).var();
+
+        ArrayList<Integer> greedy =
+          LinearSolution.addIncumbent(solver, z, problem.input, costNew,
+                                      false);
+
+        problem.solution =
+          LinearSolution.search(solver, x, z, problem.input, costNew, greedy,
+                                false, true, problem.budget);
+
+        problem.time = SolverController.elapsed(start);
+
+        start = SolverController.threadTime();
+      }
+    }
+    finally {
+      NativeResources.release(solver);
+    }
+  }
+
+  /**
+   * This function returns the solution of a problem of the batch, solving the
+   * batch first if the problem is not solved yet.
+   *
+   * @param index
+   *          The index of the problem in the batch.
+   * @return a list of the indexes of the solution alternatives.
+   * @throws Exception
+   */
+  public synchronized ArrayList<Integer> getSolution (int index)
+    throws Exception
+  {
+    if (problems.get(index).solution == null)
+      solve();
+
+    return problems.get(index).solution;
+  }
+
+  /**
+   * This function returns the time (in milliseconds) spent for solving a
+   * problem of the batch.
+   */
+  public synchronized double getTime (int index)
+  {
+    return problems.get(index).time;
+  }
+
+  public synchronized int size ()
+  {
+    return problems.size();
+  }
+}
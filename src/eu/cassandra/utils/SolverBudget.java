@@ -0,0 +1,225 @@
+/*
+Copyright 2011-2013 The Cassandra Consortium (cassandra-fp7.eu)
+
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package eu.cassandra.utils;
+
+/**
+ * This class is used for keeping the wall clock time and the number of
+ * branches that the integer programming searches of a single event are allowed
+ * to spend. The searches that run out of budget keep the best solution found
+ * up to that point and the largest optimality gap of these solutions is kept
+ * for reporting. The budget can be shared between the concurrent searches of
+ * the same event: each search reserves its branches before it starts and
+ * returns the ones it did not spend, so the searches together never spend
+ * more than the budget.
+ */
+public class SolverBudget
+{
+
+  /**
+   * This variable is the wall clock time (in milliseconds) available for the
+   * searches of the event (zero or less for no limit).
+   */
+  private final long timeLimit;
+
+  /**
+   * This variable is the time (in milliseconds) after which no search of the
+   * event is allowed to continue. It is set when the first search starts, so
+   * that the time an event waits for a batch of problems is not counted.
+   */
+  private long deadline = -1;
+
+  /**
+   * This variable shows that the number of branches is not limited.
+   */
+  private final boolean unlimitedBranches;
+
+  /**
+   * This variable is the number of branches that are neither spent nor
+   * reserved by a running search.
+   */
+  private long remainingBranches;
+
+  /**
+   * This variable is the number of searches that may run at the same time
+   * using the budget. Each search reserves an equal share of the remaining
+   * branches.
+   */
+  private int parallelism = 1;
+
+  /**
+   * This variable shows if any of the searches of the event has been stopped
+   * due to the time or branch limit.
+   */
+  private volatile boolean limitReached = false;
+
+  /**
+   * This variable is the number of the searches that have been stopped due to
+   * the time or branch limit.
+   */
+  private int limitedSearches = 0;
+
+  /**
+   * This variable is the largest optimality gap of the searches that have been
+   * stopped due to the time or branch limit.
+   */
+  private double gap = 0;
+
+  /**
+   * The constructor of a budget using the time and branch limits of the
+   * configuration.
+   */
+  public SolverBudget ()
+  {
+    this(Constants.SOLVER_TIME_LIMIT, Constants.SOLVER_BRANCH_LIMIT);
+  }
+
+  /**
+   * The constructor of a budget.
+   *
+   * @param timeLimit
+   *          The wall clock time (in milliseconds) available for all the
+   *          searches of the event. Zero or less means no limit.
+   * @param branchLimit
+   *          The number of branches available for all the searches of the
+   *          event. Zero or less means no limit.
+   */
+  public SolverBudget (long timeLimit, long branchLimit)
+  {
+    this.timeLimit = timeLimit;
+
+    unlimitedBranches = (branchLimit <= 0);
+    remainingBranches = unlimitedBranches ? Long.MAX_VALUE : branchLimit;
+  }
+
+  /**
+   * This function is used for setting the number of searches that may run at
+   * the same time using the budget.
+   *
+   * @param parallelism
+   *          The number of concurrent searches.
+   */
+  public synchronized void setParallelism (int parallelism)
+  {
+    this.parallelism = Math.max(1, parallelism);
+  }
+
+  /**
+   * This function returns the time (in milliseconds) left for the searches of
+   * the event, starting the clock at the first call.
+   */
+  public synchronized long getRemainingTime ()
+  {
+    if (timeLimit <= 0)
+      return Long.MAX_VALUE;
+
+    if (deadline < 0)
+      deadline = System.currentTimeMillis() + timeLimit;
+
+    return Math.max(0, deadline - System.currentTimeMillis());
+  }
+
+  /**
+   * This function returns the number of branches left for the searches of the
+   * event.
+   */
+  public synchronized long getRemainingBranches ()
+  {
+    return remainingBranches;
+  }
+
+  /**
+   * This function is used for reserving the branches of a search before it
+   * starts. The reserved branches are taken from the budget until the search
+   * is registered by the consume function.
+   *
+   * @return the number of branches the search may spend.
+   */
+  public synchronized long reserveBranches ()
+  {
+    if (unlimitedBranches)
+      return Long.MAX_VALUE;
+
+    long share = remainingBranches / parallelism;
+
+    if (share == 0)
+      share = remainingBranches;
+
+    remainingBranches -= share;
+
+    return share;
+  }
+
+  /**
+   * This function is used for registering the outcome of a search that did
+   * not reserve any branches.
+   *
+   * @param branches
+   *          The number of branches the search spent.
+   * @param crossed
+   *          The flag showing if the search was stopped by the limits or
+   *          ended without proving its solution optimal.
+   * @param searchGap
+   *          The optimality gap of the best solution of the search.
+   */
+  public void consume (long branches, boolean crossed, double searchGap)
+  {
+    consume(0, branches, crossed, searchGap);
+  }
+
+  /**
+   * This function is used for registering the outcome of a search that used
+   * the budget, returning the reserved branches it did not spend.
+   *
+   * @param reserved
+   *          The number of branches reserved for the search.
+   * @param branches
+   *          The number of branches the search spent.
+   * @param crossed
+   *          The flag showing if the search was stopped by the limits or
+   *          ended without proving its solution optimal.
+   * @param searchGap
+   *          The optimality gap of the best solution of the search.
+   */
+  public synchronized void consume (long reserved, long branches,
+                                    boolean crossed, double searchGap)
+  {
+    if (!unlimitedBranches)
+      remainingBranches = Math.max(0, remainingBranches + reserved - branches);
+
+    if (crossed) {
+      limitReached = true;
+      limitedSearches++;
+      gap = Math.max(gap, searchGap);
+    }
+  }
+
+  public boolean isLimitReached ()
+  {
+    return limitReached;
+  }
+
+  public synchronized int getLimitedSearches ()
+  {
+    return limitedSearches;
+  }
+
+  public synchronized double getGap ()
+  {
+    return gap;
+  }
+}
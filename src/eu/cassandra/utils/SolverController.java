@@ -0,0 +1,320 @@
+/*
+Copyright 2011-2013 The Cassandra Consortium (cassandra-fp7.eu)
+
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package eu.cassandra.utils;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import org.apache.log4j.Logger;
+
+/**
+ * This class is used for choosing the number of points of interest per
+ * cluster of each event, and thus whether the event takes the simple or the
+ * complex (clustering) path, based on the cost of the integer programming
+ * problems measured during the run. The time of the whole solution of each
+ * set of points (the combinations, the partial and the full problems, even if
+ * they are solved in a batch) is recorded against its number of points of
+ * interest and candidate combinations and two least squares models are fitted
+ * incrementally:
+ *
+ * log(1 + time) = c0 + c1 * points + c2 * log(1 + candidates)
+ * log(1 + candidates) = d0 + d1 * points
+ *
+ * An event is solved as a whole as long as its predicted time is within the
+ * time budget, while otherwise the largest cluster size whose clusters fit in
+ * the budget is chosen, since larger clusters lose fewer pairs between
+ * clusters. Until enough problems have been recorded the configured cluster
+ * size is used. The times are measured as CPU time of the solving thread, so
+ * that they are not inflated by the other threads solving at the same time.
+ * The normalized distance of the events of each path is recorded only for
+ * reporting and does not affect the choice of the cluster size.
+ */
+public class SolverController
+{
+
+  static Logger log = Logger.getLogger(SolverController.class);
+
+  /**
+   * This constant is the number of problems that must be recorded before the
+   * cost model is used.
+   */
+  public static final int MIN_OBSERVATIONS = 20;
+
+  /**
+   * This constant is the regularization added to the normal equations so that
+   * they can be solved before the observations span enough sizes.
+   */
+  private static final double RIDGE = 1e-6;
+
+  /**
+   * This variable is used for measuring the CPU time of the threads.
+   */
+  private static final ThreadMXBean THREADS = ManagementFactory
+          .getThreadMXBean();
+
+  /**
+   * This variable contains the sums of the normal equations of the time model
+   * (features: 1, points, log(1 + candidates)).
+   */
+  private double[][] timeMatrix = new double[3][3];
+
+  private double[] timeVector = new double[3];
+
+  /**
+   * This variable contains the sums of the normal equations of the candidates
+   * model (features: 1, points).
+   */
+  private double[][] candidatesMatrix = new double[2][2];
+
+  private double[] candidatesVector = new double[2];
+
+  private int observations = 0;
+
+  /**
+   * This variable contains the fitted coefficients of the time model (null
+   * until enough problems have been recorded).
+   */
+  private double[] timeModel = null;
+
+  private double[] candidatesModel = null;
+
+  /**
+   * These variables contain the number of events, the overall points of
+   * interest and the overall normalized distance of the simple (index 0) and
+   * the complex (index 1) path.
+   */
+  private int[] events = new int[2];
+
+  private long[] points = new long[2];
+
+  private double[] distance = new double[2];
+
+  /**
+   * This function returns the CPU time (in nanoseconds) of the current thread,
+   * or the wall clock time in case the CPU time is not supported.
+   */
+  public static long threadTime ()
+  {
+    if (THREADS.isCurrentThreadCpuTimeSupported())
+      return THREADS.getCurrentThreadCpuTime();
+    else
+      return System.nanoTime();
+  }
+
+  /**
+   * This function returns the time (in milliseconds) passed since a time
+   * returned by the threadTime function.
+   */
+  public static double elapsed (long start)
+  {
+    return (threadTime() - start) / 1000000.0;
+  }
+
+  /**
+   * This function is used for recording the time of the solution of a set of
+   * points of interest.
+   *
+   * @param pois
+   *          The number of points of interest.
+   * @param candidates
+   *          The number of candidate combinations of the partial problem.
+   * @param time
+   *          The time (in milliseconds) spent for the whole solution.
+   */
+  public synchronized void recordProblem (int pois, int candidates,
+                                          double time)
+  {
+    double logCandidates = Math.log1p(candidates);
+    double[] features = { 1, pois, logCandidates };
+    double target = Math.log1p(Math.max(0, time));
+
+    for (int i = 0; i < 3; i++) {
+      for (int j = 0; j < 3; j++)
+        timeMatrix[i][j] += features[i] * features[j];
+      timeVector[i] += features[i] * target;
+    }
+
+    for (int i = 0; i < 2; i++) {
+      for (int j = 0; j < 2; j++)
+        candidatesMatrix[i][j] += features[i] * features[j];
+      candidatesVector[i] += features[i] * logCandidates;
+    }
+
+    observations++;
+
+    if (observations >= MIN_OBSERVATIONS) {
+      timeModel = solve(timeMatrix, timeVector, RIDGE);
+      candidatesModel = solve(candidatesMatrix, candidatesVector, RIDGE);
+    }
+  }
+
+  /**
+   * This function is used for recording the outcome of an event. The distance
+   * is only reported by the status function and is not used by clusterSize.
+   *
+   * @param clustered
+   *          The flag that shows that the event took the complex path.
+   * @param pois
+   *          The number of points of interest of the event.
+   * @param eventDistance
+   *          The overall normalized distance of the solution of the event.
+   */
+  public synchronized void recordEvent (boolean clustered, int pois,
+                                        double eventDistance)
+  {
+    if (Double.isInfinite(eventDistance) || Double.isNaN(eventDistance))
+      return;
+
+    int index = clustered ? 1 : 0;
+
+    events[index]++;
+    points[index] += pois;
+    distance[index] += eventDistance;
+  }
+
+  /**
+   * This function returns the predicted time (in milliseconds) of the
+   * problems of a set of points of interest, or a negative value if the model
+   * is not fitted yet.
+   */
+  public synchronized double predictTime (int pois)
+  {
+    if (timeModel == null)
+      return -1;
+
+    double logCandidates =
+      Math.max(0, candidatesModel[0] + candidatesModel[1] * pois);
+
+    return Math.expm1(timeModel[0] + timeModel[1] * pois + timeModel[2]
+                      * logCandidates);
+  }
+
+  /**
+   * This function is used for choosing the number of points of interest per
+   * cluster of an event. Events with fewer points than the result are solved
+   * as a whole.
+   *
+   * @param pois
+   *          The number of points of interest of the event.
+   * @return The number of points of interest per cluster.
+   */
+  public int clusterSize (int pois)
+  {
+    if (!Constants.ADAPTIVE_CLUSTERING || predictTime(pois) < 0)
+      return Constants.MAX_POINTS_OF_INTEREST;
+
+    double budget = Constants.ADAPTIVE_TIME_BUDGET;
+    int largest = Math.max(Constants.ADAPTIVE_MIN_POINTS,
+                           Constants.ADAPTIVE_MAX_POINTS);
+
+    // The recorded times contain both the partial and the full solution of
+    // each set of points.
+    if (pois <= Constants.ADAPTIVE_MIN_POINTS
+        || (pois <= largest && predictTime(pois) <= budget))
+      return pois + 1;
+
+    int size = Math.min(pois, largest);
+
+    for (; size > Constants.ADAPTIVE_MIN_POINTS; size--) {
+      int clusters = (int) Math.ceil((double) pois / size);
+      if (clusters * predictTime(size) <= budget)
+        break;
+    }
+
+    return size;
+  }
+
+  /**
+   * This is an auxiliary function solving the regularized normal equations of
+   * a least squares model with Gaussian elimination.
+   */
+  private static double[] solve (double[][] matrix, double[] vector,
+                                 double ridge)
+  {
+    int n = vector.length;
+    double[][] a = new double[n][n + 1];
+
+    for (int i = 0; i < n; i++) {
+      for (int j = 0; j < n; j++)
+        a[i][j] = matrix[i][j];
+      a[i][i] += ridge;
+      a[i][n] = vector[i];
+    }
+
+    for (int k = 0; k < n; k++) {
+      int pivot = k;
+      for (int i = k + 1; i < n; i++)
+        if (Math.abs(a[i][k]) > Math.abs(a[pivot][k]))
+          pivot = i;
+
+      double[] swap = a[k];
+      a[k] = a[pivot];
+      a[pivot] = swap;
+
+      for (int i = k + 1; i < n; i++) {
+        double factor = a[i][k] / a[k][k];
+        for (int j = k; j <= n; j++)
+          a[i][j] -= factor * a[k][j];
+      }
+    }
+
+    double[] result = new double[n];
+
+    for (int i = n - 1; i >= 0; i--) {
+      double sum = a[i][n];
+      for (int j = i + 1; j < n; j++)
+        sum -= a[i][j] * result[j];
+      result[i] = sum / a[i][i];
+    }
+
+    return result;
+  }
+
+  public synchronized void clear ()
+  {
+    timeMatrix = new double[3][3];
+    timeVector = new double[3];
+    candidatesMatrix = new double[2][2];
+    candidatesVector = new double[2];
+    observations = 0;
+    timeModel = null;
+    candidatesModel = null;
+    events = new int[2];
+    points = new long[2];
+    distance = new double[2];
+  }
+
+  public synchronized void status ()
+  {
+    log.info("Solver Controller Problems: " + observations
+             + " Time Model: "
+             + ((timeModel == null) ? "Not Fitted" : timeModel[0] + " + "
+                                                     + timeModel[1]
+                                                     + " * POIs + "
+                                                     + timeModel[2]
+                                                     + " * log(Candidates)"));
+
+    String[] names = { "Simple", "Complex" };
+
+    for (int i = 0; i < 2; i++)
+      if (events[i] > 0)
+        log.info(names[i] + " Path Events: " + events[i]
+                 + " Average POIs: " + (double) points[i] / events[i]
+                 + " Distance Per POI: " + distance[i] / points[i]);
+  }
+}
@@ -0,0 +1,399 @@
+/*
+Copyright 2011-2013 The Cassandra Consortium (cassandra-fp7.eu)
+
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package eu.cassandra.utils;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.log4j.Logger;
+
+/**
+ * This class is a clustering engine working on primitive feature arrays, used
+ * in place of the Weka clusterers for large data sets. The features are
+ * normalized to the [0, 1] range, as the Weka euclidean distance does, and
+ * clustered with k-means for each number of clusters up to a maximum. Small
+ * data sets are clustered with the classic k-means iterations, while large
+ * ones are clustered with mini-batch k-means, so the memory and the time
+ * needed grow linearly with the number of instances. The number of clusters
+ * is selected automatically as the one with the best Calinski-Harabasz index
+ * (the ratio of the dispersion between the clusters to the dispersion within
+ * them). The assignment of the instances of large data sets to their nearest
+ * centers is done concurrently.
+ */
+public class StreamingClusterer
+{
+
+  static Logger log = Logger.getLogger(StreamingClusterer.class);
+
+  /**
+   * This constant is the number of instances of each mini batch. Data sets up
+   * to this size are clustered with the classic k-means iterations.
+   */
+  private static final int BATCH_SIZE = 1024;
+
+  /**
+   * This constant is the number of mini batches, or the maximum number of
+   * classic k-means iterations.
+   */
+  private static final int ITERATIONS = 100;
+
+  private final int maxClusters;
+
+  private final long seed;
+
+  /**
+   * This variable contains the number of clusters of the last clustering.
+   */
+  private int numberOfClusters = 0;
+
+  /**
+   * The constructor of a streaming clusterer.
+   *
+   * @param maxClusters
+   *          The maximum number of clusters.
+   * @param seed
+   *          The seed of the random choices, so that the clustering can be
+   *          repeated.
+   */
+  public StreamingClusterer (int maxClusters, long seed)
+  {
+    this.maxClusters = Math.max(1, maxClusters);
+    this.seed = seed;
+  }
+
+  /**
+   * This function is used for clustering a set of instances.
+   *
+   * @param features
+   *          The features of the instances, stored one instance after the
+   *          other.
+   * @param dimensions
+   *          The number of features of each instance.
+   * @return the cluster (from 0) of each instance.
+   */
+  public int[] cluster (double[] features, int dimensions)
+  {
+    int size = features.length / dimensions;
+    double[] data = normalize(features, dimensions);
+
+    int[] result = new int[size];
+    numberOfClusters = (size > 0) ? 1 : 0;
+
+    if (size < 3)
+      return result;
+
+    double total = sumOfSquares(data, dimensions, new int[size], 1);
+    double bestIndex = Double.NEGATIVE_INFINITY;
+
+    if (total == 0)
+      return result;
+
+    for (int k = 2; k <= Math.min(maxClusters, size - 1); k++) {
+
+      int[] labels = new int[size];
+      int clusters = kMeans(data, dimensions, k, labels);
+      double within = sumOfSquares(data, dimensions, labels, k);
+
+      // The clusters are compared with the Calinski-Harabasz index, where a
+      // perfect separation is always preferred.
+      double index =
+        (within == 0) ? Double.POSITIVE_INFINITY : ((total - within) / (k - 1))
+                                                   / (within / (size - k));
+
+      log.debug("Clusters: " + k + " Non Empty: " + clusters + " Index: "
+                + index);
+
+      if (bestIndex < index) {
+        bestIndex = index;
+        result = labels;
+        numberOfClusters = clusters;
+      }
+
+      if (within == 0)
+        break;
+    }
+
+    log.info("Clustered " + size + " Instances in " + numberOfClusters
+             + " Clusters");
+
+    return result;
+  }
+
+  /**
+   * This function is used as a getter for the number of clusters of the last
+   * clustering.
+   *
+   * @return the number of non empty clusters.
+   */
+  public int getNumberOfClusters ()
+  {
+    return numberOfClusters;
+  }
+
+  /**
+   * This is an auxiliary function clustering the instances with k-means for a
+   * given number of clusters.
+   *
+   * @return the number of non empty clusters.
+   */
+  private int kMeans (double[] data, int dimensions, int k, int[] labels)
+  {
+    int size = labels.length;
+    Random random = new Random(seed);
+    double[] centers = initialCenters(data, dimensions, k, random);
+
+    if (size <= BATCH_SIZE) {
+      for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+        boolean changed = assign(data, dimensions, centers, k, labels);
+        updateCenters(data, dimensions, centers, k, labels);
+        if (!changed && iteration > 0)
+          break;
+      }
+    }
+    else {
+      int[] counts = new int[k];
+
+      for (int iteration = 0; iteration < ITERATIONS; iteration++)
+        for (int b = 0; b < BATCH_SIZE; b++) {
+          int i = random.nextInt(size);
+          int c = nearest(data, dimensions, i, centers, k);
+          double rate = 1.0 / ++counts[c];
+
+          for (int d = 0; d < dimensions; d++)
+            centers[c * dimensions + d] +=
+              rate * (data[i * dimensions + d] - centers[c * dimensions + d]);
+        }
+
+      assign(data, dimensions, centers, k, labels);
+      updateCenters(data, dimensions, centers, k, labels);
+    }
+
+    // The clusters are renumbered in the order of their first instance,
+    // skipping the empty ones.
+    int[] names = new int[k];
+    Arrays.fill(names, -1);
+    int clusters = 0;
+
+    for (int i = 0; i < size; i++) {
+      if (names[labels[i]] == -1)
+        names[labels[i]] = clusters++;
+      labels[i] = names[labels[i]];
+    }
+
+    return clusters;
+  }
+
+  /**
+   * This is an auxiliary function choosing the initial centers with the
+   * k-means++ procedure over a sample of the instances.
+   */
+  private static double[] initialCenters (double[] data, int dimensions,
+                                          int k, Random random)
+  {
+    int size = data.length / dimensions;
+    int sampleSize = Math.min(size, BATCH_SIZE);
+    int[] sample = new int[sampleSize];
+
+    for (int s = 0; s < sampleSize; s++)
+      sample[s] = (sampleSize == size) ? s : random.nextInt(size);
+
+    double[] centers = new double[k * dimensions];
+    double[] distances = new double[sampleSize];
+    Arrays.fill(distances, Double.POSITIVE_INFINITY);
+
+    int chosen = sample[random.nextInt(sampleSize)];
+
+    for (int c = 0; c < k; c++) {
+
+      System.arraycopy(data, chosen * dimensions, centers, c * dimensions,
+                       dimensions);
+
+      double sum = 0;
+      for (int s = 0; s < sampleSize; s++) {
+        distances[s] =
+          Math.min(distances[s],
+                   distance(data, sample[s] * dimensions, centers, c
+                                                                   * dimensions,
+                            dimensions));
+        sum += distances[s];
+      }
+
+      // The next center is chosen with probability proportional to the
+      // squared distance from the closest center.
+      double target = random.nextDouble() * sum;
+      chosen = sample[sampleSize - 1];
+
+      for (int s = 0; s < sampleSize; s++) {
+        target -= distances[s];
+        if (target < 0) {
+          chosen = sample[s];
+          break;
+        }
+      }
+    }
+
+    return centers;
+  }
+
+  /**
+   * This is an auxiliary function assigning each instance to its nearest
+   * center. The distances of large data sets are evaluated concurrently.
+   *
+   * @return true if any of the labels changed, false otherwise.
+   */
+  private static boolean assign (final double[] data, final int dimensions,
+                                 final double[] centers, final int k,
+                                 final int[] labels)
+  {
+    if (labels.length <= BATCH_SIZE)
+      return assign(data, dimensions, centers, k, labels, 0, labels.length);
+
+    final boolean[] changed = { false };
+
+    Utils.inParts(labels.length, new Utils.Part() {
+      @Override
+      public void run (int from, int to)
+      {
+        if (assign(data, dimensions, centers, k, labels, from, to))
+          synchronized (changed) {
+            changed[0] = true;
+          }
+      }
+    });
+
+    return changed[0];
+  }
+
+  private static boolean assign (double[] data, int dimensions,
+                                 double[] centers, int k, int[] labels,
+                                 int from, int to)
+  {
+    boolean changed = false;
+
+    for (int i = from; i < to; i++) {
+      int c = nearest(data, dimensions, i, centers, k);
+      if (labels[i] != c) {
+        labels[i] = c;
+        changed = true;
+      }
+    }
+
+    return changed;
+  }
+
+  /**
+   * This is an auxiliary function moving each non empty center to the mean of
+   * its instances.
+   */
+  private static void updateCenters (double[] data, int dimensions,
+                                     double[] centers, int k, int[] labels)
+  {
+    double[] sums = new double[k * dimensions];
+    int[] counts = new int[k];
+
+    for (int i = 0; i < labels.length; i++) {
+      counts[labels[i]]++;
+      for (int d = 0; d < dimensions; d++)
+        sums[labels[i] * dimensions + d] += data[i * dimensions + d];
+    }
+
+    for (int c = 0; c < k; c++)
+      if (counts[c] > 0)
+        for (int d = 0; d < dimensions; d++)
+          centers[c * dimensions + d] = sums[c * dimensions + d] / counts[c];
+  }
+
+  private static int nearest (double[] data, int dimensions, int i,
+                              double[] centers, int k)
+  {
+    int result = 0;
+    double best = Double.POSITIVE_INFINITY;
+
+    for (int c = 0; c < k; c++) {
+      double distance =
+        distance(data, i * dimensions, centers, c * dimensions, dimensions);
+      if (distance < best) {
+        best = distance;
+        result = c;
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * This is an auxiliary function returning the squared euclidean distance of
+   * two points.
+   */
+  private static double distance (double[] a, int from, double[] b, int to,
+                                  int dimensions)
+  {
+    double result = 0;
+
+    for (int d = 0; d < dimensions; d++) {
+      double difference = a[from + d] - b[to + d];
+      result += difference * difference;
+    }
+
+    return result;
+  }
+
+  /**
+   * This is an auxiliary function returning the sum of the squared distances
+   * of the instances from the mean of their cluster.
+   */
+  private static double sumOfSquares (double[] data, int dimensions,
+                                      int[] labels, int k)
+  {
+    double[] centers = new double[k * dimensions];
+    updateCenters(data, dimensions, centers, k, labels);
+
+    double result = 0;
+
+    for (int i = 0; i < labels.length; i++)
+      result +=
+        distance(data, i * dimensions, centers, labels[i] * dimensions,
+                 dimensions);
+
+    return result;
+  }
+
+  /**
+   * This is an auxiliary function normalizing each feature to the [0, 1]
+   * range. Features with a single value are set to zero.
+   */
+  private static double[] normalize (double[] features, int dimensions)
+  {
+    double[] result = new double[features.length];
+
+    for (int d = 0; d < dimensions; d++) {
+
+      double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+
+      for (int i = d; i < features.length; i += dimensions) {
+        min = Math.min(min, features[i]);
+        max = Math.max(max, features[i]);
+      }
+
+      for (int i = d; i < features.length; i += dimensions)
+        result[i] = (max > min) ? (features[i] - min) / (max - min) : 0;
+    }
+
+    return result;
+  }
+}
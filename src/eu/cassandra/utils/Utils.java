@@ -17,14 +17,30 @@ limitations under the License.
 
 package eu.cassandra.utils;
 
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Map;
 import java.util.Scanner;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
 import org.jfree.chart.ChartFactory;
@@ -34,13 +50,6 @@ import org.jfree.chart.plot.PlotOrientation;
 import org.jfree.data.xy.XYSeries;
 import org.jfree.data.xy.XYSeriesCollection;
 
-import weka.clusterers.SimpleKMeans;
-import weka.core.Attribute;
-import weka.core.DenseInstance;
-import weka.core.Instance;
-import weka.core.Instances;
-import weka.filters.Filter;
-import weka.filters.unsupervised.attribute.AddCluster;
 import eu.cassandra.appliance.Appliance;
 import eu.cassandra.event.Event;
 
@@ -56,6 +65,17 @@ public class Utils
 {
   static Logger log = Logger.getLogger(Utils.class);
 
+  /**
+   * This variable is the thread pool shared by all the concurrent procedures
+   * of the module. It is created at the first use and kept for the whole run.
+   */
+  private static ExecutorService executor = null;
+
+  /**
+   * This variable is the number of threads of the shared thread pool.
+   */
+  private static int executorThreads = 0;
+
   /** Loading a library for integer programming. */
   static {
     System.loadLibrary("jniconstraintsolver");
@@ -359,12 +379,32 @@ public class Utils
    * 
    * @param pois
    *          The list of points of interest that will be clustered.
+   * @param bias
+   *          The bias added to the estimated number of clusters.
+   * @return The newly created clusters with the points that are comprising
+   *         them.
+   */
+  public static ArrayList<ArrayList<PointOfInterest>>
+    clusterPoints (ArrayList<PointOfInterest> pois, int bias)
+  {
+    return clusterPoints(pois, bias, Constants.MAX_POINTS_OF_INTEREST);
+  }
+
+  /**
+   * This function is used for clustering the points of interest of an event
+   * with a given number of points of interest per cluster.
+   * 
+   * @param pois
+   *          The list of points of interest that will be clustered.
+   * @param bias
+   *          The bias added to the estimated number of clusters.
+   * @param clusterSize
+   *          The number of points of interest per cluster.
    * @return The newly created clusters with the points that are comprising
    *         them.
-   * @throws Exception
    */
   public static ArrayList<ArrayList<PointOfInterest>>
-    clusterPoints (ArrayList<PointOfInterest> pois, int bias) throws Exception
+    clusterPoints (ArrayList<PointOfInterest> pois, int bias, int clusterSize)
   {
     // Initialize the auxiliary variables
     ArrayList<ArrayList<PointOfInterest>> result =
@@ -372,93 +412,230 @@ public class Utils
 
     // Estimating the number of clusters that will be created
     int numberOfClusters =
-      (int) (Math.ceil((double) pois.size()
-                       / (double) Constants.MAX_POINTS_OF_INTEREST))
-              + bias;
+      (int) (Math.ceil((double) pois.size() / (double) clusterSize)) + bias;
 
-    log.info("Clusters: " + pois.size() + " / "
-             + Constants.MAX_POINTS_OF_INTEREST + " + " + bias + " = "
-             + numberOfClusters);
+    log.info("Clusters: " + pois.size() + " / " + clusterSize + " + " + bias
+             + " = " + numberOfClusters);
 
     // Create a new empty list of points for each cluster
     for (int i = 0; i < numberOfClusters; i++)
       result.add(new ArrayList<PointOfInterest>());
 
-    // Initializing auxiliary variables namely the attributes of the data set
-    Attribute id = new Attribute("id");
-    Attribute pDiffRise = new Attribute("pDiff");
-
-    ArrayList<Attribute> attr = new ArrayList<Attribute>();
-    attr.add(id);
-    attr.add(pDiffRise);
+    // The points are clustered by the absolute value of their active power
+    // difference.
+    double[] values = new double[pois.size()];
+    for (int i = 0; i < pois.size(); i++)
+      values[i] = Math.abs(pois.get(i).getPDiff());
 
-    Instances instances = new Instances("Points of Interest", attr, 0);
+    int[] clusters = clusterValues(values, numberOfClusters);
 
-    // Each event is translated to an instance with the above attributes
-    for (int i = 0; i < pois.size(); i++) {
+    for (int i = 0; i < clusters.length; i++) {
 
-      Instance inst = new DenseInstance(2);
-      inst.setValue(id, i);
-      inst.setValue(pDiffRise, Math.abs(pois.get(i).getPDiff()));
+      log.debug("Point of Interest: " + i + " Cluster: " + clusters[i]);
 
-      instances.add(inst);
+      result.get(clusters[i]).add(pois.get(i));
+    }
 
+    // Sorting the each cluster points by their minutes.
+    for (int i = result.size() - 1; i >= 0; i--) {
+      if (result.get(i).size() == 0)
+        result.remove(i);
+      else
+        Collections.sort(result.get(i), Constants.comp);
     }
 
-    // System.out.println(instances.toString());
+    // Sorting the all clusters by their active power.
 
-    Instances newInst = null;
+    Collections.sort(result, Constants.comp5);
 
-    log.debug("Instances: " + instances.toSummaryString());
+    return result;
+  }
 
-    // Create the addcluster filter of Weka and the set up the hierarchical
-    // clusterer.
-    AddCluster addcluster = new AddCluster();
+  /**
+   * This function is used for the optimal k-means clustering of a set of
+   * single values. Since the values are one dimensional, the optimal clusters
+   * are consecutive in the sorted values and can be found with dynamic
+   * programming over the sum of squared distances from the cluster means. The
+   * minimum of each step is found with the SMAWK algorithm, so the procedure
+   * takes O(n * k) time after sorting and gives always the same result.
+   * 
+   * @param values
+   *          The values that will be clustered.
+   * @param numberOfClusters
+   *          The number of clusters.
+   * @return An array with the cluster index of each value, with the clusters
+   *         ordered by their values.
+   */
+  public static int[] clusterValues (double[] values, int numberOfClusters)
+  {
+    final int n = values.length;
+    int[] result = new int[n];
 
-    SimpleKMeans kmeans = new SimpleKMeans();
+    if (n == 0)
+      return result;
 
-    kmeans.setSeed(numberOfClusters);
+    int k = Math.max(1, Math.min(numberOfClusters, n));
 
-    // This is the important parameter to set
-    kmeans.setPreserveInstancesOrder(true);
-    kmeans.setNumClusters(numberOfClusters);
-    kmeans.buildClusterer(instances);
+    // Sorting the indices of the values (equal values by index)
+    Integer[] order = new Integer[n];
+    for (int i = 0; i < n; i++)
+      order[i] = i;
 
-    addcluster.setClusterer(kmeans);
-    addcluster.setInputFormat(instances);
-    addcluster.setIgnoredAttributeIndices("1");
+    final double[] tempValues = values;
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare (Integer i1, Integer i2)
+      {
+        if (tempValues[i1] != tempValues[i2])
+          return Double.compare(tempValues[i1], tempValues[i2]);
+        else
+          return Integer.compare(i1, i2);
+      }
+    });
+
+    // Prefix sums of the sorted values and their squares
+    double[] sum = new double[n + 1];
+    double[] sumSquares = new double[n + 1];
+    for (int i = 0; i < n; i++) {
+      sum[i + 1] = sum[i] + values[order[i]];
+      sumSquares[i + 1] = sumSquares[i] + values[order[i]] * values[order[i]];
+    }
 
-    // Cluster data set
-    newInst = Filter.useFilter(instances, addcluster);
+    // cost[q][i] is the minimum cost of the first i + 1 values in q + 1
+    // clusters and start[q][i] is the index the last of these clusters
+    // starts.
+    double[][] cost = new double[k][n];
+    int[][] start = new int[k][n];
 
-    // System.out.println(newInst.toString());
+    for (int i = 0; i < n; i++)
+      cost[0][i] = sumOfSquares(sum, sumSquares, 0, i);
 
-    // Parse through the dataset to see where each point is placed in the
-    // clusters.
-    for (int i = 0; i < newInst.size(); i++) {
+    for (int q = 1; q < k; q++) {
 
-      String cluster = newInst.get(i).stringValue(newInst.attribute(2));
+      int[] indices = new int[n - q];
+      for (int i = 0; i < indices.length; i++)
+        indices[i] = q + i;
 
-      cluster = cluster.replace("cluster", "");
+      smawk(indices, indices, start[q], cost[q - 1], sum, sumSquares);
 
-      log.debug("Point of Interest: " + i + " Cluster: " + cluster);
+      for (int i = q; i < n; i++)
+        cost[q][i] =
+          cost[q - 1][start[q][i] - 1]
+                  + sumOfSquares(sum, sumSquares, start[q][i], i);
+    }
 
-      result.get(Integer.parseInt(cluster) - 1).add(pois.get(i));
+    // Backtracking the clusters from the last value
+    int end = n - 1;
+    for (int q = k - 1; q >= 0; q--) {
+      int first = (q == 0) ? 0 : start[q][end];
+      for (int i = first; i <= end; i++)
+        result[order[i]] = q;
+      end = first - 1;
     }
 
-    // Sorting the each cluster points by their minutes.
-    for (int i = result.size() - 1; i >= 0; i--) {
-      if (result.get(i).size() == 0)
-        result.remove(i);
-      else
-        Collections.sort(result.get(i), Constants.comp);
+    return result;
+  }
+
+  /**
+   * This is an auxiliary function estimating the sum of squared distances from
+   * the mean of the sorted values from index first to index last.
+   */
+  private static double sumOfSquares (double[] sum, double[] sumSquares,
+                                      int first, int last)
+  {
+    double s = sum[last + 1] - sum[first];
+    double result =
+      sumSquares[last + 1] - sumSquares[first] - s * s / (last - first + 1);
+
+    return Math.max(0, result);
+  }
+
+  /**
+   * This is an auxiliary function returning the cost of the optimal clustering
+   * of the first value + 1 sorted values, when the last cluster starts from
+   * the given index.
+   */
+  private static double clusterCost (int value, int index,
+                                     double[] previousCost, double[] sum,
+                                     double[] sumSquares)
+  {
+    if (index > value)
+      return Double.POSITIVE_INFINITY;
+
+    return previousCost[index - 1]
+           + sumOfSquares(sum, sumSquares, index, value);
+  }
+
+  /**
+   * This is the SMAWK algorithm used for finding the leftmost minimum of each
+   * row of a totally monotone matrix in linear time. The rows are the values
+   * and the columns the index the last cluster starts.
+   * 
+   * @param rows
+   *          The rows under examination.
+   * @param columns
+   *          The columns under examination.
+   * @param result
+   *          The array where the column of the minimum of each row is stored.
+   */
+  private static void smawk (int[] rows, int[] columns, int[] result,
+                             double[] previousCost, double[] sum,
+                             double[] sumSquares)
+  {
+    if (rows.length == 0)
+      return;
+
+    // Reduce the columns to as many as the rows, removing the columns that
+    // can not contain a minimum.
+    int[] stack = new int[Math.min(rows.length, columns.length)];
+    int size = 0;
+
+    for (int column: columns) {
+      while (size > 0
+             && clusterCost(rows[size - 1], stack[size - 1], previousCost, sum,
+                            sumSquares) > clusterCost(rows[size - 1], column,
+                                                      previousCost, sum,
+                                                      sumSquares))
+        size--;
+
+      if (size < rows.length)
+        stack[size++] = column;
     }
 
-    // Sorting the all clusters by their active power.
+    int[] reduced = Arrays.copyOf(stack, size);
 
-    Collections.sort(result, Constants.comp5);
+    // Solve for the odd rows
+    int[] odd = new int[rows.length / 2];
+    for (int i = 0; i < odd.length; i++)
+      odd[i] = rows[2 * i + 1];
 
-    return result;
+    smawk(odd, reduced, result, previousCost, sum, sumSquares);
+
+    // The minimum of each even row lies between the minimums of its
+    // neighbouring odd rows.
+    int c = 0;
+    for (int r = 0; r < rows.length; r += 2) {
+
+      int last =
+        (r + 1 < rows.length) ? result[rows[r + 1]]
+                              : reduced[reduced.length - 1];
+
+      int best = reduced[c];
+      double bestCost =
+        clusterCost(rows[r], best, previousCost, sum, sumSquares);
+
+      while (reduced[c] != last) {
+        c++;
+        double tempCost =
+          clusterCost(rows[r], reduced[c], previousCost, sum, sumSquares);
+        if (tempCost < bestCost) {
+          bestCost = tempCost;
+          best = reduced[c];
+        }
+      }
+
+      result[rows[r]] = best;
+    }
   }
 
   /**
@@ -512,10 +689,26 @@ public class Utils
   public static ArrayList<PointOfInterest>
     removePoints (ArrayList<PointOfInterest> pois)
   {
+    return removeSmallestPoints(pois, Constants.REMOVAL_MAX_POINTS);
+  }
+
+  /**
+   * This function is used to remove the smallest points of interest from a list
+   * until the given number of points remains.
+   * 
+   * @param pois
+   *          The list of points of interest.
+   * @param maxPoints
+   *          The number of points of interest that remain in the list.
+   * @return The points of interest removed from the list.
+   */
+  public static ArrayList<PointOfInterest>
+    removeSmallestPoints (ArrayList<PointOfInterest> pois, int maxPoints)
+  {
 
     ArrayList<PointOfInterest> result = new ArrayList<PointOfInterest>();
 
-    int number = pois.size() - Constants.REMOVAL_MAX_POINTS;
+    int number = pois.size() - maxPoints;
 
     log.debug("Initial Size: " + pois.size() + " Removing: " + number);
 
@@ -850,6 +1043,26 @@ public class Utils
     return counter;
   }
 
+  /**
+   * This function is used in order to check if an array of 0-1 contains all the
+   * points of interest included in another one.
+   * 
+   * @param points
+   *          The array of points of interest under examination.
+   * @param subset
+   *          The array of points of interest that must be contained.
+   * @return true if all the points of the subset are contained, false
+   *         otherwise.
+   */
+  public static boolean containsPoints (int[] points, int[] subset)
+  {
+    for (int i = 0; i < subset.length; i++)
+      if (subset[i] == 1 && points[i] != 1)
+        return false;
+
+    return true;
+  }
+
   public static void durationCheck (ArrayList<Event> events)
   {
 
@@ -910,4 +1123,204 @@ public class Utils
     return result;
 
   }
+
+  /**
+   * This interface is used for the contents written to a binary file.
+   */
+  public interface Contents
+  {
+    void write (DataOutputStream output) throws IOException;
+  }
+
+  /**
+   * This function is used for writing a binary file so that it is never left
+   * half written. The contents are written to a temporary file in the same
+   * folder, which is synchronized to the disk and then replaces the file
+   * (atomically, if the file system supports it).
+   * 
+   * @param filename
+   *          The name of the file.
+   * @param contents
+   *          The contents written to the file.
+   * @throws IOException
+   */
+  public static void writeAtomically (String filename, Contents contents)
+    throws IOException
+  {
+    Path target = new File(filename).getAbsoluteFile().toPath();
+    Path temp =
+      Files.createTempFile(target.getParent(), target.getFileName().toString(),
+                           ".tmp");
+
+    try {
+      FileOutputStream file = new FileOutputStream(temp.toFile());
+      DataOutputStream output =
+        new DataOutputStream(new BufferedOutputStream(file));
+      try {
+        contents.write(output);
+        output.flush();
+        file.getFD().sync();
+      }
+      finally {
+        output.close();
+      }
+
+      try {
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE,
+                   StandardCopyOption.REPLACE_EXISTING);
+      }
+      catch (AtomicMoveNotSupportedException e) {
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+      }
+    }
+    finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  /**
+   * This interface is used for the work done on a contiguous part of a range
+   * of indices.
+   */
+  public interface Part
+  {
+    void run (int from, int to);
+  }
+
+  /**
+   * This function is used for splitting a range of indices in contiguous
+   * parts that are processed concurrently on the shared thread pool. The
+   * results of each part are visible after the function returns.
+   * 
+   * @param size
+   *          The number of indices.
+   * @param work
+   *          The work done on each part.
+   */
+  public static void inParts (int size, final Part work)
+  {
+    int threads = Math.max(1, Math.min(Constants.IDENTIFICATION_THREADS, size));
+
+    if (threads == 1) {
+      work.run(0, size);
+      return;
+    }
+
+    int part = (size + threads - 1) / threads;
+
+    ArrayList<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+
+    for (int t = 0; t < threads; t++) {
+      final int from = t * part;
+      final int to = Math.min(size, from + part);
+
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call ()
+        {
+          work.run(from, to);
+          return null;
+        }
+      });
+    }
+
+    try {
+      invokeAll(tasks, threads);
+    }
+    catch (RuntimeException e) {
+      throw e;
+    }
+    catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * This function returns the shared thread pool, creating it again in case
+   * the configured number of threads has changed. Its threads are daemon
+   * threads, so the pool does not need to be shut down.
+   */
+  private static synchronized ExecutorService getExecutor ()
+  {
+    int threads = Math.max(1, Constants.SOLVER_THREADS);
+
+    if (executor == null || executorThreads != threads) {
+
+      if (executor != null)
+        executor.shutdown();
+
+      executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread (Runnable runnable)
+        {
+          Thread thread =
+            new Thread(runnable, "Disaggregation-" + counter.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+      executorThreads = threads;
+    }
+
+    return executor;
+  }
+
+  /**
+   * This function is used for running a number of tasks concurrently on the
+   * shared thread pool. The calling thread runs the tasks too, taking them in
+   * order along with the threads of the pool, so a task that is itself
+   * waiting for other tasks (e.g. a bias waiting for its clusters) never
+   * blocks on a busy pool and the overall number of threads stays bounded by
+   * the size of the pool.
+   * 
+   * @param tasks
+   *          The tasks to run.
+   * @param threads
+   *          The maximum number of tasks running at the same time.
+   * @return the results of the tasks, in the order of the tasks.
+   * @throws Exception
+   */
+  public static <T> ArrayList<T> invokeAll (ArrayList<Callable<T>> tasks,
+                                            int threads) throws Exception
+  {
+    final ArrayList<FutureTask<T>> futures = new ArrayList<FutureTask<T>>();
+    for (Callable<T> task: tasks)
+      futures.add(new FutureTask<T>(task));
+
+    final AtomicInteger next = new AtomicInteger();
+
+    Runnable worker = new Runnable() {
+      @Override
+      public void run ()
+      {
+        int index;
+        while ((index = next.getAndIncrement()) < futures.size())
+          futures.get(index).run();
+      }
+    };
+
+    int helpers = Math.min(Math.max(1, threads), futures.size()) - 1;
+    for (int h = 0; h < helpers; h++)
+      getExecutor().execute(worker);
+
+    worker.run();
+
+    ArrayList<T> result = new ArrayList<T>();
+
+    for (FutureTask<T> future: futures) {
+      try {
+        result.add(future.get());
+      }
+      catch (ExecutionException e) {
+        if (e.getCause() instanceof Exception)
+          throw (Exception) e.getCause();
+        else
+          throw e;
+      }
+    }
+
+    return result;
+  }
 }